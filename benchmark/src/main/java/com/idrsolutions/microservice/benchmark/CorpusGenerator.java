@@ -0,0 +1,181 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Generates synthetic PDFs and Word documents with a chosen number of pages,
+ * so that benchmarks do not depend on a collection of real documents.
+ * <p>
+ * Each page holds a few lines of text in a standard font. The documents are
+ * deterministic, so results can be compared between runs.
+ */
+public final class CorpusGenerator {
+
+    private static final int LINES_PER_PAGE = 40;
+
+    private CorpusGenerator() {
+    }
+
+    /**
+     * Writes a PDF for each page count, named [pages]-pages.pdf, and a Word
+     * document for each page count, named [pages]-pages.docx, when office
+     * documents are requested.
+     *
+     * @param dir the directory to write the documents to
+     * @param pageCounts the page counts to generate documents for
+     * @param includeOffice true to also generate Word documents
+     * @return the generated documents
+     * @throws IOException if a document cannot be written
+     */
+    public static List<File> generate(final File dir, final int[] pageCounts, final boolean includeOffice) throws IOException {
+        Files.createDirectories(dir.toPath());
+        final List<File> documents = new ArrayList<>();
+        for (final int pageCount : pageCounts) {
+            final File pdf = new File(dir, pageCount + "-pages.pdf");
+            Files.write(pdf.toPath(), createPdf(pageCount));
+            documents.add(pdf);
+
+            if (includeOffice) {
+                final File docx = new File(dir, pageCount + "-pages.docx");
+                Files.write(docx.toPath(), createDocx(pageCount));
+                documents.add(docx);
+            }
+        }
+        return documents;
+    }
+
+    /**
+     * Creates a PDF with the given number of text pages and a valid cross
+     * reference table.
+     *
+     * @param pageCount the number of pages
+     * @return the PDF file content
+     */
+    public static byte[] createPdf(final int pageCount) {
+        final ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+        final List<Integer> offsets = new ArrayList<>();
+        write(pdf, "%PDF-1.4\n");
+
+        // Objects 1 and 2 are the catalog and page tree, 3 is the font, then a page and content stream per page
+        final StringBuilder kids = new StringBuilder();
+        for (int page = 0; page < pageCount; page++) {
+            kids.append(4 + page * 2).append(" 0 R ");
+        }
+
+        offsets.add(pdf.size());
+        write(pdf, "1 0 obj\n<< /Type /Catalog /Pages 2 0 R >>\nendobj\n");
+        offsets.add(pdf.size());
+        write(pdf, "2 0 obj\n<< /Type /Pages /Kids [" + kids + "] /Count " + pageCount + " >>\nendobj\n");
+        offsets.add(pdf.size());
+        write(pdf, "3 0 obj\n<< /Type /Font /Subtype /Type1 /BaseFont /Helvetica >>\nendobj\n");
+
+        for (int page = 0; page < pageCount; page++) {
+            final int pageObject = 4 + page * 2;
+            final StringBuilder content = new StringBuilder("BT /F1 11 Tf 50 780 Td 14 TL\n");
+            for (int line = 0; line < LINES_PER_PAGE; line++) {
+                content.append("(Page ").append(page + 1).append(" line ").append(line + 1)
+                        .append(": The quick brown fox jumps over the lazy dog.) '\n");
+            }
+            content.append("ET\n");
+            final byte[] contentBytes = content.toString().getBytes(StandardCharsets.ISO_8859_1);
+
+            offsets.add(pdf.size());
+            write(pdf, pageObject + " 0 obj\n<< /Type /Page /Parent 2 0 R /MediaBox [0 0 595 842] "
+                    + "/Resources << /Font << /F1 3 0 R >> >> /Contents " + (pageObject + 1) + " 0 R >>\nendobj\n");
+            offsets.add(pdf.size());
+            write(pdf, (pageObject + 1) + " 0 obj\n<< /Length " + contentBytes.length + " >>\nstream\n");
+            pdf.write(contentBytes, 0, contentBytes.length);
+            write(pdf, "endstream\nendobj\n");
+        }
+
+        final int xrefOffset = pdf.size();
+        final StringBuilder xref = new StringBuilder("xref\n0 ").append(offsets.size() + 1).append('\n');
+        xref.append("0000000000 65535 f \n");
+        for (final int offset : offsets) {
+            xref.append(String.format("%010d 00000 n \n", offset));
+        }
+        xref.append("trailer\n<< /Size ").append(offsets.size() + 1).append(" /Root 1 0 R >>\n");
+        xref.append("startxref\n").append(xrefOffset).append("\n%%EOF\n");
+        write(pdf, xref.toString());
+
+        return pdf.toByteArray();
+    }
+
+    /**
+     * Creates a minimal Word document with the given number of text pages,
+     * separated by page breaks.
+     *
+     * @param pageCount the number of pages
+     * @return the docx file content
+     * @throws IOException if the document cannot be zipped
+     */
+    public static byte[] createDocx(final int pageCount) throws IOException {
+        final StringBuilder body = new StringBuilder();
+        for (int page = 0; page < pageCount; page++) {
+            for (int line = 0; line < LINES_PER_PAGE; line++) {
+                body.append("<w:p><w:r><w:t>Page ").append(page + 1).append(" line ").append(line + 1)
+                        .append(": The quick brown fox jumps over the lazy dog.</w:t></w:r></w:p>");
+            }
+            if (page < pageCount - 1) {
+                body.append("<w:p><w:r><w:br w:type=\"page\"/></w:r></w:p>");
+            }
+        }
+
+        final ByteArrayOutputStream docx = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(docx)) {
+            addEntry(zip, "[Content_Types].xml", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+                    + "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+                    + "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+                    + "<Default Extension=\"xml\" ContentType=\"application/xml\"/>"
+                    + "<Override PartName=\"/word/document.xml\" "
+                    + "ContentType=\"application/vnd.openxmlformats-officedocument.wordprocessingml.document.main+xml\"/>"
+                    + "</Types>");
+            addEntry(zip, "_rels/.rels", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+                    + "<Relationships xmlns=\"http://schemas.openxmlformats.org/package/2006/relationships\">"
+                    + "<Relationship Id=\"rId1\" "
+                    + "Type=\"http://schemas.openxmlformats.org/officeDocument/2006/relationships/officeDocument\" "
+                    + "Target=\"word/document.xml\"/>"
+                    + "</Relationships>");
+            addEntry(zip, "word/document.xml", "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>"
+                    + "<w:document xmlns:w=\"http://schemas.openxmlformats.org/wordprocessingml/2006/main\">"
+                    + "<w:body>" + body + "</w:body></w:document>");
+        }
+        return docx.toByteArray();
+    }
+
+    private static void addEntry(final ZipOutputStream zip, final String name, final String content) throws IOException {
+        zip.putNextEntry(new ZipEntry(name));
+        zip.write(content.getBytes(StandardCharsets.UTF_8));
+        zip.closeEntry();
+    }
+
+    private static void write(final ByteArrayOutputStream out, final String text) {
+        out.writeBytes(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+}
@@ -0,0 +1,357 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.benchmark;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.startup.Tomcat;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs the microservice in an embedded Tomcat and measures end-to-end
+ * conversion throughput and latency against a generated corpus.
+ * <p>
+ * The exploded war built by "mvn package" in the parent directory is deployed
+ * with the default in-memory database and a {@link LocalStorage} stand-in.
+ * Each client thread uploads a document, polls until it is processed and
+ * records the latency. The per-stage breakdown comes from the /metrics
+ * endpoint, compared before and after the run.
+ * <p>
+ * Options:
+ * <ul>
+ *     <li>--war [dir] the exploded war, default ../target/buildvu-microservice</li>
+ *     <li>--concurrency [n] client threads and conversionThreadCount, default 4</li>
+ *     <li>--jobs [n] conversions to run, default 40</li>
+ *     <li>--warmup [n] conversions to run before measuring, default 4</li>
+ *     <li>--pages [list] comma separated page counts of the corpus, default 1,10,100</li>
+ *     <li>--office also convert Word documents, LibreOffice must be installed</li>
+ *     <li>--no-storage do not upload output to the storage stand-in</li>
+ *     <li>--property [key=value] set a microservice configuration property, may be repeated</li>
+ * </ul>
+ */
+public final class LoadBenchmark {
+
+    private static final Pattern STAGE_METRIC = Pattern.compile("^buildvu_stage_duration_seconds_(sum|count)\\{stage=\"([^\"]+)\".*} (\\S+)$");
+
+    private static final long POLL_INTERVAL = 100;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final String baseUrl;
+
+    private LoadBenchmark(final String baseUrl) {
+        this.baseUrl = baseUrl;
+    }
+
+    public static void main(final String[] args) throws Exception {
+        File warDir = new File("../target/buildvu-microservice");
+        int concurrency = 4;
+        int jobs = 40;
+        int warmup = 4;
+        int[] pageCounts = {1, 10, 100};
+        boolean includeOffice = false;
+        boolean useStorage = true;
+        final Properties overrides = new Properties();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--war":
+                    warDir = new File(args[++i]);
+                    break;
+                case "--concurrency":
+                    concurrency = Integer.parseInt(args[++i]);
+                    break;
+                case "--jobs":
+                    jobs = Integer.parseInt(args[++i]);
+                    break;
+                case "--warmup":
+                    warmup = Integer.parseInt(args[++i]);
+                    break;
+                case "--pages":
+                    pageCounts = parsePageCounts(args[++i]);
+                    break;
+                case "--office":
+                    includeOffice = true;
+                    break;
+                case "--no-storage":
+                    useStorage = false;
+                    break;
+                case "--property":
+                    final String[] property = args[++i].split("=", 2);
+                    overrides.setProperty(property[0], property.length > 1 ? property[1] : "");
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
+        if (!new File(warDir, "WEB-INF").isDirectory()) {
+            throw new IllegalArgumentException(warDir.getAbsolutePath() + " is not an exploded war, run \"mvn package\" in the parent directory first");
+        }
+
+        final File workDir = Files.createTempDirectory("buildvu-benchmark").toFile();
+        writeConfig(workDir, concurrency, overrides);
+        final List<File> corpus = CorpusGenerator.generate(new File(workDir, "corpus"), pageCounts, includeOffice);
+
+        final Tomcat tomcat = new Tomcat();
+        tomcat.setBaseDir(new File(workDir, "tomcat").getAbsolutePath());
+        tomcat.setPort(0);
+        tomcat.getConnector();
+        final Context context = tomcat.addWebapp("", warDir.getAbsolutePath());
+        tomcat.start();
+        try {
+            if (useStorage) {
+                context.getServletContext().setAttribute("storage",
+                        LocalStorage.create(context.getLoader().getClassLoader(), new File(workDir, "storage")));
+            }
+
+            final LoadBenchmark benchmark = new LoadBenchmark("http://localhost:" + tomcat.getConnector().getLocalPort());
+            System.out.println("Corpus: " + corpus.size() + " documents, concurrency: " + concurrency + ", jobs: " + jobs);
+
+            benchmark.run(corpus, concurrency, warmup);
+
+            final Map<String, double[]> stagesBefore = benchmark.readStageMetrics();
+            final long start = System.nanoTime();
+            final List<Result> results = benchmark.run(corpus, concurrency, jobs);
+            final long elapsed = System.nanoTime() - start;
+            final Map<String, double[]> stagesAfter = benchmark.readStageMetrics();
+
+            report(results, elapsed, stagesBefore, stagesAfter);
+        } finally {
+            stop(tomcat);
+        }
+    }
+
+    private static int[] parsePageCounts(final String list) {
+        final String[] values = list.split(",");
+        final int[] pageCounts = new int[values.length];
+        for (int i = 0; i < values.length; i++) {
+            pageCounts[i] = Integer.parseInt(values[i].trim());
+        }
+        return pageCounts;
+    }
+
+    /**
+     * Writes the microservice configuration to a temporary home directory, so
+     * that the benchmark never touches the user's own configuration or output.
+     */
+    private static void writeConfig(final File workDir, final int concurrency, final Properties overrides) throws IOException {
+        final Properties config = new Properties();
+        try (InputStream defaults = LoadBenchmark.class.getResourceAsStream("/buildvu-microservice.properties")) {
+            if (defaults != null) {
+                config.load(defaults);
+            }
+        }
+        config.setProperty("conversionThreadCount", String.valueOf(concurrency));
+        config.setProperty("inputPath", new File(workDir, "input").getAbsolutePath() + File.separator);
+        config.setProperty("outputPath", new File(workDir, "output").getAbsolutePath() + File.separator);
+        config.setProperty("resultCachePath", new File(workDir, "cache").getAbsolutePath() + File.separator);
+        config.putAll(overrides);
+
+        final File configDir = new File(workDir, ".idr/buildvu-microservice");
+        Files.createDirectories(configDir.toPath());
+        try (OutputStream out = Files.newOutputStream(new File(configDir, "buildvu-microservice.properties").toPath())) {
+            config.store(out, "BuildVu microservice benchmark");
+        }
+        System.setProperty("user.home", workDir.getAbsolutePath());
+    }
+
+    private List<Result> run(final List<File> corpus, final int concurrency, final int jobs) throws Exception {
+        final ExecutorService clients = Executors.newFixedThreadPool(concurrency);
+        try {
+            final List<Future<Result>> futures = new ArrayList<>();
+            for (int i = 0; i < jobs; i++) {
+                final File document = corpus.get(i % corpus.size());
+                futures.add(clients.submit(() -> convert(document)));
+            }
+
+            final List<Result> results = new ArrayList<>();
+            for (final Future<Result> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } finally {
+            clients.shutdown();
+        }
+    }
+
+    private Result convert(final File document) throws IOException, InterruptedException {
+        final long start = System.nanoTime();
+        final String boundary = UUID.randomUUID().toString();
+        final HttpRequest upload = HttpRequest.newBuilder(URI.create(baseUrl + "/buildvu"))
+                .header("Content-Type", "multipart/form-data; boundary=" + boundary)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(createUploadBody(boundary, document)))
+                .build();
+        final HttpResponse<String> uploadResponse = client.send(upload, HttpResponse.BodyHandlers.ofString());
+        if (uploadResponse.statusCode() != 200) {
+            return new Result(document.getName(), System.nanoTime() - start, "upload failed: " + uploadResponse.body());
+        }
+        final String uuid = readJson(uploadResponse.body()).getString("uuid");
+
+        final HttpRequest poll = HttpRequest.newBuilder(URI.create(baseUrl + "/buildvu?uuid=" + uuid)).GET().build();
+        while (true) {
+            final JsonObject status = readJson(client.send(poll, HttpResponse.BodyHandlers.ofString()).body());
+            final String state = status.getString("state", "");
+            if ("processed".equals(state)) {
+                return new Result(document.getName(), System.nanoTime() - start, null);
+            }
+            if ("error".equals(state)) {
+                return new Result(document.getName(), System.nanoTime() - start, status.toString());
+            }
+            Thread.sleep(POLL_INTERVAL);
+        }
+    }
+
+    private static byte[] createUploadBody(final String boundary, final File document) throws IOException {
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.writeBytes(("--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"input\"\r\n\r\n"
+                + "upload\r\n"
+                + "--" + boundary + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + document.getName() + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+        body.writeBytes(Files.readAllBytes(document.toPath()));
+        body.writeBytes(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.UTF_8));
+        return body.toByteArray();
+    }
+
+    private static JsonObject readJson(final String json) {
+        try (JsonReader reader = Json.createReader(new StringReader(json))) {
+            return reader.readObject();
+        }
+    }
+
+    /**
+     * Reads the total time and count of each stage from the metrics endpoint.
+     *
+     * @return the sum in seconds and count of each stage
+     */
+    private Map<String, double[]> readStageMetrics() throws IOException, InterruptedException {
+        final HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/metrics")).GET().build();
+        final Map<String, double[]> stages = new TreeMap<>();
+        for (final String line : client.send(request, HttpResponse.BodyHandlers.ofString()).body().split("\n")) {
+            final Matcher matcher = STAGE_METRIC.matcher(line);
+            if (matcher.matches()) {
+                final double[] stage = stages.computeIfAbsent(matcher.group(2), k -> new double[2]);
+                stage["sum".equals(matcher.group(1)) ? 0 : 1] += Double.parseDouble(matcher.group(3));
+            }
+        }
+        return stages;
+    }
+
+    private static void report(final List<Result> results, final long elapsedNanos,
+                               final Map<String, double[]> stagesBefore, final Map<String, double[]> stagesAfter) {
+        final double elapsedSeconds = elapsedNanos / 1e9;
+        final long errors = results.stream().filter(result -> result.error != null).count();
+
+        System.out.println();
+        System.out.printf("Completed %d conversions in %.1fs, %d failed%n", results.size(), elapsedSeconds, errors);
+        System.out.printf("Throughput: %.2f conversions/s%n", (results.size() - errors) / elapsedSeconds);
+        printLatency("All documents", results);
+
+        final Map<String, List<Result>> byDocument = new TreeMap<>();
+        for (final Result result : results) {
+            byDocument.computeIfAbsent(result.document, k -> new ArrayList<>()).add(result);
+        }
+        for (final Map.Entry<String, List<Result>> document : byDocument.entrySet()) {
+            printLatency(document.getKey(), document.getValue());
+        }
+
+        System.out.println();
+        System.out.println("Mean time per stage:");
+        for (final Map.Entry<String, double[]> stage : stagesAfter.entrySet()) {
+            final double[] before = stagesBefore.getOrDefault(stage.getKey(), new double[2]);
+            final double count = stage.getValue()[1] - before[1];
+            if (count > 0) {
+                System.out.printf("  %-12s %8.1fms (%d samples)%n", stage.getKey(),
+                        (stage.getValue()[0] - before[0]) / count * 1000, (long) count);
+            }
+        }
+
+        for (final Result result : results) {
+            if (result.error != null) {
+                System.out.println("Failed " + result.document + ": " + result.error);
+            }
+        }
+    }
+
+    private static void printLatency(final String label, final List<Result> results) {
+        final List<Long> latencies = new ArrayList<>();
+        for (final Result result : results) {
+            if (result.error == null) {
+                latencies.add(result.latencyNanos);
+            }
+        }
+        if (latencies.isEmpty()) {
+            return;
+        }
+        Collections.sort(latencies);
+        System.out.printf("  %-20s p50 %8.1fms  p99 %8.1fms  max %8.1fms%n", label,
+                percentile(latencies, 0.5) / 1e6, percentile(latencies, 0.99) / 1e6, latencies.get(latencies.size() - 1) / 1e6);
+    }
+
+    private static long percentile(final List<Long> sorted, final double percentile) {
+        final int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+    }
+
+    private static void stop(final Tomcat tomcat) throws LifecycleException {
+        tomcat.stop();
+        tomcat.destroy();
+    }
+
+    private static final class Result {
+
+        private final String document;
+        private final long latencyNanos;
+        private final String error;
+
+        Result(final String document, final long latencyNanos, final String error) {
+            this.document = document;
+            this.latencyNanos = latencyNanos;
+            this.error = error;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * A stand-in for remote {@code Storage} that copies uploads to a local
+ * directory, so that the upload stage is exercised without a cloud account.
+ * <p>
+ * The microservice runs in its own web application class loader, so the
+ * stand-in is created as a proxy of that class loader's Storage interface.
+ * Every put method is handled, whether it is given a File or a byte array.
+ */
+public final class LocalStorage {
+
+    private static final String STORAGE_INTERFACE = "com.idrsolutions.microservice.storage.Storage";
+
+    private LocalStorage() {
+    }
+
+    /**
+     * Creates the stand-in.
+     *
+     * @param webAppClassLoader the class loader of the deployed microservice
+     * @param storageDir the directory to copy uploads to
+     * @return an instance of the microservice's Storage interface
+     * @throws ClassNotFoundException if the Storage interface cannot be found
+     */
+    public static Object create(final ClassLoader webAppClassLoader, final File storageDir) throws ClassNotFoundException {
+        final Class<?> storageInterface = webAppClassLoader.loadClass(STORAGE_INTERFACE);
+        return Proxy.newProxyInstance(webAppClassLoader, new Class<?>[] {storageInterface},
+                (proxy, method, args) -> invoke(storageDir.toPath(), proxy, method, args));
+    }
+
+    private static Object invoke(final Path storageDir, final Object proxy, final Method method, final Object[] args) {
+        switch (method.getName()) {
+            case "put":
+                return put(storageDir, args[0], (String) args[1], (String) args[2]);
+            case "toString":
+                return "LocalStorage[" + storageDir + ']';
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                return null;
+        }
+    }
+
+    private static String put(final Path storageDir, final Object content, final String fileName, final String uuid) {
+        try {
+            final Path target = storageDir.resolve(uuid).resolve(fileName);
+            Files.createDirectories(target.getParent());
+            if (content instanceof File) {
+                Files.copy(((File) content).toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.write(target, (byte[]) content);
+            }
+            return target.toUri().toString();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.benchmark;
+
+import com.idrsolutions.microservice.pdf.PdfInfo;
+import com.idrsolutions.microservice.pdf.PdfPreflight;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the lightweight PDF preflight that reads the page count and
+ * encryption of each uploaded PDF before it is scheduled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PreflightBenchmark {
+
+    @Param({"1", "100", "1000"})
+    public int pages;
+
+    private File pdf;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        pdf = File.createTempFile("preflight", ".pdf");
+        Files.write(pdf.toPath(), CorpusGenerator.createPdf(pages));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(pdf.toPath());
+    }
+
+    @Benchmark
+    public PdfInfo preflight() throws IOException {
+        return PdfPreflight.read(pdf);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.benchmark;
+
+import org.jpedal.settings.BuildVuSettingsValidator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonValue;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing and validating the settings JSON sent with each
+ * conversion request, the same way the servlet handles it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SettingsBenchmark {
+
+    @Param({"empty", "typical"})
+    public String settings;
+
+    private String json;
+
+    @Setup
+    public void setup() {
+        json = "empty".equals(settings) ? "{}" : "{"
+                + "\"org.jpedal.pdf2html.viewMode\":\"content\","
+                + "\"org.jpedal.pdf2html.scaling\":\"1.5\","
+                + "\"org.jpedal.pdf2html.textMode\":\"svg_realtext\","
+                + "\"org.jpedal.pdf2html.realPageRange\":\"1-10\","
+                + "\"org.jpedal.pdf2html.embedImagesAsBase64Stream\":\"true\""
+                + "}";
+    }
+
+    @Benchmark
+    public Map<String, String> parseAndValidate() {
+        final Map<String, String> parsed = new HashMap<>();
+        try (JsonReader reader = Json.createReader(new StringReader(json))) {
+            final JsonObject object = reader.readObject();
+            for (final Map.Entry<String, JsonValue> entry : object.entrySet()) {
+                parsed.put(entry.getKey(), object.getString(entry.getKey()));
+            }
+        }
+        BuildVuSettingsValidator.validate(parsed, false);
+        return parsed;
+    }
+}
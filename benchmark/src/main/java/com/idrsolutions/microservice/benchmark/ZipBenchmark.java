@@ -0,0 +1,104 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.benchmark;
+
+import com.idrsolutions.microservice.utils.ZipHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Measures zipping a conversion's output directory, using a directory shaped
+ * like BuildVu output: one HTML file per page plus shared assets.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZipBenchmark {
+
+    /** Roughly the size of a text-heavy BuildVu page. */
+    private static final int PAGE_SIZE = 20 * 1024;
+
+    @Param({"10", "100"})
+    public int pages;
+
+    private Path outputDir;
+    private File outputZip;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        outputDir = Files.createTempDirectory("zip-benchmark");
+        final StringBuilder page = new StringBuilder();
+        while (page.length() < PAGE_SIZE) {
+            page.append("<p class=\"t\" style=\"left:50px;top:").append(page.length() % 800)
+                    .append("px\">The quick brown fox jumps over the lazy dog.</p>\n");
+        }
+        for (int i = 1; i <= pages; i++) {
+            Files.write(outputDir.resolve(i + ".html"), page.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        Files.createDirectories(outputDir.resolve("assets"));
+        Files.write(outputDir.resolve("assets/style.css"), page.substring(0, 4096).getBytes(StandardCharsets.UTF_8));
+        Files.write(outputDir.resolve("index.html"), page.substring(0, 2048).getBytes(StandardCharsets.UTF_8));
+
+        outputZip = File.createTempFile("zip-benchmark", ".zip");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(outputZip.toPath());
+        final List<Path> files;
+        try (Stream<Path> paths = Files.walk(outputDir)) {
+            files = paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (final Path file : files) {
+            Files.delete(file);
+        }
+    }
+
+    @Benchmark
+    public long zipFolder() throws IOException {
+        Files.deleteIfExists(outputZip.toPath());
+        ZipHelper.zipFolder(outputDir.toFile(), outputZip, false);
+        return outputZip.length();
+    }
+}
@@ -18,29 +18,85 @@
  */
 package com.idrsolutions.microservice;
 
+import com.idrsolutions.microservice.batch.Batch;
+import com.idrsolutions.microservice.batch.BatchDocumentRequest;
+import com.idrsolutions.microservice.batch.BatchRegistry;
+import com.idrsolutions.microservice.batch.CapturedResponse;
+import com.idrsolutions.microservice.cache.ConversionCache;
 import com.idrsolutions.microservice.db.DBHandler;
+import com.idrsolutions.microservice.metrics.ConversionMetrics;
+import com.idrsolutions.microservice.office.LibreOfficePool;
+import com.idrsolutions.microservice.output.OutputCompressor;
+import com.idrsolutions.microservice.output.SharedAssetStore;
+import com.idrsolutions.microservice.pdf.PageRanges;
+import com.idrsolutions.microservice.pdf.PdfInfo;
+import com.idrsolutions.microservice.pdf.PdfPreflight;
+import com.idrsolutions.microservice.queue.JobQueue;
+import com.idrsolutions.microservice.queue.JobQueueWorker;
+import com.idrsolutions.microservice.queue.QueuedJob;
+import com.idrsolutions.microservice.queue.StaleOutput;
+import com.idrsolutions.microservice.scheduler.ConversionJob;
+import com.idrsolutions.microservice.scheduler.ConversionScheduler;
+import com.idrsolutions.microservice.scheduler.MemoryEstimator;
+import com.idrsolutions.microservice.scheduler.OutOfMemoryRetry;
+import com.idrsolutions.microservice.status.PageAvailabilityMonitor;
+import com.idrsolutions.microservice.status.ConversionProgress;
+import com.idrsolutions.microservice.status.StatusUpdater;
 import com.idrsolutions.microservice.storage.Storage;
+import com.idrsolutions.microservice.upload.UploadStage;
 import com.idrsolutions.microservice.utils.LibreOfficeHelper;
 import com.idrsolutions.microservice.utils.ProcessUtils;
 import com.idrsolutions.microservice.utils.ZipHelper;
+import com.idrsolutions.microservice.worker.WorkerPool;
 import org.jpedal.PdfDecoderServer;
 import org.jpedal.exception.PdfException;
 import org.jpedal.settings.BuildVuSettingsValidator;
 
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
 import javax.json.stream.JsonParsingException;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
 import javax.servlet.annotation.MultipartConfig;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.Part;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Provides an API to use BuildVu on its own dedicated app server. See the API
@@ -48,12 +104,218 @@ import java.util.logging.Logger;
  *
  * @see BaseServlet
  */
-@WebServlet(name = "buildvu", urlPatterns = "/buildvu")
+// Loaded on startup so that nodes sharing a job queue claim conversions before they receive a request
+@WebServlet(name = "buildvu", urlPatterns = {BuildVuServlet.SERVLET_PATH, BuildVuServlet.BATCH_PATH}, loadOnStartup = 1)
 @MultipartConfig
 public class BuildVuServlet extends BaseServlet {
 
     private static final Logger LOG = Logger.getLogger(BuildVuServlet.class.getName());
 
+    static final String SERVLET_PATH = "/buildvu";
+
+    static final String BATCH_PATH = "/buildvu/batch";
+
+    private static final String REAL_PAGE_RANGE = "org.jpedal.pdf2html.realPageRange";
+
+    /** Used to estimate the page count of office documents for scheduling before they are converted to PDF. */
+    private static final long BYTES_PER_PAGE_ESTIMATE = 50 * 1024;
+
+    /** How often in milliseconds the pages written by a conversion are published as its progress. */
+    private static final long PROGRESS_INTERVAL = 1000;
+
+    private static final String BUILDVU_PROCESS = "buildvu";
+    private static final String LIBRE_OFFICE_PROCESS = "libreoffice";
+
+    /** The client each queued conversion was submitted by, used by the fair scheduling policy. */
+    private final Map<String, String> clientIds = new ConcurrentHashMap<>();
+
+    private ConversionScheduler scheduler;
+
+    private MemoryEstimator memoryEstimator;
+
+    private OutOfMemoryRetry outOfMemoryRetry;
+
+    private ExecutorService shardExecutor;
+
+    private ScheduledExecutorService progressService;
+
+    private JobQueue jobQueue;
+
+    private JobQueueWorker jobQueueWorker;
+
+    @Override
+    public void init() throws ServletException {
+        super.init();
+        scheduler = (ConversionScheduler) getServletContext().getAttribute(BuildVuServletContextListener.KEY_CONVERSION_SCHEDULER);
+        final Properties properties = (Properties) getServletContext().getAttribute(BaseServletContextListener.KEY_PROPERTIES);
+        memoryEstimator = new MemoryEstimator("true".equalsIgnoreCase(properties.getProperty(BuildVuServletContextListener.KEY_PROPERTY_ADAPTIVE_CONVERSION_MEMORY)),
+                Integer.parseInt(properties.getProperty(BaseServletContextListener.KEY_PROPERTY_CONVERSION_MEMORY)),
+                Long.parseLong(properties.getProperty(BuildVuServletContextListener.KEY_PROPERTY_CONVERSION_MEMORY_BUDGET)));
+        outOfMemoryRetry = new OutOfMemoryRetry(memoryEstimator, scheduler);
+        shardExecutor = Executors.newCachedThreadPool();
+        progressService = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "buildvu-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        jobQueue = (JobQueue) getServletContext().getAttribute(BuildVuServletContextListener.KEY_JOB_QUEUE);
+        if (jobQueue != null) {
+            jobQueueWorker = new JobQueueWorker(jobQueue, scheduler.getSlots(),
+                    Long.parseLong(properties.getProperty(BuildVuServletContextListener.KEY_PROPERTY_JOB_QUEUE_LEASE)),
+                    Integer.parseInt(properties.getProperty(BuildVuServletContextListener.KEY_PROPERTY_JOB_QUEUE_MAX_ATTEMPTS)),
+                    this::runQueuedJob);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (jobQueueWorker != null) {
+            jobQueueWorker.shutdown();
+        }
+        shardExecutor.shutdownNow();
+        progressService.shutdownNow();
+        super.destroy();
+    }
+
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
+        if (BATCH_PATH.equals(request.getServletPath())) {
+            getBatchStatus(request, response);
+        } else {
+            super.doGet(request, response);
+        }
+    }
+
+    @Override
+    protected void doPost(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
+        if (BATCH_PATH.equals(request.getServletPath())) {
+            submitBatch(request, response);
+        } else {
+            super.doPost(request, response);
+        }
+    }
+
+    /**
+     * Submits every file and url in the request as its own conversion, using
+     * the settings of the request for all of them. The settings are validated
+     * once, then each document is submitted the same way as a request to
+     * /buildvu and tracked as part of a batch.
+     *
+     * @param request the batch request
+     * @param response the response to write the batch id and submitted documents to
+     * @throws ServletException if the uploaded files cannot be read
+     * @throws IOException if the response cannot be written
+     */
+    private void submitBatch(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
+        final Map<String, String> settings;
+        try {
+            settings = parseSettings(request.getParameter("settings"));
+        } catch (final JsonParsingException exception) {
+            doError(request, response, "Error encountered when parsing settings JSON <" + exception.getMessage() + '>', 400);
+            return;
+        }
+
+        try {
+            BuildVuSettingsValidator.validate(settings, false);
+        } catch(final IllegalArgumentException e) {
+            doError(request, response, e.getMessage(), 400);
+            return;
+        }
+
+        final List<Part> files = new ArrayList<>();
+        final String contentType = request.getContentType();
+        if (contentType != null && contentType.toLowerCase().startsWith("multipart/")) {
+            for (final Part part : request.getParts()) {
+                if ("file".equals(part.getName())) {
+                    files.add(part);
+                }
+            }
+        }
+        final String[] urls = request.getParameterValues("url");
+        if (files.isEmpty() && (urls == null || urls.length == 0)) {
+            doError(request, response, "Missing file or url", 400);
+            return;
+        }
+
+        final BatchRegistry batchRegistry = (BatchRegistry) getServletContext().getAttribute(BuildVuServletContextListener.KEY_BATCH_REGISTRY);
+        final Batch batch = batchRegistry.create(request.getParameter("callbackUrl"));
+        final JsonArrayBuilder documents = Json.createArrayBuilder();
+        try {
+            for (final Part file : files) {
+                final String fileName = file.getSubmittedFileName();
+                submitBatchDocument(batch, BatchDocumentRequest.forUpload(request, file, settings, SERVLET_PATH),
+                        new CapturedResponse(response), fileName != null ? fileName : "", documents);
+            }
+            if (urls != null) {
+                for (final String url : urls) {
+                    submitBatchDocument(batch, BatchDocumentRequest.forDownload(request, url, settings, SERVLET_PATH),
+                            new CapturedResponse(response), url, documents);
+                }
+            }
+        } finally {
+            batchRegistry.submitted(batch);
+        }
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(Json.createObjectBuilder()
+                .add("batchId", batch.getId())
+                .add("documents", documents)
+                .build().toString());
+    }
+
+    private void submitBatchDocument(final Batch batch, final BatchDocumentRequest documentRequest, final CapturedResponse documentResponse,
+                                     final String fileName, final JsonArrayBuilder documents) throws ServletException, IOException {
+        super.doPost(documentRequest, documentResponse);
+
+        String uuid = null;
+        String error = "Internal error";
+        try (JsonReader reader = Json.createReader(new StringReader(documentResponse.getBody()))) {
+            final JsonObject result = reader.readObject();
+            uuid = result.getString("uuid", null);
+            error = result.getString("error", error);
+        } catch (final JsonException e) {
+            LOG.log(Level.WARNING, "Unexpected response when submitting " + fileName + " in batch " + batch.getId(), e);
+        }
+
+        if (uuid != null && documentResponse.getStatus() < 400) {
+            batch.addDocument(uuid, fileName);
+            documents.add(Json.createObjectBuilder().add("uuid", uuid).add("fileName", fileName));
+        } else {
+            batch.addRejectedDocument(fileName, error);
+            documents.add(Json.createObjectBuilder().add("fileName", fileName).add("error", error));
+        }
+    }
+
+    private void getBatchStatus(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        final String batchId = request.getParameter("batchId");
+        if (batchId == null || batchId.isEmpty()) {
+            doError(request, response, "No batchId provided", 404);
+            return;
+        }
+
+        final BatchRegistry batchRegistry = (BatchRegistry) getServletContext().getAttribute(BuildVuServletContextListener.KEY_BATCH_REGISTRY);
+        final Batch batch = batchRegistry.get(batchId);
+        if (batch == null) {
+            doError(request, response, "Unknown batchId " + batchId, 404);
+            return;
+        }
+
+        final JsonObject status;
+        try {
+            status = batchRegistry.getStatus(batch);
+        } catch (final SQLException e) {
+            LOG.log(Level.SEVERE, "Unable to read the status of batch " + batchId, e);
+            doError(request, response, "Database failure", 500);
+            return;
+        }
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(status.toString());
+    }
+
     /**
      * Converts given pdf file or office document to html or svg using BuildVu-HTML
      * and BuildVu-SVG respectively.
@@ -63,6 +325,9 @@ public class BuildVuServlet extends BaseServlet {
      * <p>
      * See API docs for information on how this method communicates via the
      * individual object to the client.
+     * <p>
+     * When a shared job queue is configured the conversion is queued instead,
+     * to be run by whichever node claims it.
      *
      * @param uuid The uuid of the conversion
      * @param inputFile The input file
@@ -70,63 +335,433 @@ public class BuildVuServlet extends BaseServlet {
      */
     @Override
     protected void convert(final String uuid, final File inputFile, final String contextUrl) {
+        if (jobQueue != null) {
+            enqueue(uuid, inputFile, contextUrl);
+        } else {
+            runConversion(uuid, inputFile, contextUrl);
+        }
+    }
+
+    /**
+     * Adds the conversion to the shared job queue. The input is uploaded to
+     * remote storage when it is configured, so that nodes without access to
+     * this node's input path can fetch it.
+     */
+    private void enqueue(final String uuid, final File inputFile, final String contextUrl) {
+        final Storage storage = (Storage) getServletContext().getAttribute("storage");
+        String inputUrl = null;
+        if (storage != null) {
+            inputUrl = storage.put(inputFile, inputFile.getName(), uuid);
+            if (inputUrl == null) {
+                LOG.log(Level.WARNING, "Unable to upload the input of " + uuid + ", other nodes need to share the input path to convert it");
+            }
+        }
+
+        try {
+            jobQueue.enqueue(new QueuedJob(uuid, inputFile.getName(), inputFile.getAbsolutePath(), inputUrl, contextUrl, clientIds.remove(uuid), 0));
+            jobQueueWorker.wake();
+        } catch (final IOException e) {
+            LOG.log(Level.SEVERE, "Unable to queue conversion " + uuid, e);
+            StatusUpdater.getInstance().setError(uuid, 500, "Database failure");
+        }
+    }
+
+    /**
+     * Runs a conversion claimed from the shared job queue, which may have been
+     * received by another node. The input is read from the input path when it
+     * is shared between nodes, and downloaded from remote storage otherwise.
+     */
+    private void runQueuedJob(final QueuedJob job) {
+        final String uuid = job.getUuid();
+        File inputFile = new File(job.getInputPath());
+        if (!inputFile.isFile()) {
+            if (job.getInputUrl() == null) {
+                LOG.log(Level.SEVERE, "Input of " + uuid + " is not available on this node: " + inputFile.getAbsolutePath());
+                StatusUpdater.getInstance().setError(uuid, 1200, "Could not get file from url");
+                return;
+            }
+            final Properties properties = (Properties) getServletContext().getAttribute(BaseServletContextListener.KEY_PROPERTIES);
+            inputFile = new File(new File(properties.getProperty(BaseServletContextListener.KEY_PROPERTY_INPUT_PATH), uuid), job.getInputName());
+            try {
+                downloadInput(job.getInputUrl(), inputFile);
+            } catch (final IOException e) {
+                LOG.log(Level.SEVERE, "Unable to download input of " + uuid + " from " + job.getInputUrl(), e);
+                StatusUpdater.getInstance().setError(uuid, 1200, "Could not get file from url");
+                return;
+            }
+        }
+
+        try {
+            StaleOutput.remove(job, inputFile.getParentFile(), new File(getOutputPath(), uuid), new File(getOutputPath(), uuid + ".zip"));
+        } catch (final IOException e) {
+            LOG.log(Level.SEVERE, "Unable to remove the output of an earlier attempt at " + uuid, e);
+            StatusUpdater.getInstance().setError(uuid, 500, "File system failure");
+            return;
+        }
+
+        if (job.getClientId() != null) {
+            clientIds.put(uuid, job.getClientId());
+        }
+        runConversion(uuid, inputFile, job.getContextUrl());
+    }
+
+    private static void downloadInput(final String inputUrl, final File inputFile) throws IOException {
+        Files.createDirectories(inputFile.getParentFile().toPath());
+        final URLConnection connection = new URL(inputUrl).openConnection();
+        connection.setConnectTimeout(30000);
+        connection.setReadTimeout(300000);
+        try (InputStream in = connection.getInputStream()) {
+            Files.copy(in, inputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Runs the conversion on this node, once it has been received or claimed
+     * from the shared job queue.
+     */
+    private void runConversion(final String uuid, final File inputFile, final String contextUrl) {
+        final String fileName = inputFile.getName();
+        final String ext = fileName.substring(fileName.lastIndexOf('.') + 1);
+        ConversionMetrics.getInstance().conversionStarted(uuid, ext);
 
         final Map<String, String> conversionParams;
+        final String originalFileName;
         try {
             final Map<String, String> settings = DBHandler.getInstance().getSettings(uuid);
             conversionParams = settings != null ? settings : new HashMap<>();
+            originalFileName = DBHandler.getInstance().getCustomData(uuid).get("originalFileName");
         } catch (final SQLException e) {
-            DBHandler.getInstance().setError(uuid, 500, "Database failure");
+            StatusUpdater.getInstance().setError(uuid, 500, "Database failure");
             return;
         }
 
-        final String fileName = inputFile.getName();
-        final String ext = fileName.substring(fileName.lastIndexOf('.') + 1);
-
         final Properties properties = (Properties) getServletContext().getAttribute(BaseServletContextListener.KEY_PROPERTIES);
 
-        final File inputPdf;
         final File outputDir = new File(getOutputPath(), uuid);
+        final File outputZip = new File(outputDir.getParentFile(), uuid + ".zip");
 
         //Makes the directory for the output file
         if (!outputDir.mkdirs()) {
             LOG.log(Level.SEVERE, "Failed to create output directory: " + outputDir.getAbsolutePath());
-            DBHandler.getInstance().setError(uuid, 500, "File system failure");
+            StatusUpdater.getInstance().setError(uuid, 500, "File system failure");
             return;
         }
 
         final boolean isPDF = ext.toLowerCase().endsWith("pdf");
+        final boolean includeOfficePdf = "true".equalsIgnoreCase(properties.getProperty(BuildVuServletContextListener.KEY_PROPERTY_INCLUDE_OFFICE_PDF));
+
+        final ConversionCache conversionCache = (ConversionCache) getServletContext().getAttribute(BuildVuServletContextListener.KEY_CONVERSION_CACHE);
+        String cacheKey = null;
+        if (conversionCache != null) {
+            final Map<String, String> cacheSettings = new HashMap<>(conversionParams);
+            cacheSettings.put("originalFileName", originalFileName);
+            cacheSettings.put("includeOfficePdf", String.valueOf(!isPDF && includeOfficePdf));
+            int cachedPageCount = -1;
+            try {
+                cacheKey = conversionCache.createKey(inputFile, cacheSettings);
+                cachedPageCount = conversionCache.get(cacheKey, outputDir, outputZip);
+            } catch (final IOException ex) {
+                LOG.log(Level.WARNING, "Unable to use cached output for " + uuid + ", converting instead", ex);
+            }
+
+            if (cachedPageCount != -1) {
+                try {
+                    StatusUpdater.getInstance().setCustomValue(uuid, "pageCount", String.valueOf(cachedPageCount));
+                    StatusUpdater.getInstance().setCustomValue(uuid, "pagesConverted", String.valueOf(cachedPageCount));
+                    if (getServletContext().getAttribute(BuildVuServletContextListener.KEY_PAGE_AVAILABILITY_MONITOR) != null) {
+                        PageAvailabilityMonitor.publishComplete(uuid, outputDir, contextUrl + "/output/" + uuid);
+                    }
+                    completeConversion(uuid, outputZip, conversionParams, contextUrl);
+                } catch (final Throwable ex) {
+                    LOG.log(Level.SEVERE, "Exception thrown when publishing cached output", ex);
+                    StatusUpdater.getInstance().setError(uuid, 1220, "Exception thrown when converting input: " + ex.getMessage());
+                }
+                return;
+            }
+        }
+
+        // PDFs are preflighted before scheduling so the scheduler knows their size, office documents are estimated
+        final long preflightStart = System.nanoTime();
+        final PdfInfo knownPdfInfo = isPDF ? readPdfInfo(inputFile) : null;
+        if (isPDF) {
+            ConversionMetrics.getInstance().recordStage(uuid, ConversionMetrics.STAGE_PREFLIGHT, ConversionMetrics.OUTCOME_SUCCESS, preflightStart);
+        }
+        final int estimatedPages = knownPdfInfo != null ? knownPdfInfo.getPageCount() : (int) Math.max(1, inputFile.length() / BYTES_PER_PAGE_ESTIMATE);
+        final String clientId = clientIds.remove(uuid);
+        final int heap = memoryEstimator.estimateHeap(estimatedPages, inputFile.length(), conversionParams);
+        final ConversionJob job = new ConversionJob(uuid, clientId != null ? clientId : "", estimatedPages, inputFile.length(),
+                MemoryEstimator.getReservation(heap));
+        final long queueStart = System.nanoTime();
+        try {
+            scheduler.acquire(job);
+            ConversionMetrics.getInstance().recordStage(uuid, ConversionMetrics.STAGE_QUEUE, ConversionMetrics.OUTCOME_SUCCESS, queueStart);
+        } catch (final InterruptedException e) {
+            ConversionMetrics.getInstance().recordStage(uuid, ConversionMetrics.STAGE_QUEUE, ConversionMetrics.OUTCOME_ERROR, queueStart);
+            Thread.currentThread().interrupt();
+            StatusUpdater.getInstance().setError(uuid, 1220, "Conversion was interrupted while queued");
+            return;
+        }
+
+        try {
+            convertDocument(uuid, inputFile, contextUrl, conversionParams, originalFileName, knownPdfInfo, cacheKey, heap);
+        } finally {
+            scheduler.release(job);
+        }
+    }
+
+    /**
+     * Runs the part of the conversion that needs a scheduler slot: LibreOffice
+     * preconversion, preflight, BuildVu and packaging of the output.
+     *
+     * @param heap the heap in megabytes the conversion was admitted with, 0 for the JVM default
+     */
+    private void convertDocument(final String uuid, final File inputFile, final String contextUrl,
+                                 final Map<String, String> conversionParams, final String originalFileName,
+                                 final PdfInfo knownPdfInfo, final String cacheKey, final int heap) {
+        final Properties properties = (Properties) getServletContext().getAttribute(BaseServletContextListener.KEY_PROPERTIES);
+        final File outputDir = new File(getOutputPath(), uuid);
+        final File outputZip = new File(outputDir.getParentFile(), uuid + ".zip");
+        final File inputPdf;
+
+        final boolean isPDF = inputFile.getName().toLowerCase().endsWith("pdf");
         if (!isPDF) {
             final boolean includeOfficePdf = "true".equalsIgnoreCase(properties.getProperty(BuildVuServletContextListener.KEY_PROPERTY_INCLUDE_OFFICE_PDF));
             final File officeOutputDir = includeOfficePdf ? outputDir : inputFile.getParentFile();
             final String libreOfficePath = properties.getProperty(BaseServletContextListener.KEY_PROPERTY_LIBRE_OFFICE);
             final long libreOfficeTimeout = Long.parseLong(properties.getProperty(BaseServletContextListener.KEY_PROPERTY_LIBRE_OFFICE_TIMEOUT));
-            final ProcessUtils.Result libreOfficeConversionResult = LibreOfficeHelper.convertDocToPDF(libreOfficePath, inputFile, uuid, libreOfficeTimeout, officeOutputDir);
+            final LibreOfficePool libreOfficePool = (LibreOfficePool) getServletContext().getAttribute(BuildVuServletContextListener.KEY_LIBRE_OFFICE_POOL);
+            final long libreOfficeStart = System.nanoTime();
+            ConversionMetrics.getInstance().processStarted(LIBRE_OFFICE_PROCESS);
+            final ProcessUtils.Result libreOfficeConversionResult;
+            try {
+                libreOfficeConversionResult = libreOfficePool != null
+                        ? libreOfficePool.convertDocToPDF(inputFile, uuid, libreOfficeTimeout, officeOutputDir)
+                        : LibreOfficeHelper.convertDocToPDF(libreOfficePath, inputFile, uuid, libreOfficeTimeout, officeOutputDir);
+            } finally {
+                ConversionMetrics.getInstance().processFinished(LIBRE_OFFICE_PROCESS);
+            }
+            ConversionMetrics.getInstance().recordStage(uuid, ConversionMetrics.STAGE_LIBRE_OFFICE, getOutcome(libreOfficeConversionResult), libreOfficeStart);
             switch (libreOfficeConversionResult) {
                 case TIMEOUT:
-                    DBHandler.getInstance().setError(uuid, libreOfficeConversionResult.getCode(), "Maximum conversion duration exceeded.");
+                    StatusUpdater.getInstance().setError(uuid, libreOfficeConversionResult.getCode(), "Maximum conversion duration exceeded.");
                     return;
                 case ERROR:
-                    DBHandler.getInstance().setError(uuid, libreOfficeConversionResult.getCode(), "Internal error processing file");
+                    StatusUpdater.getInstance().setError(uuid, libreOfficeConversionResult.getCode(), "Internal error processing file");
                     return;
                 case SUCCESS:
                     inputPdf = new File(officeOutputDir, uuid + ".pdf");
                     if (!inputPdf.exists()) {
                         LOG.log(Level.SEVERE, "LibreOffice error found while converting to PDF: " + inputPdf.getAbsolutePath());
-                        DBHandler.getInstance().setError(uuid, 1080, "Error processing PDF");
+                        StatusUpdater.getInstance().setError(uuid, 1080, "Error processing PDF");
                         return;
                     }
                     break;
                 default:
                     LOG.log(Level.SEVERE, "Unexpected error has occurred converting office document: " + libreOfficeConversionResult.getCode() + " using LibreOffice");
-                    DBHandler.getInstance().setError(uuid, libreOfficeConversionResult.getCode(), "Failed to convert office document to PDF");
+                    StatusUpdater.getInstance().setError(uuid, libreOfficeConversionResult.getCode(), "Failed to convert office document to PDF");
                     return;
             }
         } else {
             inputPdf = inputFile;
         }
 
-        final int pageCount;
+        final long preflightStart = System.nanoTime();
+        final PdfInfo lightweightPdfInfo = knownPdfInfo != null ? knownPdfInfo : readPdfInfo(inputPdf);
+        final PdfInfo pdfInfo = preflight(uuid, inputPdf, conversionParams, lightweightPdfInfo);
+        // Only the lightweight preflight has read the PDF, so it has not been checked by the full parser
+        final boolean isPreflightOnly = lightweightPdfInfo != null && !lightweightPdfInfo.isEncrypted();
+        // Unencrypted PDFs were preflighted before they were scheduled
+        if (knownPdfInfo == null || knownPdfInfo.isEncrypted()) {
+            ConversionMetrics.getInstance().recordStage(uuid, ConversionMetrics.STAGE_PREFLIGHT,
+                    pdfInfo != null ? ConversionMetrics.OUTCOME_SUCCESS : ConversionMetrics.OUTCOME_ERROR, preflightStart);
+        }
+        if (pdfInfo == null) {
+            return;
+        }
+
+        final int pageCount = pdfInfo.getPageCount();
+        StatusUpdater.getInstance().setCustomValue(uuid, "pageCount", String.valueOf(pageCount));
+        StatusUpdater.getInstance().setCustomValue(uuid, "pagesConverted", "0");
+
+        StatusUpdater.getInstance().setState(uuid, "processing");
+
+        try {
+            final String jarPath = getJarPath(getServletContext());
+
+            final long maxDuration = Long.parseLong(properties.getProperty(BaseServletContextListener.KEY_PROPERTY_MAX_CONVERSION_DURATION));
+
+            conversionParams.put("org.jpedal.pdf2html.originalFileName", originalFileName);
+            conversionParams.put("org.jpedal.pdf2html.omitNameDir", "true");
+
+            final int shardCount = getShardCount(properties, conversionParams, pdfInfo);
+
+            final PageAvailabilityMonitor pageMonitor = (PageAvailabilityMonitor) getServletContext().getAttribute(BuildVuServletContextListener.KEY_PAGE_AVAILABILITY_MONITOR);
+            if (pageMonitor != null) {
+                final boolean isContentMode = "content".equalsIgnoreCase(conversionParams.get("org.jpedal.pdf2html.viewMode"));
+                pageMonitor.watch(uuid, outputDir, contextUrl + "/output/" + uuid, !isContentMode);
+            }
+
+            ProcessUtils.Result result = ProcessUtils.Result.ERROR;
+            final long buildVuStart = System.nanoTime();
+            try {
+                result = shardCount > 1
+                        ? convertSharded(conversionParams, uuid, jarPath, inputPdf, inputFile.getParentFile(), outputDir, maxDuration, pdfInfo, shardCount)
+                        : convertSingle(conversionParams, uuid, jarPath, inputPdf, outputDir, maxDuration, pageCount, heap);
+            } finally {
+                ConversionMetrics.getInstance().recordStage(uuid, ConversionMetrics.STAGE_BUILDVU, getOutcome(result), buildVuStart);
+                if (pageMonitor != null) {
+                    pageMonitor.stop(uuid, result == ProcessUtils.Result.SUCCESS);
+                }
+            }
+
+            switch (result) {
+                case SUCCESS:
+                    // Zips are streamed by OutputFileServlet on demand, but remote storage needs a file to upload
+                    final boolean zipOnDemand = "true".equalsIgnoreCase(properties.getProperty(BuildVuServletContextListener.KEY_PROPERTY_ZIP_OUTPUT_ON_DEMAND));
+                    if (!zipOnDemand || getServletContext().getAttribute("storage") != null) {
+                        final long zipStart = System.nanoTime();
+                        ZipHelper.zipFolder(outputDir, outputZip, false);
+                        ConversionMetrics.getInstance().recordStage(uuid, ConversionMetrics.STAGE_ZIP, ConversionMetrics.OUTCOME_SUCCESS, zipStart);
+                    }
+
+                    // Written after the zip so that the compressed copies are left out of it
+                    if ("true".equalsIgnoreCase(properties.getProperty(BuildVuServletContextListener.KEY_PROPERTY_PRECOMPRESS_OUTPUT))) {
+                        OutputCompressor.compress(outputDir.toPath());
+                    }
+
+                    // Shared after compressing so that the compressed copies are shared too, and before caching so that the cache links the same files
+                    final SharedAssetStore sharedAssetStore = (SharedAssetStore) getServletContext().getAttribute(BuildVuServletContextListener.KEY_SHARED_ASSET_STORE);
+                    if (sharedAssetStore != null) {
+                        try {
+                            sharedAssetStore.share(outputDir.toPath());
+                        } catch (final IOException ex) {
+                            LOG.log(Level.WARNING, "Unable to share output files of " + uuid, ex);
+                        }
+                    }
+
+                    final ConversionCache conversionCache = (ConversionCache) getServletContext().getAttribute(BuildVuServletContextListener.KEY_CONVERSION_CACHE);
+                    if (conversionCache != null && cacheKey != null) {
+                        conversionCache.put(cacheKey, outputDir, outputZip, pageCount);
+                    }
+
+                    completeConversion(uuid, outputZip, conversionParams, contextUrl);
+                    break;
+                case TIMEOUT:
+                    final String message = String.format("Conversion %s exceeded max duration of %dms", uuid, maxDuration);
+                    LOG.log(Level.INFO, message);
+                    StatusUpdater.getInstance().setError(uuid, StatusUpdater.CONVERSION_TIMEOUT_ERROR_CODE, "Conversion exceeded max duration of " + maxDuration + "ms");
+                    break;
+                case ERROR:
+                    if (isPreflightOnly && isInvalidPdf(inputPdf)) {
+                        StatusUpdater.getInstance().setError(uuid, 1060, "Invalid PDF");
+                        break;
+                    }
+                    LOG.log(Level.SEVERE, "An error occurred during the conversion");
+                    StatusUpdater.getInstance().setError(uuid, 1220, "An error occurred during the conversion");
+                    break;
+            }
+
+        } catch (final Throwable ex) {
+            LOG.log(Level.SEVERE, "Exception thrown when converting input", ex);
+            StatusUpdater.getInstance().setError(uuid, 1220, "Exception thrown when converting input: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Publishes the output of a successful conversion and marks the conversion
+     * as processed. When remote storage is configured the output is queued for
+     * upload, and the conversion is marked as processed once the upload ends.
+     */
+    private void completeConversion(final String uuid, final File outputZip, final Map<String, String> conversionParams,
+                                    final String contextUrl) {
+        final boolean isContentMode = "content".equalsIgnoreCase(conversionParams.remove("org.jpedal.pdf2html.viewMode"));
+        if (!isContentMode) {
+            StatusUpdater.getInstance().setCustomValue(uuid, "previewUrl", contextUrl + "/output/" + uuid + "/index.html");
+        }
+
+        StatusUpdater.getInstance().setCustomValue(uuid, "downloadUrl", contextUrl + "/output/" + uuid + ".zip");
+
+        final Storage storage = (Storage) getServletContext().getAttribute("storage");
+
+        if (storage != null) {
+            // Uploaded after the conversion releases its slot, the conversion is processed once the upload ends
+            final UploadStage uploadStage = (UploadStage) getServletContext().getAttribute(BuildVuServletContextListener.KEY_UPLOAD_STAGE);
+            final long uploadStart = System.nanoTime();
+            uploadStage.upload(storage, uuid, outputZip).whenComplete((remoteUrl, error) -> {
+                ConversionMetrics.getInstance().recordStage(uuid, ConversionMetrics.STAGE_UPLOAD,
+                        error == null ? ConversionMetrics.OUTCOME_SUCCESS : ConversionMetrics.OUTCOME_ERROR, uploadStart);
+                if (error == null) {
+                    StatusUpdater.getInstance().setCustomValue(uuid, "remoteUrl", remoteUrl);
+                } else {
+                    LOG.log(Level.SEVERE, "Unable to upload output of " + uuid + " to remote storage", error);
+                    // The local output is still served, so the conversion is processed but clients are told there is no remoteUrl
+                    StatusUpdater.getInstance().setCustomValue(uuid, "uploadError", "Unable to upload the output to remote storage");
+                }
+                StatusUpdater.getInstance().setState(uuid, "processed");
+            });
+            return;
+        }
+
+        StatusUpdater.getInstance().setState(uuid, "processed");
+    }
+
+    private static String getOutcome(final ProcessUtils.Result result) {
+        switch (result) {
+            case SUCCESS:
+                return ConversionMetrics.OUTCOME_SUCCESS;
+            case TIMEOUT:
+                return ConversionMetrics.OUTCOME_TIMEOUT;
+            default:
+                return ConversionMetrics.OUTCOME_ERROR;
+        }
+    }
+
+    /**
+     * Returns the path of buildvu.jar within the deployed application.
+     *
+     * @param servletContext the servlet context the application is running in
+     * @return the path to buildvu.jar
+     */
+    static String getJarPath(final ServletContext servletContext) {
+        final String servletDirectory = servletContext.getRealPath("");
+
+        if (servletDirectory != null) {
+            return servletDirectory + File.separator + "WEB-INF/lib/buildvu.jar";
+        } else {
+            return "WEB-INF/lib/buildvu.jar";
+        }
+    }
+
+    /**
+     * Reads the basic properties of the PDF using the lightweight preflight.
+     *
+     * @return the PDF properties, or null if they could not be found without a full parse
+     */
+    private static PdfInfo readPdfInfo(final File inputPdf) {
+        try {
+            return PdfPreflight.read(inputPdf);
+        } catch (final IOException e) {
+            LOG.log(Level.WARNING, "Unable to preflight " + inputPdf.getAbsolutePath() + ", opening it in full instead", e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the page count and encryption status of the PDF, setting the
+     * conversion error if the PDF is invalid or the password is wrong.
+     * <p>
+     * The result of the lightweight preflight is used when available. The full
+     * PDF parser is only used when it is not or to check the password of an
+     * encrypted PDF.
+     *
+     * @return the PDF properties, or null if the conversion cannot continue
+     */
+    private static PdfInfo preflight(final String uuid, final File inputPdf, final Map<String, String> conversionParams,
+                                     final PdfInfo knownPdfInfo) {
+        if (knownPdfInfo != null && !knownPdfInfo.isEncrypted()) {
+            return knownPdfInfo;
+        }
+
         try {
             final PdfDecoderServer decoder = new PdfDecoderServer(false);
             decoder.openPdfFile(inputPdf.getAbsolutePath());
@@ -135,91 +770,286 @@ public class BuildVuServlet extends BaseServlet {
 
             if (decoder.isEncrypted() && !decoder.isPasswordSupplied()) {
                 LOG.log(Level.SEVERE, "Invalid Password");
-                DBHandler.getInstance().setError(uuid, 1070, "Invalid password supplied.");
-                return;
+                StatusUpdater.getInstance().setError(uuid, 1070, "Invalid password supplied.");
+                return null;
             }
 
-            pageCount = decoder.getPageCount();
-            DBHandler.getInstance().setCustomValue(uuid, "pageCount", String.valueOf(pageCount));
-            DBHandler.getInstance().setCustomValue(uuid, "pagesConverted", "0");
+            final PdfInfo pdfInfo = new PdfInfo(decoder.getPageCount(), decoder.isEncrypted(), null, inputPdf.length());
             decoder.closePdfFile();
             decoder.dispose();
+            return pdfInfo;
         } catch (final PdfException e) {
             LOG.log(Level.SEVERE, "Invalid PDF", e);
-            DBHandler.getInstance().setError(uuid, 1060, "Invalid PDF");
-            return;
+            StatusUpdater.getInstance().setError(uuid, 1060, "Invalid PDF");
+            return null;
         }
+    }
 
-        DBHandler.getInstance().setState(uuid, "processing");
-
+    /**
+     * Returns true if the full PDF parser cannot open the PDF, so that a
+     * conversion that failed on a PDF accepted by the lightweight preflight
+     * reports the same error as one rejected before converting.
+     */
+    private static boolean isInvalidPdf(final File inputPdf) {
         try {
-            final String servletDirectory = getServletContext().getRealPath("");
-            final String jarPath;
+            final PdfDecoderServer decoder = new PdfDecoderServer(false);
+            decoder.openPdfFile(inputPdf.getAbsolutePath());
+            decoder.closePdfFile();
+            decoder.dispose();
+            return false;
+        } catch (final PdfException e) {
+            LOG.log(Level.SEVERE, "Invalid PDF", e);
+            return true;
+        }
+    }
 
-            if (servletDirectory != null) {
-                jarPath = servletDirectory + File.separator + "WEB-INF/lib/buildvu.jar";
-            } else {
-                jarPath = "WEB-INF/lib/buildvu.jar";
-            }
+    /**
+     * Returns the number of page range shards to split the conversion into, or
+     * 1 if the document should be converted as a whole.
+     */
+    private int getShardCount(final Properties properties, final Map<String, String> conversionParams, final PdfInfo pdfInfo) {
+        // The viewer and its index are written for the pages one process converts, so only content mode output can be merged
+        if (!"content".equalsIgnoreCase(conversionParams.get("org.jpedal.pdf2html.viewMode"))
+                || conversionParams.containsKey(REAL_PAGE_RANGE) || conversionParams.containsKey("org.jpedal.pdf2html.logicalPageRange")) {
+            return 1;
+        }
+        return PageRanges.getShardCount(pdfInfo.getPageCount(),
+                Integer.parseInt(properties.getProperty(BuildVuServletContextListener.KEY_PROPERTY_SHARD_PAGE_THRESHOLD)), scheduler.getSlots());
+    }
 
-            final long maxDuration = Long.parseLong(properties.getProperty(BaseServletContextListener.KEY_PROPERTY_MAX_CONVERSION_DURATION));
+    /**
+     * Converts the document as a single BuildVu process, publishing its
+     * progress from the pages it has written.
+     */
+    private ProcessUtils.Result convertSingle(final Map<String, String> conversionParams, final String uuid, final String jarPath,
+                                              final File inputPdf, final File outputDir, final long maxDuration,
+                                              final int pageCount, final int heap) {
+        final ConversionProgress progress = new ConversionProgress(uuid, Collections.singletonList(outputDir),
+                Collections.singletonList(new int[] {1, pageCount}));
+        final ScheduledFuture<?> progressTask = progressService.scheduleWithFixedDelay(progress::publish,
+                PROGRESS_INTERVAL, PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+        try {
+            final ProcessUtils.Result result = convertFile(conversionParams, uuid, jarPath, inputPdf, outputDir, maxDuration, heap);
+            if (result == ProcessUtils.Result.SUCCESS) {
+                progress.shardFinished(0);
+                progress.publish();
+            }
+            return result;
+        } finally {
+            progressTask.cancel(false);
+        }
+    }
 
-            final String originalFileName = DBHandler.getInstance().getCustomData(uuid).get("originalFileName");
-            conversionParams.put("org.jpedal.pdf2html.originalFileName", originalFileName);
-            conversionParams.put("org.jpedal.pdf2html.omitNameDir", "true");
+    /**
+     * Converts the document as several page range shards. The first shard is
+     * written straight to outputDir and runs on the calling thread, further
+     * shards run concurrently when a conversion slot is free and serially after
+     * the first shard otherwise. Further shards are written to the conversion's
+     * input directory, so that they are removed with the conversion if they
+     * are not merged. Once every shard has ended, the output of a successful
+     * conversion is merged into outputDir, keeping the first shard's copy of
+     * any file that all shards produce. Only content mode output is sharded,
+     * as its pages are written independently.
+     */
+    private ProcessUtils.Result convertSharded(final Map<String, String> conversionParams, final String uuid, final String jarPath,
+                                               final File inputPdf, final File workDir, final File outputDir, final long maxDuration,
+                                               final PdfInfo pdfInfo, final int shardCount) throws IOException {
+        final int pageCount = pdfInfo.getPageCount();
+        final long startTime = System.currentTimeMillis();
+        final List<int[]> pageRanges = PageRanges.split(pageCount, shardCount);
+        // The first shard is the largest
+        final int shardHeap = memoryEstimator.estimateHeap(pageRanges.get(0)[1], inputPdf.length(), conversionParams);
+        final int shardReservation = MemoryEstimator.getReservation(shardHeap);
 
-            final ProcessUtils.Result result = convertFile(conversionParams, uuid, jarPath, inputPdf, outputDir, maxDuration);
+        final List<File> shardDirs = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            shardDirs.add(i == 0 ? outputDir : new File(workDir, "shard-" + i));
+        }
+        final ConversionProgress progress = new ConversionProgress(uuid, shardDirs, pageRanges);
 
-            switch (result) {
-                case SUCCESS:
-                    final File outputZip = new File(outputDir.getParentFile(), uuid + ".zip");
-                    ZipHelper.zipFolder(outputDir, outputZip, false);
+        final List<Callable<ProcessUtils.Result>> shards = new ArrayList<>();
+        for (int i = 0; i < shardCount; i++) {
+            final int shard = i;
+            final Map<String, String> shardParams = new HashMap<>(conversionParams);
+            shardParams.put(REAL_PAGE_RANGE, pageRanges.get(i)[0] + "-" + pageRanges.get(i)[1]);
 
-                    final boolean isContentMode = "content".equalsIgnoreCase(conversionParams.remove("org.jpedal.pdf2html.viewMode"));
-                    if (!isContentMode) {
-                        DBHandler.getInstance().setCustomValue(uuid, "previewUrl", contextUrl + "/output/" + uuid + "/index.html");
-                    }
+            shards.add(() -> {
+                final long remaining = maxDuration > 0 ? Math.max(1, maxDuration - (System.currentTimeMillis() - startTime)) : maxDuration;
+                final ProcessUtils.Result result = convertFile(shardParams, uuid, jarPath, inputPdf, shardDirs.get(shard), remaining, shardHeap);
+                if (result == ProcessUtils.Result.SUCCESS) {
+                    progress.shardFinished(shard);
+                    progress.publish();
+                }
+                return result;
+            });
+        }
 
-                    DBHandler.getInstance().setCustomValue(uuid, "downloadUrl", contextUrl + "/output/" + uuid + ".zip");
+        final ScheduledFuture<?> progressTask = progressService.scheduleWithFixedDelay(progress::publish,
+                PROGRESS_INTERVAL, PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+        final List<Future<ProcessUtils.Result>> running = new ArrayList<>();
+        final List<ProcessUtils.Result> results = new ArrayList<>();
+        try {
+            final List<Callable<ProcessUtils.Result>> deferred = new ArrayList<>();
+            for (final Callable<ProcessUtils.Result> shard : shards.subList(1, shards.size())) {
+                if (scheduler.tryAcquireExtra(shardReservation)) {
+                    running.add(shardExecutor.submit(() -> {
+                        try {
+                            return shard.call();
+                        } finally {
+                            scheduler.releaseExtra(shardReservation);
+                        }
+                    }));
+                } else {
+                    deferred.add(shard);
+                }
+            }
 
-                    final Storage storage = (Storage) getServletContext().getAttribute("storage");
+            results.add(shards.get(0).call());
+            for (final Callable<ProcessUtils.Result> shard : deferred) {
+                if (results.get(results.size() - 1) != ProcessUtils.Result.SUCCESS) {
+                    break;
+                }
+                results.add(shard.call());
+            }
+        } catch (final Exception e) {
+            LOG.log(Level.SEVERE, "Exception thrown when converting shard of " + uuid, e);
+            results.add(ProcessUtils.Result.ERROR);
+        } finally {
+            // Shard directories are only merged or deleted once no shard can still be writing to them
+            results.addAll(awaitShards(uuid, running));
+            progressTask.cancel(false);
+        }
 
-                    if (storage != null) {
-                        final String remoteUrl = storage.put(outputZip, uuid + ".zip", uuid);
-                        DBHandler.getInstance().setCustomValue(uuid, "remoteUrl", remoteUrl);
+        final boolean succeeded = !results.contains(ProcessUtils.Result.TIMEOUT) && !results.contains(ProcessUtils.Result.ERROR);
+        try {
+            if (succeeded) {
+                for (final File shardDir : shardDirs.subList(1, shardDirs.size())) {
+                    if (shardDir.exists()) {
+                        mergeShardOutput(shardDir.toPath(), outputDir.toPath());
                     }
+                }
+            }
+        } finally {
+            for (final File shardDir : shardDirs.subList(1, shardDirs.size())) {
+                deleteRecursively(shardDir.toPath());
+            }
+        }
 
-                    DBHandler.getInstance().setState(uuid, "processed");
+        if (results.contains(ProcessUtils.Result.TIMEOUT)) {
+            return ProcessUtils.Result.TIMEOUT;
+        }
+        return succeeded ? ProcessUtils.Result.SUCCESS : ProcessUtils.Result.ERROR;
+    }
 
+    /**
+     * Waits for every shard running on the shard executor to end. If the
+     * thread is interrupted the shards are cancelled and still waited for.
+     */
+    private static List<ProcessUtils.Result> awaitShards(final String uuid, final List<Future<ProcessUtils.Result>> running) {
+        final List<ProcessUtils.Result> results = new ArrayList<>();
+        boolean interrupted = false;
+        for (final Future<ProcessUtils.Result> shard : running) {
+            while (true) {
+                try {
+                    results.add(shard.get());
                     break;
-                case TIMEOUT:
-                    final String message = String.format("Conversion %s exceeded max duration of %dms", uuid, maxDuration);
-                    LOG.log(Level.INFO, message);
-                    DBHandler.getInstance().setError(uuid, 1230, "Conversion exceeded max duration of " + maxDuration + "ms");
-                    break;
-                case ERROR:
-                    LOG.log(Level.SEVERE, "An error occurred during the conversion");
-                    DBHandler.getInstance().setError(uuid, 1220, "An error occurred during the conversion");
+                } catch (final InterruptedException e) {
+                    interrupted = true;
+                    running.forEach(future -> future.cancel(true));
+                } catch (final CancellationException | ExecutionException e) {
+                    LOG.log(Level.SEVERE, "Exception thrown when converting shard of " + uuid, e);
+                    results.add(ProcessUtils.Result.ERROR);
                     break;
+                }
             }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return results;
+    }
 
-        } catch (final Throwable ex) {
-            LOG.log(Level.SEVERE, "Exception thrown when converting input", ex);
-            DBHandler.getInstance().setError(uuid, 1220, "Exception thrown when converting input: " + ex.getMessage());
+    private static void deleteRecursively(final Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        final List<Path> files;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            files = paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (final Path file : files) {
+            Files.delete(file);
         }
     }
 
+    private static void mergeShardOutput(final Path shardDir, final Path outputDir) throws IOException {
+        final List<Path> files;
+        try (Stream<Path> paths = Files.walk(shardDir)) {
+            files = paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+
+        for (final Path file : files) {
+            if (Files.isDirectory(file)) {
+                Files.delete(file);
+                continue;
+            }
+            final Path target = outputDir.resolve(shardDir.relativize(file));
+            if (Files.exists(target)) {
+                Files.delete(file);
+            } else {
+                Files.createDirectories(target.getParent());
+                Files.move(file, target);
+            }
+        }
+    }
+
+    /**
+     * Runs BuildVu on the input file. A conversion that runs out of memory is
+     * retried once in a new process with a larger heap, after reserving the
+     * extra memory with the scheduler, before it is reported as an error.
+     *
+     * @param heap the heap in megabytes to give a new BuildVu process, 0 for the JVM default
+     */
     private ProcessUtils.Result convertFile(final Map<String, String> conversionParams, final String uuid, final String jarPath,
-                                            final File inputPdf, final File outputDir, final long maxDuration) {
+                                            final File inputPdf, final File outputDir, final long maxDuration,
+                                            final int heap) {
+        final File outOfMemoryMarker = new File(inputPdf.getParentFile(), outputDir.getName() + "-oom.log");
+        final OutOfMemoryRetry.ProcessAttempt process = (attemptHeap, attemptDuration) ->
+                runBuildVuProcess(conversionParams, uuid, jarPath, inputPdf, outputDir, attemptDuration, attemptHeap, outOfMemoryMarker);
+
+        final WorkerPool workerPool = (WorkerPool) getServletContext().getAttribute(BuildVuServletContextListener.KEY_WORKER_POOL);
+        if (workerPool == null) {
+            return outOfMemoryRetry.run(uuid, attemptDuration -> process.run(heap, attemptDuration), heap, heap,
+                    maxDuration, outOfMemoryMarker, process);
+        }
+
+        final Properties properties = (Properties) getServletContext().getAttribute(BaseServletContextListener.KEY_PROPERTIES);
+        final int workerHeap = Integer.parseInt(properties.getProperty(BaseServletContextListener.KEY_PROPERTY_CONVERSION_MEMORY));
+        return outOfMemoryRetry.run(uuid, attemptDuration -> {
+            ConversionMetrics.getInstance().processStarted(BUILDVU_PROCESS);
+            try {
+                return workerPool.convert(conversionParams, uuid, inputPdf, outputDir, attemptDuration, outOfMemoryMarker);
+            } finally {
+                ConversionMetrics.getInstance().processFinished(BUILDVU_PROCESS);
+            }
+        }, workerHeap, heap, maxDuration, outOfMemoryMarker, process);
+    }
+
+    private ProcessUtils.Result runBuildVuProcess(final Map<String, String> conversionParams, final String uuid, final String jarPath,
+                                                  final File inputPdf, final File outputDir, final long maxDuration,
+                                                  final int heap, final File outOfMemoryMarker) {
         final ArrayList<String> commandArgs = new ArrayList<>();
         commandArgs.add("java");
 
-        final Properties properties = (Properties) getServletContext().getAttribute(BaseServletContextListener.KEY_PROPERTIES);
-        final int memoryLimit = Integer.parseInt(properties.getProperty(BaseServletContextListener.KEY_PROPERTY_CONVERSION_MEMORY));
-        if (memoryLimit > 0) {
-            commandArgs.add("-Xmx" + memoryLimit + 'M');
+        if (heap > 0) {
+            commandArgs.add("-Xmx" + heap + 'M');
         }
 
+        // Crashing rather than exiting writes the error log, which is how an out of memory error is told apart from other errors
+        commandArgs.add("-XX:+CrashOnOutOfMemoryError");
+        commandArgs.add("-XX:-CreateCoredumpOnCrash");
+        commandArgs.add("-XX:ErrorFile=" + outOfMemoryMarker.getAbsolutePath());
+
 
         if (!conversionParams.isEmpty()) {
             final Set<String> keys = conversionParams.keySet();
@@ -229,12 +1059,6 @@ public class BuildVuServlet extends BaseServlet {
             }
         }
 
-        final int remoteTrackerPort = Integer.parseInt((String) properties.get(BaseServletContextListener.KEY_PROPERTY_REMOTE_TRACKING_PORT));
-
-        //Set settings
-        commandArgs.add("-Dcom.idrsolutions.remoteTracker.port=" + remoteTrackerPort);
-        commandArgs.add("-Dcom.idrsolutions.remoteTracker.uuid=" + uuid);
-
         //Add jar and input / output
         commandArgs.add("-jar");
         commandArgs.add(jarPath);
@@ -243,7 +1067,12 @@ public class BuildVuServlet extends BaseServlet {
 
         final String[] commands = commandArgs.toArray(new String[0]);
 
-        return ProcessUtils.runProcess(commands, inputPdf.getParentFile(), uuid, "BuildVu Conversion", maxDuration);
+        ConversionMetrics.getInstance().processStarted(BUILDVU_PROCESS);
+        try {
+            return ProcessUtils.runProcess(commands, inputPdf.getParentFile(), uuid, "BuildVu Conversion", maxDuration);
+        } finally {
+            ConversionMetrics.getInstance().processFinished(BUILDVU_PROCESS);
+        }
     }
 
     /**
@@ -262,21 +1091,30 @@ public class BuildVuServlet extends BaseServlet {
                                       final String uuid) {
 
         final Map<String, String> settings;
-        try {
-            settings = parseSettings(request.getParameter("settings"));
-        } catch (final JsonParsingException exception) {
-            doError(request, response, "Error encountered when parsing settings JSON <" + exception.getMessage() + '>', 400);
-            return false;
-        }
+        if (request instanceof BatchDocumentRequest) {
+            // Validated once for the whole batch
+            settings = ((BatchDocumentRequest) request).getSettings();
+        } else {
+            try {
+                settings = parseSettings(request.getParameter("settings"));
+            } catch (final JsonParsingException exception) {
+                doError(request, response, "Error encountered when parsing settings JSON <" + exception.getMessage() + '>', 400);
+                return false;
+            }
 
-        try {
-            BuildVuSettingsValidator.validate(settings, false);
-        } catch(final IllegalArgumentException e) {
-            doError(request, response, e.getMessage(), 400);
-            return false;
+            try {
+                BuildVuSettingsValidator.validate(settings, false);
+            } catch(final IllegalArgumentException e) {
+                doError(request, response, e.getMessage(), 400);
+                return false;
+            }
         }
 
         request.setAttribute("com.idrsolutions.microservice.settings", settings);
+        ConversionMetrics.getInstance().conversionAccepted(uuid);
+
+        final String clientId = request.getHeader("X-Client-Id");
+        clientIds.put(uuid, clientId != null && !clientId.isEmpty() ? clientId : request.getRemoteAddr());
 
         return true;
     }
@@ -18,11 +18,41 @@
  */
 package com.idrsolutions.microservice;
 
+import com.idrsolutions.microservice.batch.BatchRegistry;
+import com.idrsolutions.microservice.cache.ConversionCache;
 import com.idrsolutions.microservice.db.DBHandler;
+import com.idrsolutions.microservice.office.LibreOfficePool;
+import com.idrsolutions.microservice.output.SharedAssetStore;
+import com.idrsolutions.microservice.queue.JdbcJobQueue;
+import com.idrsolutions.microservice.queue.JobQueue;
+import com.idrsolutions.microservice.scheduler.ConversionScheduler;
+import com.idrsolutions.microservice.scheduler.FairPolicy;
+import com.idrsolutions.microservice.scheduler.FifoPolicy;
+import com.idrsolutions.microservice.scheduler.LanePolicy;
+import com.idrsolutions.microservice.scheduler.SchedulingPolicy;
+import com.idrsolutions.microservice.scheduler.ShortestJobFirstPolicy;
+import com.idrsolutions.microservice.status.PageAvailabilityMonitor;
+import com.idrsolutions.microservice.status.StatusUpdater;
+import com.idrsolutions.microservice.status.StatusWatcher;
+import com.idrsolutions.microservice.upload.UploadStage;
+import com.idrsolutions.microservice.worker.WorkerPool;
 
+import javax.naming.InitialContext;
+import javax.naming.NamingException;
+import javax.servlet.ServletContext;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.annotation.WebListener;
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.SQLException;
 import java.util.Properties;
+import java.util.ServiceLoader;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,9 +66,132 @@ public class BuildVuServletContextListener extends BaseServletContextListener {
     /** The configuration property key used to specify whether to include the generated PDF in the output when processing office documents. */
     public static final String KEY_PROPERTY_INCLUDE_OFFICE_PDF = "includeOfficePdf";
 
+    /** The configuration property key used to specify whether output zips are built when downloaded rather than after each conversion. */
+    public static final String KEY_PROPERTY_ZIP_OUTPUT_ON_DEMAND = "zipOutputOnDemand";
+
+    /** The configuration property key used to specify whether gzip copies of the text output are written when a conversion finishes, for serving to clients that accept gzip. */
+    public static final String KEY_PROPERTY_PRECOMPRESS_OUTPUT = "precompressOutput";
+
+    /** The configuration property key used to specify how often held conversion status updates are written to the database, 0 writes them immediately. */
+    public static final String KEY_PROPERTY_STATUS_FLUSH_INTERVAL = "statusFlushInterval";
+
+    /** The configuration property key used to specify the number of long-lived BuildVu worker JVMs, 0 disables the pool. */
+    public static final String KEY_PROPERTY_WORKER_POOL_SIZE = "workerPoolSize";
+
+    /** The configuration property key used to specify how many conversions a worker JVM runs before it is replaced. */
+    public static final String KEY_PROPERTY_WORKER_POOL_MAX_JOBS = "workerPoolMaxJobs";
+
+    /** The configuration property key used to specify the page count above which a content mode conversion is run as concurrent page range shards, 0 disables sharding. */
+    public static final String KEY_PROPERTY_SHARD_PAGE_THRESHOLD = "shardPageThreshold";
+
+    /** The configuration property key used to specify the maximum size of the conversion result cache in megabytes, 0 disables the cache. */
+    public static final String KEY_PROPERTY_RESULT_CACHE_SIZE = "resultCacheSize";
+
+    /** The configuration property key used to specify the directory the conversion result cache is stored in. */
+    public static final String KEY_PROPERTY_RESULT_CACHE_PATH = "resultCachePath";
+
+    /** The configuration property key used to specify the policy choosing which queued conversion runs next: fifo, sjf, lanes or fair. */
+    public static final String KEY_PROPERTY_SCHEDULER_POLICY = "schedulerPolicy";
+
+    /** The configuration property key used to specify how many conversions the scheduler may hold and choose between, including those running. */
+    public static final String KEY_PROPERTY_SCHEDULER_WINDOW = "schedulerWindow";
+
+    /** The configuration property key used to specify how many pages per second of waiting a job's priority improves by under the sjf policy. */
+    public static final String KEY_PROPERTY_SCHEDULER_AGING_RATE = "schedulerAgingRate";
+
+    /** The configuration property key used to specify the page count at which a job is placed in the large lane under the lanes policy. */
+    public static final String KEY_PROPERTY_SCHEDULER_LARGE_JOB_PAGES = "schedulerLargeJobPages";
+
+    /** The configuration property key used to specify how many slots large jobs may use at once under the lanes policy. */
+    public static final String KEY_PROPERTY_SCHEDULER_LARGE_JOB_SLOTS = "schedulerLargeJobSlots";
+
+    /** The configuration property key used to specify whether the heap of each conversion is sized from its document rather than always using conversionMemoryLimit. */
+    public static final String KEY_PROPERTY_ADAPTIVE_CONVERSION_MEMORY = "adaptiveConversionMemory";
+
+    /** The configuration property key used to specify the total memory in megabytes running conversions may reserve, 0 limits conversions by conversionThreadCount instead. */
+    public static final String KEY_PROPERTY_CONVERSION_MEMORY_BUDGET = "conversionMemoryBudget";
+
+    /** The configuration property key used to specify how often in milliseconds the output of running conversions is checked for finished pages, 0 disables it. */
+    public static final String KEY_PROPERTY_PAGE_AVAILABILITY_INTERVAL = "pageAvailabilityInterval";
+
+    /** The configuration property key used to specify how many uploads to remote storage may run at once. */
+    public static final String KEY_PROPERTY_UPLOAD_THREAD_COUNT = "uploadThreadCount";
+
+    /** The configuration property key used to specify how many times a failed upload to remote storage is retried. */
+    public static final String KEY_PROPERTY_UPLOAD_RETRIES = "uploadRetries";
+
+    /** The configuration property key used to specify the delay in milliseconds before a failed upload is first retried, doubled for each later retry. */
+    public static final String KEY_PROPERTY_UPLOAD_RETRY_DELAY = "uploadRetryDelay";
+
+    /** The configuration property key used to specify where conversions are queued: local runs them on the node that received them, jdbc shares them between nodes through a database table. */
+    public static final String KEY_PROPERTY_JOB_QUEUE = "jobQueue";
+
+    /** The configuration property key used to specify the JDBC url of the database holding the jdbc job queue, empty to use the database named by databaseJNDIName. */
+    public static final String KEY_PROPERTY_JOB_QUEUE_JDBC_URL = "jobQueueJdbcUrl";
+
+    /** The configuration property key used to specify how long in milliseconds a node's claim on a queued conversion lasts without being renewed. */
+    public static final String KEY_PROPERTY_JOB_QUEUE_LEASE = "jobQueueLease";
+
+    /** The configuration property key used to specify how many times a queued conversion may be claimed before it is failed. */
+    public static final String KEY_PROPERTY_JOB_QUEUE_MAX_ATTEMPTS = "jobQueueMaxAttempts";
+
+    /** The servlet context attribute holding the shared {@link JobQueue}, only set when the jdbc job queue is used. */
+    public static final String KEY_JOB_QUEUE = "jobQueue";
+
+    /** The servlet context attribute holding the {@link StatusWatcher}. */
+    public static final String KEY_STATUS_WATCHER = "statusWatcher";
+
+    /** The servlet context attribute holding the {@link BatchRegistry}. */
+    public static final String KEY_BATCH_REGISTRY = "batchRegistry";
+
+    /** The servlet context attribute holding the {@link UploadStage}. */
+    public static final String KEY_UPLOAD_STAGE = "uploadStage";
+
+    /** The servlet context attribute holding the {@link PageAvailabilityMonitor}, only set when it is enabled. */
+    public static final String KEY_PAGE_AVAILABILITY_MONITOR = "pageAvailabilityMonitor";
+
+    /** The servlet context attribute holding the {@link ConversionScheduler}. */
+    public static final String KEY_CONVERSION_SCHEDULER = "conversionScheduler";
+
+    /** The servlet context attribute holding the {@link WorkerPool}, only set when the pool is enabled. */
+    public static final String KEY_WORKER_POOL = "workerPool";
+
+    /** The configuration property key used to specify the number of long-running LibreOffice instances, 0 disables the pool. */
+    public static final String KEY_PROPERTY_LIBRE_OFFICE_POOL_SIZE = "libreOfficePoolSize";
+
+    /** The configuration property key used to specify how many documents a LibreOffice instance converts before it is restarted. */
+    public static final String KEY_PROPERTY_LIBRE_OFFICE_POOL_MAX_USES = "libreOfficePoolMaxUses";
+
+    /** The servlet context attribute holding the {@link LibreOfficePool}, only set when the pool is enabled. */
+    public static final String KEY_LIBRE_OFFICE_POOL = "libreOfficePool";
+
+    /** The servlet context attribute holding the {@link ConversionCache}, only set when the cache is enabled. */
+    public static final String KEY_CONVERSION_CACHE = "conversionCache";
+
+    /** The configuration property key used to specify whether files repeated across conversions are stored once and linked into each output. */
+    public static final String KEY_PROPERTY_SHARED_ASSETS = "sharedAssets";
+
+    /** The configuration property key used to specify the directory shared files are stored in, which must be on the same file system as the output path. */
+    public static final String KEY_PROPERTY_SHARED_ASSETS_PATH = "sharedAssetsPath";
+
+    /** The servlet context attribute holding the {@link SharedAssetStore}, only set when shared assets are enabled. */
+    public static final String KEY_SHARED_ASSET_STORE = "sharedAssetStore";
+
+    /** The base microservice property holding the time in milliseconds a conversion is kept for. */
+    private static final String KEY_PROPERTY_INDIVIDUAL_TTL = "individualTTL";
+
+    /** The base microservice property holding the JNDI name of the external database. */
+    private static final String KEY_PROPERTY_DATABASE_JNDI_NAME = "databaseJNDIName";
+
+    /** The base microservice property holding the number of conversion threads. */
+    private static final String KEY_PROPERTY_CONVERSION_THREAD_COUNT = "conversionThreadCount";
+
     /** Logger instance used for logging messages within this class. */
     private static final Logger LOG = Logger.getLogger(BuildVuServletContextListener.class.getName());
 
+    /** The number of conversions that may run at once, the conversionThreadCount before it is widened for the scheduler. */
+    private int conversionSlots;
+
     /**
      * Retrieves the configuration path used by the application, which is "~/.idr/buildvu-microservice/".
      *
@@ -73,12 +226,206 @@ public class BuildVuServletContextListener extends BaseServletContextListener {
         super.contextInitialized(servletContextEvent);
         final Properties propertiesFile = (Properties) servletContextEvent.getServletContext().getAttribute(KEY_PROPERTIES);
         OutputFileServlet.setBasePath(propertiesFile.getProperty(KEY_PROPERTY_OUTPUT_PATH));
+        StatusUpdater.initialise(Long.parseLong(propertiesFile.getProperty(KEY_PROPERTY_STATUS_FLUSH_INTERVAL)));
+        servletContextEvent.getServletContext().setAttribute(KEY_CONVERSION_SCHEDULER,
+                new ConversionScheduler(conversionSlots, Long.parseLong(propertiesFile.getProperty(KEY_PROPERTY_CONVERSION_MEMORY_BUDGET)),
+                        createSchedulingPolicy(propertiesFile, conversionSlots)));
+
+        servletContextEvent.getServletContext().setAttribute(KEY_STATUS_WATCHER, new StatusWatcher());
+        servletContextEvent.getServletContext().setAttribute(KEY_BATCH_REGISTRY,
+                new BatchRegistry(Long.parseLong(propertiesFile.getProperty(KEY_PROPERTY_INDIVIDUAL_TTL))));
+
+        // Created whether or not remote storage is configured, its threads are only started by the first upload
+        servletContextEvent.getServletContext().setAttribute(KEY_UPLOAD_STAGE,
+                new UploadStage(Integer.parseInt(propertiesFile.getProperty(KEY_PROPERTY_UPLOAD_THREAD_COUNT)),
+                        Integer.parseInt(propertiesFile.getProperty(KEY_PROPERTY_UPLOAD_RETRIES)),
+                        Long.parseLong(propertiesFile.getProperty(KEY_PROPERTY_UPLOAD_RETRY_DELAY))));
+
+        final long pageAvailabilityInterval = Long.parseLong(propertiesFile.getProperty(KEY_PROPERTY_PAGE_AVAILABILITY_INTERVAL));
+        if (pageAvailabilityInterval > 0) {
+            servletContextEvent.getServletContext().setAttribute(KEY_PAGE_AVAILABILITY_MONITOR, new PageAvailabilityMonitor(pageAvailabilityInterval));
+        }
 
         if (DBHandler.isUsingMemoryDatabase()) {
             final String message = "It is recommended to set your own database instead of using the default internal database as it will allow you to more easily scale the service in the future.\n" +
                     "More details on the benefits and how to do this can be found here https://support.idrsolutions.com/buildvu/tutorials/cloud/options/external-state-database";
             LOG.log(Level.WARNING, message);
         }
+
+        if ("jdbc".equals(propertiesFile.getProperty(KEY_PROPERTY_JOB_QUEUE))) {
+            try {
+                servletContextEvent.getServletContext().setAttribute(KEY_JOB_QUEUE, new JdbcJobQueue(createJobQueueConnectionFactory(propertiesFile)));
+            } catch (final IOException | NamingException e) {
+                LOG.log(Level.SEVERE, "Unable to use the jdbc job queue, conversions will run on the node that receives them", e);
+            }
+        }
+
+        final int workerPoolSize = Integer.parseInt(propertiesFile.getProperty(KEY_PROPERTY_WORKER_POOL_SIZE));
+        if (workerPoolSize > 0) {
+            final ServletContext servletContext = servletContextEvent.getServletContext();
+            try {
+                final WorkerPool workerPool = new WorkerPool(BuildVuServlet.getJarPath(servletContext), workerPoolSize,
+                        Integer.parseInt(propertiesFile.getProperty(KEY_PROPERTY_WORKER_POOL_MAX_JOBS)),
+                        Integer.parseInt(propertiesFile.getProperty(KEY_PROPERTY_CONVERSION_MEMORY)));
+                servletContext.setAttribute(KEY_WORKER_POOL, workerPool);
+            } catch (final IOException e) {
+                LOG.log(Level.SEVERE, "Unable to start BuildVu worker pool, conversions will use a new process each", e);
+            }
+        }
+
+        final int libreOfficePoolSize = Integer.parseInt(propertiesFile.getProperty(KEY_PROPERTY_LIBRE_OFFICE_POOL_SIZE));
+        if (libreOfficePoolSize > 0) {
+            try {
+                final LibreOfficePool libreOfficePool = new LibreOfficePool(propertiesFile.getProperty(KEY_PROPERTY_LIBRE_OFFICE),
+                        libreOfficePoolSize, Integer.parseInt(propertiesFile.getProperty(KEY_PROPERTY_LIBRE_OFFICE_POOL_MAX_USES)));
+                servletContextEvent.getServletContext().setAttribute(KEY_LIBRE_OFFICE_POOL, libreOfficePool);
+            } catch (final IOException e) {
+                LOG.log(Level.SEVERE, "Unable to start LibreOffice pool, office documents will use a new process each", e);
+            }
+        }
+
+        final long resultCacheSize = Long.parseLong(propertiesFile.getProperty(KEY_PROPERTY_RESULT_CACHE_SIZE));
+        if (resultCacheSize > 0) {
+            final ServletContext servletContext = servletContextEvent.getServletContext();
+            try {
+                final ConversionCache conversionCache = new ConversionCache(new File(propertiesFile.getProperty(KEY_PROPERTY_RESULT_CACHE_PATH)),
+                        resultCacheSize * 1024 * 1024, getBuildVuVersion(BuildVuServlet.getJarPath(servletContext)));
+                servletContext.setAttribute(KEY_CONVERSION_CACHE, conversionCache);
+            } catch (final IOException e) {
+                LOG.log(Level.SEVERE, "Unable to create conversion result cache, conversions will not be cached", e);
+            }
+        }
+
+        if ("true".equalsIgnoreCase(propertiesFile.getProperty(KEY_PROPERTY_SHARED_ASSETS))) {
+            try {
+                servletContextEvent.getServletContext().setAttribute(KEY_SHARED_ASSET_STORE,
+                        new SharedAssetStore(new File(propertiesFile.getProperty(KEY_PROPERTY_SHARED_ASSETS_PATH)),
+                                new File(propertiesFile.getProperty(KEY_PROPERTY_OUTPUT_PATH))));
+            } catch (final IOException e) {
+                LOG.log(Level.SEVERE, "Unable to create shared asset store, output files will not be shared", e);
+            }
+        }
+    }
+
+    /**
+     * Creates the connection factory of the jdbc job queue, from the JDBC url
+     * in "jobQueueJdbcUrl" if it is set or from the DataSource of the external
+     * database otherwise.
+     *
+     * @param properties the validated configuration properties
+     * @return the connection factory
+     * @throws NamingException if the DataSource of the external database cannot be found
+     */
+    private static JdbcJobQueue.ConnectionFactory createJobQueueConnectionFactory(final Properties properties) throws NamingException {
+        final String jdbcUrl = properties.getProperty(KEY_PROPERTY_JOB_QUEUE_JDBC_URL);
+        if (!jdbcUrl.isEmpty()) {
+            // Drivers in WEB-INF/lib are not registered with DriverManager, so they are found through this class loader
+            for (final Driver driver : ServiceLoader.load(Driver.class, BuildVuServletContextListener.class.getClassLoader())) {
+                try {
+                    if (driver.acceptsURL(jdbcUrl)) {
+                        return () -> driver.connect(jdbcUrl, new Properties());
+                    }
+                } catch (final SQLException e) {
+                    LOG.log(Level.FINE, "Unable to check driver " + driver.getClass().getName(), e);
+                }
+            }
+            return () -> DriverManager.getConnection(jdbcUrl);
+        }
+
+        final String jndiName = properties.getProperty(KEY_PROPERTY_DATABASE_JNDI_NAME);
+        if (jndiName == null || jndiName.isEmpty()) {
+            throw new NamingException("The jdbc job queue needs jobQueueJdbcUrl or an external database set by databaseJNDIName");
+        }
+        final InitialContext context = new InitialContext();
+        DataSource dataSource;
+        try {
+            dataSource = (DataSource) context.lookup(jndiName);
+        } catch (final NamingException e) {
+            dataSource = (DataSource) context.lookup("java:comp/env/" + jndiName);
+        }
+        return dataSource::getConnection;
+    }
+
+    /**
+     * Creates the scheduling policy named by the "schedulerPolicy" property.
+     *
+     * @param properties the validated configuration properties
+     * @param conversionSlots the number of conversions that may run at once
+     * @return the scheduling policy
+     */
+    private static SchedulingPolicy createSchedulingPolicy(final Properties properties, final int conversionSlots) {
+        switch (properties.getProperty(KEY_PROPERTY_SCHEDULER_POLICY)) {
+            case "sjf":
+                return new ShortestJobFirstPolicy(Double.parseDouble(properties.getProperty(KEY_PROPERTY_SCHEDULER_AGING_RATE)));
+            case "lanes":
+                final int largeJobSlots = Integer.parseInt(properties.getProperty(KEY_PROPERTY_SCHEDULER_LARGE_JOB_SLOTS));
+                return new LanePolicy(Integer.parseInt(properties.getProperty(KEY_PROPERTY_SCHEDULER_LARGE_JOB_PAGES)),
+                        largeJobSlots > 0 ? largeJobSlots : Math.max(1, conversionSlots / 2));
+            case "fair":
+                return new FairPolicy();
+            default:
+                return new FifoPolicy();
+        }
+    }
+
+    /**
+     * Returns the version of buildvu.jar, used to keep cached output from one
+     * BuildVu release from being served after an upgrade.
+     *
+     * @param jarPath the path to buildvu.jar
+     * @return the implementation version in the jar manifest, or the size and
+     * modification time of the jar if it has none
+     * @throws IOException if the jar cannot be read
+     */
+    private static String getBuildVuVersion(final String jarPath) throws IOException {
+        final File jar = new File(jarPath);
+        try (JarFile jarFile = new JarFile(jar)) {
+            final Manifest manifest = jarFile.getManifest();
+            final String version = manifest != null ? manifest.getMainAttributes().getValue(Attributes.Name.IMPLEMENTATION_VERSION) : null;
+            if (version != null) {
+                return version;
+            }
+        }
+        return jar.length() + "-" + jar.lastModified();
+    }
+
+    /**
+     * Stops the services started in contextInitialized and writes any held status updates.
+     *
+     * @param servletContextEvent the event containing the servlet context that is being destroyed
+     */
+    @Override
+    public void contextDestroyed(final ServletContextEvent servletContextEvent) {
+        final WorkerPool workerPool = (WorkerPool) servletContextEvent.getServletContext().getAttribute(KEY_WORKER_POOL);
+        if (workerPool != null) {
+            workerPool.shutdown();
+        }
+        final LibreOfficePool libreOfficePool = (LibreOfficePool) servletContextEvent.getServletContext().getAttribute(KEY_LIBRE_OFFICE_POOL);
+        if (libreOfficePool != null) {
+            libreOfficePool.shutdown();
+        }
+        final BatchRegistry batchRegistry = (BatchRegistry) servletContextEvent.getServletContext().getAttribute(KEY_BATCH_REGISTRY);
+        if (batchRegistry != null) {
+            batchRegistry.shutdown();
+        }
+        final UploadStage uploadStage = (UploadStage) servletContextEvent.getServletContext().getAttribute(KEY_UPLOAD_STAGE);
+        if (uploadStage != null) {
+            uploadStage.shutdown();
+        }
+        final PageAvailabilityMonitor pageAvailabilityMonitor = (PageAvailabilityMonitor) servletContextEvent.getServletContext().getAttribute(KEY_PAGE_AVAILABILITY_MONITOR);
+        if (pageAvailabilityMonitor != null) {
+            pageAvailabilityMonitor.shutdown();
+        }
+        final StatusWatcher statusWatcher = (StatusWatcher) servletContextEvent.getServletContext().getAttribute(KEY_STATUS_WATCHER);
+        if (statusWatcher != null) {
+            statusWatcher.shutdown();
+        }
+        final SharedAssetStore sharedAssetStore = (SharedAssetStore) servletContextEvent.getServletContext().getAttribute(KEY_SHARED_ASSET_STORE);
+        if (sharedAssetStore != null) {
+            sharedAssetStore.shutdown();
+        }
+        StatusUpdater.getInstance().shutdown();
+        super.contextDestroyed(servletContextEvent);
     }
 
     /**
@@ -92,9 +439,44 @@ public class BuildVuServletContextListener extends BaseServletContextListener {
     protected void validateConfigFileValues(final Properties propertiesFile) {
         super.validateConfigFileValues(propertiesFile);
 
+        validateSchedulerPolicy(propertiesFile);
+        validateSchedulerWindow(propertiesFile);
+        validateSchedulerAgingRate(propertiesFile);
+        validateSchedulerLargeJobPages(propertiesFile);
+        validateSchedulerLargeJobSlots(propertiesFile);
+
+        conversionSlots = Integer.parseInt(propertiesFile.getProperty(KEY_PROPERTY_CONVERSION_THREAD_COUNT));
+        final int schedulerWindow = Integer.parseInt(propertiesFile.getProperty(KEY_PROPERTY_SCHEDULER_WINDOW));
+        if (schedulerWindow > conversionSlots) {
+            // Lets the base microservice hand the scheduler more conversions than can run so it has jobs to choose between
+            propertiesFile.setProperty(KEY_PROPERTY_CONVERSION_THREAD_COUNT, String.valueOf(schedulerWindow));
+        }
+
         validateLibreOfficePath(propertiesFile);
         validateLibreOfficeTimeout(propertiesFile);
         validateIncludeOfficePdf(propertiesFile);
+        validateZipOutputOnDemand(propertiesFile);
+        validatePrecompressOutput(propertiesFile);
+        validateStatusFlushInterval(propertiesFile);
+        validatePageAvailabilityInterval(propertiesFile);
+        validateJobQueue(propertiesFile);
+        validateJobQueueJdbcUrl(propertiesFile);
+        validateJobQueueLease(propertiesFile);
+        validateJobQueueMaxAttempts(propertiesFile);
+        validateUploadThreadCount(propertiesFile);
+        validateUploadRetries(propertiesFile);
+        validateUploadRetryDelay(propertiesFile);
+        validateLibreOfficePoolSize(propertiesFile);
+        validateLibreOfficePoolMaxUses(propertiesFile);
+        validateWorkerPoolSize(propertiesFile);
+        validateWorkerPoolMaxJobs(propertiesFile);
+        validateShardPageThreshold(propertiesFile);
+        validateAdaptiveConversionMemory(propertiesFile);
+        validateConversionMemoryBudget(propertiesFile);
+        validateResultCacheSize(propertiesFile);
+        validateResultCachePath(propertiesFile);
+        validateSharedAssets(propertiesFile);
+        validateSharedAssetsPath(propertiesFile);
     }
 
     /**
@@ -127,6 +509,35 @@ public class BuildVuServletContextListener extends BaseServletContextListener {
         }
     }
 
+    /**
+     * Validates the "libreOfficePoolSize" property in the provided Properties object.
+     * If the property is not set or is not a non-negative integer, it assigns a default value of "0", which disables
+     * the LibreOffice pool, and logs a warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateLibreOfficePoolSize(final Properties properties) {
+        final String libreOfficePoolSize = properties.getProperty(KEY_PROPERTY_LIBRE_OFFICE_POOL_SIZE);
+        if (libreOfficePoolSize == null || libreOfficePoolSize.isEmpty() || !libreOfficePoolSize.matches("\\d+")) {
+            properties.setProperty(KEY_PROPERTY_LIBRE_OFFICE_POOL_SIZE, "0");
+            LOG.log(Level.WARNING, "Properties value for \"libreOfficePoolSize\" was not set. Using a value of \"0\"");
+        }
+    }
+
+    /**
+     * Validates the "libreOfficePoolMaxUses" property in the provided Properties object.
+     * If the property is not set or is not a positive integer, it assigns a default value of "200" and logs a warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateLibreOfficePoolMaxUses(final Properties properties) {
+        final String libreOfficePoolMaxUses = properties.getProperty(KEY_PROPERTY_LIBRE_OFFICE_POOL_MAX_USES);
+        if (libreOfficePoolMaxUses == null || libreOfficePoolMaxUses.isEmpty() || !libreOfficePoolMaxUses.matches("[1-9]\\d*")) {
+            properties.setProperty(KEY_PROPERTY_LIBRE_OFFICE_POOL_MAX_USES, "200");
+            LOG.log(Level.WARNING, "Properties value for \"libreOfficePoolMaxUses\" was not set. Using a value of \"200\"");
+        }
+    }
+
     /**
      * Validates the "includeOfficePdf" property in the provided Properties object.
      * If the property is not set or is invalid, it assigns a default value of "false" and logs a warning.
@@ -144,4 +555,391 @@ public class BuildVuServletContextListener extends BaseServletContextListener {
             }
         }
     }
+
+    /**
+     * Validates the "zipOutputOnDemand" property in the provided Properties object.
+     * If the property is not set or is invalid, it assigns a default value of "false" and logs a warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateZipOutputOnDemand(final Properties properties) {
+        final String zipOutputOnDemand = properties.getProperty(KEY_PROPERTY_ZIP_OUTPUT_ON_DEMAND);
+        if (zipOutputOnDemand == null || zipOutputOnDemand.isEmpty() || !Boolean.parseBoolean(zipOutputOnDemand)) {
+            properties.setProperty(KEY_PROPERTY_ZIP_OUTPUT_ON_DEMAND, "false");
+            if (!"false".equalsIgnoreCase(zipOutputOnDemand)) {
+                final String message = String.format("Properties value for \"zipOutputOnDemand\" was set to \"%s\" " +
+                        "but should be a boolean. Using a value of false.", zipOutputOnDemand);
+                LOG.log(Level.WARNING, message);
+            }
+        }
+    }
+
+    /**
+     * Validates the "precompressOutput" property in the provided Properties object.
+     * If the property is not set or is invalid, it assigns a default value of "false" and logs a warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validatePrecompressOutput(final Properties properties) {
+        final String precompressOutput = properties.getProperty(KEY_PROPERTY_PRECOMPRESS_OUTPUT);
+        if (precompressOutput == null || precompressOutput.isEmpty() || !Boolean.parseBoolean(precompressOutput)) {
+            properties.setProperty(KEY_PROPERTY_PRECOMPRESS_OUTPUT, "false");
+            if (!"false".equalsIgnoreCase(precompressOutput)) {
+                final String message = String.format("Properties value for \"precompressOutput\" was set to \"%s\" " +
+                        "but should be a boolean. Using a value of false.", precompressOutput);
+                LOG.log(Level.WARNING, message);
+            }
+        }
+    }
+
+    /**
+     * Validates the "statusFlushInterval" property in the provided Properties object.
+     * If the property is not set or is not a non-negative integer, it assigns a default value of "0", which writes
+     * every status update immediately, and logs a warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateStatusFlushInterval(final Properties properties) {
+        final String statusFlushInterval = properties.getProperty(KEY_PROPERTY_STATUS_FLUSH_INTERVAL);
+        if (statusFlushInterval == null || statusFlushInterval.isEmpty() || !statusFlushInterval.matches("\\d+")) {
+            properties.setProperty(KEY_PROPERTY_STATUS_FLUSH_INTERVAL, "0");
+            LOG.log(Level.WARNING, "Properties value for \"statusFlushInterval\" was not set. Using a value of \"0\"");
+        }
+    }
+
+    /**
+     * Validates the "pageAvailabilityInterval" property in the provided Properties object.
+     * If the property is not set or is not a non-negative integer, it assigns a default value of "2000" and logs a
+     * warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validatePageAvailabilityInterval(final Properties properties) {
+        final String pageAvailabilityInterval = properties.getProperty(KEY_PROPERTY_PAGE_AVAILABILITY_INTERVAL);
+        if (pageAvailabilityInterval == null || pageAvailabilityInterval.isEmpty() || !pageAvailabilityInterval.matches("\\d+")) {
+            properties.setProperty(KEY_PROPERTY_PAGE_AVAILABILITY_INTERVAL, "2000");
+            LOG.log(Level.WARNING, "Properties value for \"pageAvailabilityInterval\" was not set. Using a value of \"2000\"");
+        }
+    }
+
+    /**
+     * Validates the "jobQueue" property in the provided Properties object.
+     * If the property is not set or is not one of "local" or "jdbc", it assigns a default value of "local" and logs a
+     * warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateJobQueue(final Properties properties) {
+        final String jobQueue = properties.getProperty(KEY_PROPERTY_JOB_QUEUE);
+        if (jobQueue == null || !jobQueue.matches("local|jdbc")) {
+            properties.setProperty(KEY_PROPERTY_JOB_QUEUE, "local");
+            LOG.log(Level.WARNING, "Properties value for \"jobQueue\" was not set. Using a value of \"local\"");
+        }
+    }
+
+    /**
+     * Validates the "jobQueueJdbcUrl" property in the provided Properties object.
+     * If the property is not set, it assigns an empty value, which uses the database named by databaseJNDIName.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateJobQueueJdbcUrl(final Properties properties) {
+        final String jobQueueJdbcUrl = properties.getProperty(KEY_PROPERTY_JOB_QUEUE_JDBC_URL);
+        properties.setProperty(KEY_PROPERTY_JOB_QUEUE_JDBC_URL, jobQueueJdbcUrl != null ? jobQueueJdbcUrl.trim() : "");
+    }
+
+    /**
+     * Validates the "jobQueueLease" property in the provided Properties object.
+     * If the property is not set or is not a positive integer, it assigns a default value of "60000" and logs a
+     * warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateJobQueueLease(final Properties properties) {
+        final String jobQueueLease = properties.getProperty(KEY_PROPERTY_JOB_QUEUE_LEASE);
+        if (jobQueueLease == null || jobQueueLease.isEmpty() || !jobQueueLease.matches("[1-9]\\d*")) {
+            properties.setProperty(KEY_PROPERTY_JOB_QUEUE_LEASE, "60000");
+            LOG.log(Level.WARNING, "Properties value for \"jobQueueLease\" was not set. Using a value of \"60000\"");
+        }
+    }
+
+    /**
+     * Validates the "jobQueueMaxAttempts" property in the provided Properties object.
+     * If the property is not set or is not a positive integer, it assigns a default value of "3" and logs a warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateJobQueueMaxAttempts(final Properties properties) {
+        final String jobQueueMaxAttempts = properties.getProperty(KEY_PROPERTY_JOB_QUEUE_MAX_ATTEMPTS);
+        if (jobQueueMaxAttempts == null || jobQueueMaxAttempts.isEmpty() || !jobQueueMaxAttempts.matches("[1-9]\\d*")) {
+            properties.setProperty(KEY_PROPERTY_JOB_QUEUE_MAX_ATTEMPTS, "3");
+            LOG.log(Level.WARNING, "Properties value for \"jobQueueMaxAttempts\" was not set. Using a value of \"3\"");
+        }
+    }
+
+    /**
+     * Validates the "uploadThreadCount" property in the provided Properties object.
+     * If the property is not set or is not a positive integer, it assigns a default value of "5" and logs a warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateUploadThreadCount(final Properties properties) {
+        final String uploadThreadCount = properties.getProperty(KEY_PROPERTY_UPLOAD_THREAD_COUNT);
+        if (uploadThreadCount == null || uploadThreadCount.isEmpty() || !uploadThreadCount.matches("[1-9]\\d*")) {
+            properties.setProperty(KEY_PROPERTY_UPLOAD_THREAD_COUNT, "5");
+            LOG.log(Level.WARNING, "Properties value for \"uploadThreadCount\" was not set. Using a value of \"5\"");
+        }
+    }
+
+    /**
+     * Validates the "uploadRetries" property in the provided Properties object.
+     * If the property is not set or is not a non-negative integer, it assigns a default value of "3" and logs a
+     * warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateUploadRetries(final Properties properties) {
+        final String uploadRetries = properties.getProperty(KEY_PROPERTY_UPLOAD_RETRIES);
+        if (uploadRetries == null || uploadRetries.isEmpty() || !uploadRetries.matches("\\d+")) {
+            properties.setProperty(KEY_PROPERTY_UPLOAD_RETRIES, "3");
+            LOG.log(Level.WARNING, "Properties value for \"uploadRetries\" was not set. Using a value of \"3\"");
+        }
+    }
+
+    /**
+     * Validates the "uploadRetryDelay" property in the provided Properties object.
+     * If the property is not set or is not a non-negative integer, it assigns a default value of "1000" and logs a
+     * warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateUploadRetryDelay(final Properties properties) {
+        final String uploadRetryDelay = properties.getProperty(KEY_PROPERTY_UPLOAD_RETRY_DELAY);
+        if (uploadRetryDelay == null || uploadRetryDelay.isEmpty() || !uploadRetryDelay.matches("\\d+")) {
+            properties.setProperty(KEY_PROPERTY_UPLOAD_RETRY_DELAY, "1000");
+            LOG.log(Level.WARNING, "Properties value for \"uploadRetryDelay\" was not set. Using a value of \"1000\"");
+        }
+    }
+
+    /**
+     * Validates the "workerPoolSize" property in the provided Properties object.
+     * If the property is not set or is not a non-negative integer, it assigns a default value of "0", which disables
+     * the worker pool, and logs a warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateWorkerPoolSize(final Properties properties) {
+        final String workerPoolSize = properties.getProperty(KEY_PROPERTY_WORKER_POOL_SIZE);
+        if (workerPoolSize == null || workerPoolSize.isEmpty() || !workerPoolSize.matches("\\d+")) {
+            properties.setProperty(KEY_PROPERTY_WORKER_POOL_SIZE, "0");
+            LOG.log(Level.WARNING, "Properties value for \"workerPoolSize\" was not set. Using a value of \"0\"");
+        }
+    }
+
+    /**
+     * Validates the "workerPoolMaxJobs" property in the provided Properties object.
+     * If the property is not set or is not a positive integer, it assigns a default value of "100" and logs a warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateWorkerPoolMaxJobs(final Properties properties) {
+        final String workerPoolMaxJobs = properties.getProperty(KEY_PROPERTY_WORKER_POOL_MAX_JOBS);
+        if (workerPoolMaxJobs == null || workerPoolMaxJobs.isEmpty() || !workerPoolMaxJobs.matches("[1-9]\\d*")) {
+            properties.setProperty(KEY_PROPERTY_WORKER_POOL_MAX_JOBS, "100");
+            LOG.log(Level.WARNING, "Properties value for \"workerPoolMaxJobs\" was not set. Using a value of \"100\"");
+        }
+    }
+
+    /**
+     * Validates the "shardPageThreshold" property in the provided Properties object.
+     * If the property is not set or is not a non-negative integer, it assigns a default value of "0", which disables
+     * page range sharding, and logs a warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateShardPageThreshold(final Properties properties) {
+        final String shardPageThreshold = properties.getProperty(KEY_PROPERTY_SHARD_PAGE_THRESHOLD);
+        if (shardPageThreshold == null || shardPageThreshold.isEmpty() || !shardPageThreshold.matches("\\d+")) {
+            properties.setProperty(KEY_PROPERTY_SHARD_PAGE_THRESHOLD, "0");
+            LOG.log(Level.WARNING, "Properties value for \"shardPageThreshold\" was not set. Using a value of \"0\"");
+        }
+    }
+
+    /**
+     * Validates the "adaptiveConversionMemory" property in the provided Properties object.
+     * If the property is not set or is invalid, it assigns a default value of "false" and logs a warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateAdaptiveConversionMemory(final Properties properties) {
+        final String adaptiveConversionMemory = properties.getProperty(KEY_PROPERTY_ADAPTIVE_CONVERSION_MEMORY);
+        if (adaptiveConversionMemory == null || adaptiveConversionMemory.isEmpty() || !Boolean.parseBoolean(adaptiveConversionMemory)) {
+            properties.setProperty(KEY_PROPERTY_ADAPTIVE_CONVERSION_MEMORY, "false");
+            if (!"false".equalsIgnoreCase(adaptiveConversionMemory)) {
+                final String message = String.format("Properties value for \"adaptiveConversionMemory\" was set to \"%s\" " +
+                        "but should be a boolean. Using a value of false.", adaptiveConversionMemory);
+                LOG.log(Level.WARNING, message);
+            }
+        }
+    }
+
+    /**
+     * Validates the "conversionMemoryBudget" property in the provided Properties object.
+     * If the property is not set or is not a non-negative integer, it assigns a default value of "0", which limits
+     * conversions by conversionThreadCount alone, and logs a warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateConversionMemoryBudget(final Properties properties) {
+        final String conversionMemoryBudget = properties.getProperty(KEY_PROPERTY_CONVERSION_MEMORY_BUDGET);
+        if (conversionMemoryBudget == null || conversionMemoryBudget.isEmpty() || !conversionMemoryBudget.matches("\\d+")) {
+            properties.setProperty(KEY_PROPERTY_CONVERSION_MEMORY_BUDGET, "0");
+            LOG.log(Level.WARNING, "Properties value for \"conversionMemoryBudget\" was not set. Using a value of \"0\"");
+        }
+    }
+
+    /**
+     * Validates the "resultCacheSize" property in the provided Properties object.
+     * If the property is not set or is not a non-negative integer, it assigns a default value of "0", which disables
+     * the conversion result cache, and logs a warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateResultCacheSize(final Properties properties) {
+        final String resultCacheSize = properties.getProperty(KEY_PROPERTY_RESULT_CACHE_SIZE);
+        if (resultCacheSize == null || resultCacheSize.isEmpty() || !resultCacheSize.matches("\\d+")) {
+            properties.setProperty(KEY_PROPERTY_RESULT_CACHE_SIZE, "0");
+            LOG.log(Level.WARNING, "Properties value for \"resultCacheSize\" was not set. Using a value of \"0\"");
+        }
+    }
+
+    /**
+     * Validates the "resultCachePath" property in the provided Properties object.
+     * If the property is not set, it assigns a default value of "~/.idr/buildvu-microservice/cache/" and logs a
+     * warning. A leading "~" is replaced with the user's home directory.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateResultCachePath(final Properties properties) {
+        String resultCachePath = properties.getProperty(KEY_PROPERTY_RESULT_CACHE_PATH);
+        if (resultCachePath == null || resultCachePath.isEmpty()) {
+            resultCachePath = "~/.idr/buildvu-microservice/cache/";
+            LOG.log(Level.WARNING, "Properties value for \"resultCachePath\" was not set. Using a value of \"" + resultCachePath + "\"");
+        }
+        if (resultCachePath.startsWith("~")) {
+            resultCachePath = System.getProperty("user.home") + resultCachePath.substring(1);
+        }
+        properties.setProperty(KEY_PROPERTY_RESULT_CACHE_PATH, resultCachePath);
+    }
+
+    /**
+     * Validates the "sharedAssets" property in the provided Properties object.
+     * If the property is not set or is invalid, it assigns a default value of "false" and logs a warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateSharedAssets(final Properties properties) {
+        final String sharedAssets = properties.getProperty(KEY_PROPERTY_SHARED_ASSETS);
+        if (sharedAssets == null || sharedAssets.isEmpty() || !Boolean.parseBoolean(sharedAssets)) {
+            properties.setProperty(KEY_PROPERTY_SHARED_ASSETS, "false");
+            if (!"false".equalsIgnoreCase(sharedAssets)) {
+                final String message = String.format("Properties value for \"sharedAssets\" was set to \"%s\" " +
+                        "but should be a boolean. Using a value of false.", sharedAssets);
+                LOG.log(Level.WARNING, message);
+            }
+        }
+    }
+
+    /**
+     * Validates the "sharedAssetsPath" property in the provided Properties object.
+     * If the property is not set, it assigns a default value of "~/.idr/buildvu-microservice/assets/" and logs a
+     * warning. A leading "~" is replaced with the user's home directory.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateSharedAssetsPath(final Properties properties) {
+        String sharedAssetsPath = properties.getProperty(KEY_PROPERTY_SHARED_ASSETS_PATH);
+        if (sharedAssetsPath == null || sharedAssetsPath.isEmpty()) {
+            sharedAssetsPath = "~/.idr/buildvu-microservice/assets/";
+            LOG.log(Level.WARNING, "Properties value for \"sharedAssetsPath\" was not set. Using a value of \"" + sharedAssetsPath + "\"");
+        }
+        if (sharedAssetsPath.startsWith("~")) {
+            sharedAssetsPath = System.getProperty("user.home") + sharedAssetsPath.substring(1);
+        }
+        properties.setProperty(KEY_PROPERTY_SHARED_ASSETS_PATH, sharedAssetsPath);
+    }
+
+    /**
+     * Validates the "schedulerPolicy" property in the provided Properties object.
+     * If the property is not set or is not one of "fifo", "sjf", "lanes" or "fair", it assigns a default value of
+     * "fifo" and logs a warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateSchedulerPolicy(final Properties properties) {
+        final String schedulerPolicy = properties.getProperty(KEY_PROPERTY_SCHEDULER_POLICY);
+        if (schedulerPolicy == null || !schedulerPolicy.matches("fifo|sjf|lanes|fair")) {
+            properties.setProperty(KEY_PROPERTY_SCHEDULER_POLICY, "fifo");
+            LOG.log(Level.WARNING, "Properties value for \"schedulerPolicy\" was not set. Using a value of \"fifo\"");
+        }
+    }
+
+    /**
+     * Validates the "schedulerWindow" property in the provided Properties object.
+     * If the property is not set or is not a non-negative integer, it assigns a default value of "0", which keeps the
+     * window at conversionThreadCount, and logs a warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateSchedulerWindow(final Properties properties) {
+        final String schedulerWindow = properties.getProperty(KEY_PROPERTY_SCHEDULER_WINDOW);
+        if (schedulerWindow == null || schedulerWindow.isEmpty() || !schedulerWindow.matches("\\d+")) {
+            properties.setProperty(KEY_PROPERTY_SCHEDULER_WINDOW, "0");
+            LOG.log(Level.WARNING, "Properties value for \"schedulerWindow\" was not set. Using a value of \"0\"");
+        }
+    }
+
+    /**
+     * Validates the "schedulerAgingRate" property in the provided Properties object.
+     * If the property is not set or is not a non-negative number, it assigns a default value of "10" and logs a
+     * warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateSchedulerAgingRate(final Properties properties) {
+        final String schedulerAgingRate = properties.getProperty(KEY_PROPERTY_SCHEDULER_AGING_RATE);
+        if (schedulerAgingRate == null || schedulerAgingRate.isEmpty() || !schedulerAgingRate.matches("\\d+(\\.\\d+)?")) {
+            properties.setProperty(KEY_PROPERTY_SCHEDULER_AGING_RATE, "10");
+            LOG.log(Level.WARNING, "Properties value for \"schedulerAgingRate\" was not set. Using a value of \"10\"");
+        }
+    }
+
+    /**
+     * Validates the "schedulerLargeJobPages" property in the provided Properties object.
+     * If the property is not set or is not a positive integer, it assigns a default value of "100" and logs a warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateSchedulerLargeJobPages(final Properties properties) {
+        final String schedulerLargeJobPages = properties.getProperty(KEY_PROPERTY_SCHEDULER_LARGE_JOB_PAGES);
+        if (schedulerLargeJobPages == null || schedulerLargeJobPages.isEmpty() || !schedulerLargeJobPages.matches("[1-9]\\d*")) {
+            properties.setProperty(KEY_PROPERTY_SCHEDULER_LARGE_JOB_PAGES, "100");
+            LOG.log(Level.WARNING, "Properties value for \"schedulerLargeJobPages\" was not set. Using a value of \"100\"");
+        }
+    }
+
+    /**
+     * Validates the "schedulerLargeJobSlots" property in the provided Properties object.
+     * If the property is not set or is not a non-negative integer, it assigns a default value of "0", which allows
+     * large jobs half of the slots, and logs a warning.
+     *
+     * @param properties the Properties object containing configuration properties to be validated
+     */
+    private static void validateSchedulerLargeJobSlots(final Properties properties) {
+        final String schedulerLargeJobSlots = properties.getProperty(KEY_PROPERTY_SCHEDULER_LARGE_JOB_SLOTS);
+        if (schedulerLargeJobSlots == null || schedulerLargeJobSlots.isEmpty() || !schedulerLargeJobSlots.matches("\\d+")) {
+            properties.setProperty(KEY_PROPERTY_SCHEDULER_LARGE_JOB_SLOTS, "0");
+            LOG.log(Level.WARNING, "Properties value for \"schedulerLargeJobSlots\" was not set. Using a value of \"0\"");
+        }
+    }
 }
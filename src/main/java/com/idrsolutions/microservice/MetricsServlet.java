@@ -0,0 +1,45 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice;
+
+import com.idrsolutions.microservice.metrics.ConversionMetrics;
+import com.idrsolutions.microservice.scheduler.ConversionScheduler;
+
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Exposes the conversion pipeline metrics in the Prometheus text format for
+ * scraping.
+ */
+@WebServlet(name = "metrics", urlPatterns = "/metrics")
+public class MetricsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        final ConversionScheduler scheduler = (ConversionScheduler) getServletContext().getAttribute(BuildVuServletContextListener.KEY_CONVERSION_SCHEDULER);
+
+        response.setContentType("text/plain; version=0.0.4");
+        response.setCharacterEncoding("UTF-8");
+        ConversionMetrics.getInstance().write(response.getWriter(), scheduler.getStats());
+    }
+}
@@ -18,13 +18,49 @@
  */
 package com.idrsolutions.microservice;
 
+import com.idrsolutions.microservice.db.DBHandler;
+import com.idrsolutions.microservice.output.OutputCompressor;
 import com.idrsolutions.microservice.utils.DefaultFileServlet;
 
+import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 @WebServlet("/output/*")
 public class OutputFileServlet extends DefaultFileServlet {
 
+    private static final Logger LOG = Logger.getLogger(OutputFileServlet.class.getName());
+
+    private static final Pattern ZIP_PATH = Pattern.compile("^/([A-Za-z0-9-]+)\\.zip$");
+
+    private static final Pattern BYTE_RANGE = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+
+    /** The buffer size used to copy files to the response when sendfile is not available. */
+    private static final int COPY_BUFFER_SIZE = 65536;
+
     private static String basePath;
 
     public static void setBasePath(final String basePathParam) {
@@ -35,4 +71,230 @@ public class OutputFileServlet extends DefaultFileServlet {
     protected String getBasePath() {
         return basePath;
     }
+
+    /**
+     * Serves the requested output file. When zipOutputOnDemand is enabled the
+     * zip of a finished conversion does not exist on disk, so it is built from
+     * the output directory and streamed straight to the response instead,
+     * except for a HEAD request, which is sent only the headers.
+     * <p>
+     * Files are served with a strong ETag and answer If-None-Match with a 304.
+     * Single byte range requests are supported, and a precompressed .gz copy of
+     * the file is sent instead when the client accepts gzip. The file content is
+     * handed to Tomcat's sendfile where available, which sends it without
+     * copying it through the JVM. Otherwise it is copied to the response
+     * stream through a buffer, as the servlet API gives no access to the
+     * underlying socket.
+     *
+     * @param request the request for the file
+     * @param response the response to write the file to
+     * @throws ServletException if the request cannot be handled
+     * @throws IOException if the file cannot be read or written to the response
+     */
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws ServletException, IOException {
+        final String pathInfo = request.getPathInfo();
+        final Matcher zipPath = pathInfo != null ? ZIP_PATH.matcher(pathInfo) : null;
+
+        if (zipPath != null && zipPath.matches()) {
+            final String uuid = zipPath.group(1);
+            final File outputDir = new File(basePath, uuid);
+            if (!new File(basePath, uuid + ".zip").exists() && outputDir.isDirectory() && isConverted(uuid)) {
+                response.setContentType("application/zip");
+                response.setHeader("Content-Disposition", "attachment; filename=\"" + uuid + ".zip\"");
+                // The zip length is unknown until it is built, so HEAD is answered with the headers alone
+                if (!"HEAD".equals(request.getMethod())) {
+                    streamZip(outputDir.toPath(), response);
+                }
+                return;
+            }
+        }
+
+        final Path file = resolveFile(pathInfo);
+        if (file == null || !Files.isRegularFile(file)) {
+            super.doGet(request, response);
+            return;
+        }
+
+        serveFile(request, response, file);
+    }
+
+    private static Path resolveFile(final String pathInfo) {
+        if (pathInfo == null || basePath == null) {
+            return null;
+        }
+        final Path base = Paths.get(basePath).toAbsolutePath().normalize();
+        final Path file = base.resolve(pathInfo.substring(1)).normalize();
+        return file.startsWith(base) ? file : null;
+    }
+
+    private void serveFile(final HttpServletRequest request, final HttpServletResponse response, final Path file) throws IOException {
+        final String contentType = getServletContext().getMimeType(file.getFileName().toString());
+
+        Path served = file;
+        boolean compressed = false;
+        if (acceptsGzip(request)) {
+            final Path gzipFile = file.resolveSibling(file.getFileName() + OutputCompressor.GZIP_SUFFIX);
+            if (Files.isRegularFile(gzipFile)) {
+                served = gzipFile;
+                compressed = true;
+            }
+        }
+
+        final BasicFileAttributes attributes = Files.readAttributes(served, BasicFileAttributes.class);
+        final long length = attributes.size();
+        final long lastModified = attributes.lastModifiedTime().toMillis();
+        // Output files are not changed once written, so size and modification time identify the content
+        final String etag = '"' + Long.toHexString(length) + '-' + Long.toHexString(lastModified) + (compressed ? "-gz" : "") + '"';
+
+        response.setHeader("ETag", etag);
+        response.setDateHeader("Last-Modified", lastModified);
+        response.setHeader("Cache-Control", "no-cache");
+        response.setHeader("Vary", "Accept-Encoding");
+        if (!compressed) {
+            response.setHeader("Accept-Ranges", "bytes");
+        }
+
+        if (matchesIfNoneMatch(request.getHeader("If-None-Match"), etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        if (contentType != null) {
+            response.setContentType(contentType);
+        }
+        if (compressed) {
+            response.setHeader("Content-Encoding", "gzip");
+        }
+
+        long start = 0;
+        long end = length - 1;
+        final String range = request.getHeader("Range");
+        if (range != null && !compressed && isIfRangeSatisfied(request, etag, lastModified)) {
+            final Matcher rangeMatcher = BYTE_RANGE.matcher(range.trim());
+            // Multiple ranges are not supported, those requests are sent the whole file
+            if (rangeMatcher.matches() && !(rangeMatcher.group(1).isEmpty() && rangeMatcher.group(2).isEmpty())) {
+                final String first = rangeMatcher.group(1);
+                final String last = rangeMatcher.group(2);
+                try {
+                    if (first.isEmpty()) {
+                        start = Math.max(0, length - Long.parseLong(last));
+                    } else {
+                        start = Long.parseLong(first);
+                        if (!last.isEmpty()) {
+                            end = Math.min(end, Long.parseLong(last));
+                        }
+                    }
+                } catch (final NumberFormatException e) {
+                    start = length;
+                }
+
+                if (start >= length || start > end) {
+                    response.setHeader("Content-Range", "bytes */" + length);
+                    response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + start + '-' + end + '/' + length);
+            }
+        }
+
+        final long count = end - start + 1;
+        response.setContentLengthLong(count);
+        if ("HEAD".equals(request.getMethod()) || count <= 0) {
+            return;
+        }
+
+        if (Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute("org.apache.tomcat.sendfile.filename", served.toAbsolutePath().toString());
+            request.setAttribute("org.apache.tomcat.sendfile.start", start);
+            request.setAttribute("org.apache.tomcat.sendfile.end", end + 1);
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(served, StandardOpenOption.READ)) {
+            final OutputStream out = response.getOutputStream();
+            final ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+            long position = start;
+            long remaining = count;
+            while (remaining > 0) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), remaining));
+                final int read = channel.read(buffer, position);
+                if (read <= 0) {
+                    break;
+                }
+                out.write(buffer.array(), 0, read);
+                position += read;
+                remaining -= read;
+            }
+        }
+    }
+
+    private static boolean acceptsGzip(final HttpServletRequest request) {
+        final String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (final String encoding : acceptEncoding.split(",")) {
+            final String[] parts = encoding.trim().split(";");
+            if ("gzip".equalsIgnoreCase(parts[0].trim())) {
+                return parts.length == 1 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    private static boolean matchesIfNoneMatch(final String ifNoneMatch, final String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (final String tag : ifNoneMatch.split(",")) {
+            final String trimmed = tag.trim();
+            if ("*".equals(trimmed) || etag.equals(trimmed.startsWith("W/") ? trimmed.substring(2) : trimmed)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isIfRangeSatisfied(final HttpServletRequest request, final String etag, final long lastModified) {
+        final String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.trim().startsWith("\"")) {
+            return etag.equals(ifRange.trim());
+        }
+        try {
+            return lastModified / 1000 <= request.getDateHeader("If-Range") / 1000;
+        } catch (final IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static boolean isConverted(final String uuid) {
+        try {
+            final Map<String, String> customData = DBHandler.getInstance().getCustomData(uuid);
+            return customData != null && customData.containsKey("downloadUrl");
+        } catch (final Exception e) {
+            LOG.log(Level.WARNING, "Unable to read conversion state for " + uuid, e);
+            return false;
+        }
+    }
+
+    private static void streamZip(final Path outputDir, final HttpServletResponse response) throws IOException {
+        final List<Path> files;
+        try (Stream<Path> paths = Files.walk(outputDir)) {
+            files = paths.filter(Files::isRegularFile).filter(file -> !OutputCompressor.isCompressedCopy(file))
+                    .sorted().collect(Collectors.toList());
+        }
+
+        try (ZipOutputStream zip = new ZipOutputStream(response.getOutputStream())) {
+            for (final Path file : files) {
+                zip.putNextEntry(new ZipEntry(outputDir.relativize(file).toString().replace(File.separatorChar, '/')));
+                Files.copy(file, zip);
+                zip.closeEntry();
+            }
+        }
+    }
 }
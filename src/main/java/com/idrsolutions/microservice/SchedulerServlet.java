@@ -0,0 +1,58 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice;
+
+import com.idrsolutions.microservice.scheduler.ConversionScheduler;
+import com.idrsolutions.microservice.scheduler.SchedulerStats;
+
+import javax.json.Json;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * Reports the queue depth and wait times of the conversion scheduler as JSON,
+ * for use when tuning the scheduler configuration.
+ */
+@WebServlet(name = "scheduler", urlPatterns = "/scheduler")
+public class SchedulerServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        final ConversionScheduler scheduler = (ConversionScheduler) getServletContext().getAttribute(BuildVuServletContextListener.KEY_CONVERSION_SCHEDULER);
+        final SchedulerStats stats = scheduler.getStats();
+
+        response.setContentType("application/json");
+        response.setCharacterEncoding("UTF-8");
+        response.getWriter().write(Json.createObjectBuilder()
+                .add("policy", stats.getPolicy())
+                .add("slots", stats.getSlots())
+                .add("memoryBudget", stats.getMemoryBudget())
+                .add("reservedMemory", stats.getReservedMemory())
+                .add("queueDepth", stats.getQueueDepth())
+                .add("running", stats.getRunning())
+                .add("admitted", stats.getAdmittedCount())
+                .add("averageWaitTime", stats.getAverageWaitTime())
+                .add("maxWaitTime", stats.getMaxWaitTime())
+                .add("oldestWaitTime", stats.getOldestWaitTime())
+                .build().toString());
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice;
+
+import com.idrsolutions.microservice.status.StatusWatcher;
+
+import javax.json.Json;
+import javax.json.JsonObjectBuilder;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends the status of a conversion when it changes, instead of clients
+ * polling GET /buildvu.
+ * <p>
+ * Clients that accept text/event-stream are sent a server-sent event each
+ * time the state, pagesConverted or pagesReady changes, until the conversion
+ * is processed or fails. Other clients are answered as a long poll: the
+ * status is returned once it differs from the version the client last saw,
+ * or unchanged after {@value #LONG_POLL_TIMEOUT}ms. Versions are derived from
+ * the status content, so a status the client has already seen is never sent
+ * again as a change.
+ * <p>
+ * Waiting requests use asynchronous servlet processing, so they do not hold
+ * a container thread, and are woken by the {@link StatusWatcher} rather than
+ * by reading the database.
+ */
+@WebServlet(name = "statusEvents", urlPatterns = "/buildvu/events", asyncSupported = true)
+public class StatusEventsServlet extends HttpServlet {
+
+    private static final Logger LOG = Logger.getLogger(StatusEventsServlet.class.getName());
+
+    /** How long in milliseconds a long poll waits for a change before returning the unchanged status. */
+    private static final long LONG_POLL_TIMEOUT = 30000;
+
+    @Override
+    protected void doGet(final HttpServletRequest request, final HttpServletResponse response) throws IOException {
+        final String uuid = request.getParameter("uuid");
+        if (uuid == null || uuid.isEmpty()) {
+            BaseServlet.doError(request, response, "No uuid provided", 404);
+            return;
+        }
+
+        final String accept = request.getHeader("Accept");
+        final boolean eventStream = accept != null && accept.contains("text/event-stream");
+        // Reconnecting event streams send the id of the last event they received
+        final String lastEventId = request.getHeader("Last-Event-ID");
+        final long lastVersion = parseVersion(eventStream && lastEventId != null ? lastEventId : request.getParameter("version"));
+
+        final StatusWatcher statusWatcher = (StatusWatcher) getServletContext().getAttribute(BuildVuServletContextListener.KEY_STATUS_WATCHER);
+        final AsyncContext asyncContext = request.startAsync();
+        asyncContext.setTimeout(eventStream ? 0 : LONG_POLL_TIMEOUT);
+        final StatusStream statusStream = new StatusStream(statusWatcher, asyncContext, uuid, eventStream, lastVersion);
+        asyncContext.addListener(statusStream);
+
+        if (eventStream) {
+            response.setContentType("text/event-stream");
+            response.setCharacterEncoding("UTF-8");
+            response.setHeader("Cache-Control", "no-cache");
+            // Stops reverse proxies such as nginx from holding events back
+            response.setHeader("X-Accel-Buffering", "no");
+        }
+
+        final StatusWatcher.StatusSnapshot snapshot;
+        try {
+            snapshot = statusWatcher.subscribe(uuid, statusStream);
+        } catch (final SQLException e) {
+            LOG.log(Level.SEVERE, "Unable to read the status of " + uuid, e);
+            BaseServlet.doError(request, response, "Database failure", 500);
+            asyncContext.complete();
+            return;
+        }
+        if (snapshot == null) {
+            BaseServlet.doError(request, response, "Unknown uuid " + uuid, 404);
+            asyncContext.complete();
+            return;
+        }
+
+        if (eventStream) {
+            if (snapshot.isFinished() && lastEventId != null) {
+                // Event streams reconnect after the final event unless closed by the client, 204 stops them
+                response.setStatus(HttpServletResponse.SC_NO_CONTENT);
+                statusStream.complete();
+                return;
+            }
+            response.flushBuffer();
+        }
+        statusStream.statusChanged(snapshot);
+    }
+
+    private static long parseVersion(final String version) {
+        if (version == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(version.trim());
+        } catch (final NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String toJson(final Map<String, String> values) {
+        final JsonObjectBuilder status = Json.createObjectBuilder();
+        values.forEach((key, value) -> {
+            if (value == null) {
+                return;
+            }
+            if ("errorCode".equals(key) && value.matches("-?\\d+")) {
+                status.add(key, Integer.parseInt(value));
+            } else {
+                status.add(key, value);
+            }
+        });
+        return status.build().toString();
+    }
+
+    /**
+     * Writes the status of one conversion to one waiting client. Changes are
+     * written on a container thread, and changes made while a write is waiting
+     * are combined into it.
+     */
+    private static final class StatusStream implements StatusWatcher.Subscriber, AsyncListener {
+
+        private final StatusWatcher statusWatcher;
+        private final AsyncContext asyncContext;
+        private final String uuid;
+        private final boolean eventStream;
+        private final AtomicBoolean sendScheduled = new AtomicBoolean();
+
+        private volatile StatusWatcher.StatusSnapshot latest;
+        private long sentVersion;
+        private boolean completed;
+
+        private StatusStream(final StatusWatcher statusWatcher, final AsyncContext asyncContext, final String uuid,
+                             final boolean eventStream, final long sentVersion) {
+            this.statusWatcher = statusWatcher;
+            this.asyncContext = asyncContext;
+            this.uuid = uuid;
+            this.eventStream = eventStream;
+            this.sentVersion = sentVersion;
+        }
+
+        @Override
+        public void statusChanged(final StatusWatcher.StatusSnapshot snapshot) {
+            latest = snapshot;
+            if (sendScheduled.compareAndSet(false, true)) {
+                start(this::send);
+            }
+        }
+
+        @Override
+        public void keepAlive() {
+            if (eventStream) {
+                start(() -> write(":\n\n"));
+            }
+        }
+
+        private void start(final Runnable task) {
+            try {
+                asyncContext.start(task);
+            } catch (final IllegalStateException e) {
+                // The request has already completed
+                statusWatcher.unsubscribe(uuid, this);
+            }
+        }
+
+        private synchronized void send() {
+            sendScheduled.set(false);
+            final StatusWatcher.StatusSnapshot snapshot = latest;
+            if (completed || snapshot.getVersion() == sentVersion && !snapshot.isFinished()) {
+                return;
+            }
+            sentVersion = snapshot.getVersion();
+
+            if (eventStream) {
+                write("id: " + snapshot.getVersion() + "\nevent: status\ndata: " + toJson(snapshot.getValues()) + "\n\n");
+                if (snapshot.isFinished()) {
+                    complete();
+                }
+            } else {
+                respond(snapshot);
+            }
+        }
+
+        private synchronized void respond(final StatusWatcher.StatusSnapshot snapshot) {
+            if (completed) {
+                return;
+            }
+            final HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+            response.setContentType("application/json");
+            response.setCharacterEncoding("UTF-8");
+            response.setHeader("X-Status-Version", String.valueOf(snapshot.getVersion()));
+            try {
+                response.getWriter().write(toJson(snapshot.getValues()));
+            } catch (final IOException e) {
+                LOG.log(Level.FINE, "Unable to send the status of " + uuid, e);
+            }
+            complete();
+        }
+
+        private synchronized void write(final String text) {
+            if (completed) {
+                return;
+            }
+            try {
+                final PrintWriter writer = asyncContext.getResponse().getWriter();
+                writer.write(text);
+                writer.flush();
+                if (writer.checkError()) {
+                    complete();
+                }
+            } catch (final IOException e) {
+                complete();
+            }
+        }
+
+        private synchronized void complete() {
+            if (!completed) {
+                completed = true;
+                statusWatcher.unsubscribe(uuid, this);
+                asyncContext.complete();
+            }
+        }
+
+        @Override
+        public void onTimeout(final AsyncEvent event) {
+            // Only long polls time out, they are answered with the unchanged status
+            final StatusWatcher.StatusSnapshot snapshot = latest;
+            if (snapshot != null) {
+                respond(snapshot);
+            } else {
+                complete();
+            }
+        }
+
+        @Override
+        public synchronized void onComplete(final AsyncEvent event) {
+            completed = true;
+            statusWatcher.unsubscribe(uuid, this);
+        }
+
+        @Override
+        public synchronized void onError(final AsyncEvent event) {
+            completed = true;
+            statusWatcher.unsubscribe(uuid, this);
+        }
+
+        @Override
+        public void onStartAsync(final AsyncEvent event) {
+        }
+    }
+}
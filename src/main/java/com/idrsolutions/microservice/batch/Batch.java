@@ -0,0 +1,112 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.batch;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A group of documents submitted together with the same settings. Each
+ * document is converted as its own conversion, the batch only tracks them.
+ */
+public final class Batch {
+
+    private final String id;
+    private final String callbackUrl;
+    private final List<Document> documents = Collections.synchronizedList(new ArrayList<>());
+
+    private volatile boolean submitted;
+    private volatile long completedTime;
+
+    Batch(final String id, final String callbackUrl) {
+        this.id = id;
+        this.callbackUrl = callbackUrl;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    String getCallbackUrl() {
+        return callbackUrl;
+    }
+
+    /**
+     * Adds a document that was accepted as a conversion.
+     *
+     * @param uuid the uuid of the conversion
+     * @param fileName the name of the uploaded file or the url it is downloaded from
+     */
+    public void addDocument(final String uuid, final String fileName) {
+        documents.add(new Document(uuid, fileName, null));
+    }
+
+    /**
+     * Adds a document that was rejected when it was submitted, which counts
+     * as a document in the error state.
+     *
+     * @param fileName the name of the uploaded file or the url it is downloaded from
+     * @param error the reason the document was rejected
+     */
+    public void addRejectedDocument(final String fileName, final String error) {
+        documents.add(new Document(null, fileName, error));
+    }
+
+    List<Document> getDocuments() {
+        synchronized (documents) {
+            return new ArrayList<>(documents);
+        }
+    }
+
+    boolean isSubmitted() {
+        return submitted;
+    }
+
+    void setSubmitted() {
+        submitted = true;
+    }
+
+    boolean isComplete() {
+        return completedTime != 0;
+    }
+
+    long getCompletedTime() {
+        return completedTime;
+    }
+
+    void setCompleted() {
+        completedTime = System.currentTimeMillis();
+    }
+
+    static final class Document {
+
+        final String uuid;
+        final String fileName;
+        final String rejection;
+        volatile boolean finished;
+
+        private Document(final String uuid, final String fileName, final String rejection) {
+            this.uuid = uuid;
+            this.fileName = fileName;
+            this.rejection = rejection;
+            finished = rejection != null;
+        }
+    }
+}
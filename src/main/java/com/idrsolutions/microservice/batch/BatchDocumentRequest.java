@@ -0,0 +1,177 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.batch;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.Part;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Presents one document of a batch request as a single conversion request,
+ * so that it can be submitted the same way as a request to /buildvu.
+ * <p>
+ * Only the input type and the document's file or url are visible as
+ * parameters. The batch settings have already been validated and are carried
+ * with the request instead of the settings parameter. Request attributes are
+ * kept separately for each document.
+ */
+public class BatchDocumentRequest extends HttpServletRequestWrapper {
+
+    private final Map<String, String[]> parameters = new HashMap<>();
+    private final Map<String, Object> attributes = new HashMap<>();
+    private final Part file;
+    private final Map<String, String> settings;
+    private final String servletPath;
+
+    private BatchDocumentRequest(final HttpServletRequest request, final Part file, final String url,
+                                 final Map<String, String> settings, final String servletPath) {
+        super(request);
+        this.file = file;
+        this.settings = settings;
+        this.servletPath = servletPath;
+        parameters.put("input", new String[] {file != null ? "upload" : "download"});
+        if (url != null) {
+            parameters.put("url", new String[] {url});
+        }
+    }
+
+    /**
+     * Creates the request for an uploaded document.
+     *
+     * @param request the batch request
+     * @param file the uploaded file
+     * @param settings the validated settings of the batch
+     * @param servletPath the path of the conversion servlet
+     * @return the request for the document
+     */
+    public static BatchDocumentRequest forUpload(final HttpServletRequest request, final Part file,
+                                                 final Map<String, String> settings, final String servletPath) {
+        return new BatchDocumentRequest(request, file, null, settings, servletPath);
+    }
+
+    /**
+     * Creates the request for a document to be downloaded.
+     *
+     * @param request the batch request
+     * @param url the url to download the document from
+     * @param settings the validated settings of the batch
+     * @param servletPath the path of the conversion servlet
+     * @return the request for the document
+     */
+    public static BatchDocumentRequest forDownload(final HttpServletRequest request, final String url,
+                                                   final Map<String, String> settings, final String servletPath) {
+        return new BatchDocumentRequest(request, null, url, settings, servletPath);
+    }
+
+    /**
+     * @return a copy of the validated settings of the batch
+     */
+    public Map<String, String> getSettings() {
+        return new HashMap<>(settings);
+    }
+
+    @Override
+    public String getParameter(final String name) {
+        final String[] values = parameters.get(name);
+        return values != null ? values[0] : null;
+    }
+
+    @Override
+    public String[] getParameterValues(final String name) {
+        final String[] values = parameters.get(name);
+        return values != null ? values.clone() : null;
+    }
+
+    @Override
+    public Map<String, String[]> getParameterMap() {
+        return Collections.unmodifiableMap(parameters);
+    }
+
+    @Override
+    public Enumeration<String> getParameterNames() {
+        return Collections.enumeration(parameters.keySet());
+    }
+
+    @Override
+    public Part getPart(final String name) {
+        return "file".equals(name) ? file : null;
+    }
+
+    @Override
+    public Collection<Part> getParts() {
+        return file != null ? Collections.singletonList(file) : Collections.emptyList();
+    }
+
+    @Override
+    public String getServletPath() {
+        return servletPath;
+    }
+
+    @Override
+    public String getPathInfo() {
+        return null;
+    }
+
+    @Override
+    public String getRequestURI() {
+        return getContextPath() + servletPath;
+    }
+
+    @Override
+    public StringBuffer getRequestURL() {
+        final StringBuffer url = super.getRequestURL();
+        url.setLength(url.length() - super.getRequestURI().length());
+        return url.append(getRequestURI());
+    }
+
+    @Override
+    public Object getAttribute(final String name) {
+        return attributes.containsKey(name) ? attributes.get(name) : super.getAttribute(name);
+    }
+
+    @Override
+    public Enumeration<String> getAttributeNames() {
+        final Set<String> names = new HashSet<>(Collections.list(super.getAttributeNames()));
+        attributes.forEach((name, value) -> {
+            if (value != null) {
+                names.add(name);
+            } else {
+                names.remove(name);
+            }
+        });
+        return Collections.enumeration(names);
+    }
+
+    @Override
+    public void setAttribute(final String name, final Object value) {
+        attributes.put(name, value);
+    }
+
+    @Override
+    public void removeAttribute(final String name) {
+        attributes.put(name, null);
+    }
+}
@@ -0,0 +1,244 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.batch;
+
+import com.idrsolutions.microservice.db.DBHandler;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps track of submitted batches and sends the callback of each batch once
+ * all of its documents have been processed or have failed.
+ * <p>
+ * Batches are held in memory by the instance they were submitted to, the
+ * conversions they contain are read from the database. A batch is forgotten
+ * individualTTL milliseconds after it completes.
+ */
+public class BatchRegistry {
+
+    private static final Logger LOG = Logger.getLogger(BatchRegistry.class.getName());
+
+    /** The interval in milliseconds between checks for finished documents in unfinished batches. */
+    private static final long CHECK_INTERVAL = 2000;
+
+    private static final int CALLBACK_ATTEMPTS = 3;
+    private static final long CALLBACK_RETRY_DELAY = 5000;
+
+    private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+    private final long ttl;
+    private final HttpClient httpClient = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(30)).build();
+    private final ScheduledExecutorService checkService = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "buildvu-batch-check");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param ttl the time in milliseconds a completed batch is kept for
+     */
+    public BatchRegistry(final long ttl) {
+        this.ttl = ttl;
+        checkService.scheduleWithFixedDelay(this::checkAll, CHECK_INTERVAL, CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates an empty batch. Its documents are added as they are submitted,
+     * then {@link #submitted(Batch)} is called to start tracking it.
+     *
+     * @param callbackUrl the url to send the batch status to once the batch completes, or null
+     * @return the new batch
+     */
+    public Batch create(final String callbackUrl) {
+        final Batch batch = new Batch(UUID.randomUUID().toString(), callbackUrl);
+        batches.put(batch.getId(), batch);
+        return batch;
+    }
+
+    /**
+     * Marks every document of the batch as submitted, so that the batch
+     * completes once they have all finished.
+     *
+     * @param batch the batch
+     */
+    public void submitted(final Batch batch) {
+        batch.setSubmitted();
+    }
+
+    /**
+     * @param batchId the id of the batch
+     * @return the batch, or null if it is unknown or has expired
+     */
+    public Batch get(final String batchId) {
+        return batches.get(batchId);
+    }
+
+    /**
+     * Returns the status of every document in the batch along with the number
+     * of documents in each state.
+     *
+     * @param batch the batch
+     * @return the batch status
+     * @throws SQLException if the status of a document cannot be read
+     */
+    public JsonObject getStatus(final Batch batch) throws SQLException {
+        int queued = 0;
+        int processing = 0;
+        int processed = 0;
+        int error = 0;
+
+        final JsonArrayBuilder documents = Json.createArrayBuilder();
+        for (final Batch.Document document : batch.getDocuments()) {
+            final JsonObjectBuilder documentStatus = Json.createObjectBuilder();
+            final String state;
+            if (document.uuid == null) {
+                state = "error";
+                documentStatus.add("fileName", document.fileName).add("state", state).add("error", document.rejection);
+            } else {
+                documentStatus.add("uuid", document.uuid).add("fileName", document.fileName);
+                final Map<String, String> status = DBHandler.getInstance().getStatus(document.uuid);
+                if (status != null) {
+                    status.forEach((key, value) -> {
+                        if (value != null) {
+                            documentStatus.add(key, value);
+                        }
+                    });
+                    state = status.get("state");
+                } else {
+                    state = "error";
+                    documentStatus.add("state", state).add("error", "Unknown uuid " + document.uuid);
+                }
+            }
+
+            if ("queued".equals(state)) {
+                queued++;
+            } else if ("processed".equals(state)) {
+                processed++;
+            } else if ("error".equals(state)) {
+                error++;
+            } else {
+                processing++;
+            }
+            documents.add(documentStatus);
+        }
+
+        return Json.createObjectBuilder()
+                .add("batchId", batch.getId())
+                .add("state", batch.isComplete() || batch.isSubmitted() && queued + processing == 0 ? "processed" : "processing")
+                .add("total", queued + processing + processed + error)
+                .add("progress", Json.createObjectBuilder()
+                        .add("queued", queued)
+                        .add("processing", processing)
+                        .add("processed", processed)
+                        .add("error", error))
+                .add("documents", documents)
+                .build();
+    }
+
+    /**
+     * Stops checking batches for completion. Batches that have not completed
+     * do not send their callback.
+     */
+    public void shutdown() {
+        checkService.shutdownNow();
+        batches.clear();
+    }
+
+    private void checkAll() {
+        final long now = System.currentTimeMillis();
+        for (final Iterator<Batch> iterator = batches.values().iterator(); iterator.hasNext();) {
+            final Batch batch = iterator.next();
+            if (batch.isComplete()) {
+                if (now - batch.getCompletedTime() > ttl) {
+                    iterator.remove();
+                }
+            } else if (batch.isSubmitted()) {
+                try {
+                    check(batch);
+                } catch (final SQLException | RuntimeException e) {
+                    LOG.log(Level.WARNING, "Unable to check the status of batch " + batch.getId(), e);
+                }
+            }
+        }
+    }
+
+    private void check(final Batch batch) throws SQLException {
+        for (final Batch.Document document : batch.getDocuments()) {
+            if (!document.finished) {
+                final Map<String, String> status = DBHandler.getInstance().getStatus(document.uuid);
+                final String state = status != null ? status.get("state") : null;
+                // A conversion missing from the database has expired and will not change again
+                if (status == null || "processed".equals(state) || "error".equals(state)) {
+                    document.finished = true;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        batch.setCompleted();
+        if (batch.getCallbackUrl() != null) {
+            sendCallback(batch.getCallbackUrl(), getStatus(batch).toString(), batch.getId(), 1);
+        }
+    }
+
+    private void sendCallback(final String callbackUrl, final String body, final String batchId, final int attempt) {
+        final HttpRequest request;
+        try {
+            request = HttpRequest.newBuilder(URI.create(callbackUrl))
+                    .timeout(Duration.ofSeconds(30))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+        } catch (final IllegalArgumentException e) {
+            LOG.log(Level.WARNING, "Invalid callback url for batch " + batchId + ": " + callbackUrl, e);
+            return;
+        }
+
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+            if (error == null && response.statusCode() < 400) {
+                return;
+            }
+            if (attempt < CALLBACK_ATTEMPTS && !checkService.isShutdown()) {
+                checkService.schedule(() -> sendCallback(callbackUrl, body, batchId, attempt + 1),
+                        CALLBACK_RETRY_DELAY * attempt, TimeUnit.MILLISECONDS);
+            } else {
+                LOG.log(Level.WARNING, "Unable to send callback for batch " + batchId + " to " + callbackUrl
+                        + (error != null ? ": " + error.getMessage() : ", response code " + response.statusCode()));
+            }
+        });
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.batch;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Holds the response to one document of a batch in memory instead of sending
+ * it, so that the responses of every document can be combined into the
+ * response to the batch.
+ */
+public class CapturedResponse extends HttpServletResponseWrapper {
+
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final PrintWriter writer = new PrintWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8));
+    private final ServletOutputStream outputStream = new ServletOutputStream() {
+        @Override
+        public void write(final int b) {
+            body.write(b);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            body.write(b, off, len);
+        }
+
+        @Override
+        public boolean isReady() {
+            return true;
+        }
+
+        @Override
+        public void setWriteListener(final WriteListener writeListener) {
+            // As the servlet API requires when the request is not in async mode, which captured batch requests never are
+            throw new IllegalStateException("Non-blocking output is not supported for batched requests");
+        }
+    };
+
+    private int status = SC_OK;
+
+    /**
+     * @param response the response to the batch
+     */
+    public CapturedResponse(final HttpServletResponse response) {
+        super(response);
+    }
+
+    /**
+     * @return the body written to the response
+     */
+    public String getBody() {
+        writer.flush();
+        return body.toString(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int getStatus() {
+        return status;
+    }
+
+    @Override
+    public void setStatus(final int status) {
+        this.status = status;
+    }
+
+    @Override
+    public void sendError(final int status) {
+        this.status = status;
+    }
+
+    @Override
+    public void sendError(final int status, final String message) {
+        this.status = status;
+    }
+
+    @Override
+    public PrintWriter getWriter() {
+        return writer;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    @Override
+    public void setContentType(final String type) {
+    }
+
+    @Override
+    public void setCharacterEncoding(final String charset) {
+    }
+
+    @Override
+    public void setContentLength(final int len) {
+    }
+
+    @Override
+    public void setContentLengthLong(final long len) {
+    }
+
+    @Override
+    public boolean isCommitted() {
+        return false;
+    }
+
+    @Override
+    public void flushBuffer() {
+        writer.flush();
+    }
+
+    @Override
+    public void resetBuffer() {
+        writer.flush();
+        body.reset();
+    }
+
+    @Override
+    public void reset() {
+        resetBuffer();
+        status = SC_OK;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 hashing of file content, used to identify identical inputs and
+ * output files.
+ */
+public final class ContentHash {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private ContentHash() {
+    }
+
+    /**
+     * @return a new SHA-256 digest
+     * @throws IOException if the JVM does not provide SHA-256
+     */
+    public static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Adds the content of a file to a digest.
+     *
+     * @param digest the digest to update
+     * @param file the file to read
+     * @throws IOException if the file cannot be read
+     */
+    public static void update(final MessageDigest digest, final Path file) throws IOException {
+        try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+            final byte[] buffer = new byte[65536];
+            while (in.read(buffer) != -1) {
+                // Reading updates the digest
+            }
+        }
+    }
+
+    /**
+     * @param file the file to hash
+     * @return the SHA-256 hash of the file content as lower case hex
+     * @throws IOException if the file cannot be read
+     */
+    public static String hash(final Path file) throws IOException {
+        final MessageDigest digest = newDigest();
+        update(digest, file);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * @param bytes the bytes to format
+     * @return the bytes as lower case hex
+     */
+    public static String toHex(final byte[] bytes) {
+        final char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[i * 2] = HEX_DIGITS[(bytes[i] >> 4) & 0xF];
+            hex[i * 2 + 1] = HEX_DIGITS[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
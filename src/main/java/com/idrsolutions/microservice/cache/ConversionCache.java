@@ -0,0 +1,347 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A size-bounded on-disk cache of conversion output, keyed on a hash of the
+ * input file, the conversion settings and the BuildVu version.
+ * <p>
+ * Entries are stored outside of the output path so that they are unaffected by
+ * the individualTTL and fileDeletionService clean up. Output is shared between
+ * the cache and each conversion using hard links where the file system allows
+ * it, falling back to copies otherwise. The least recently used entries are
+ * evicted once the cache grows beyond its maximum size.
+ * <p>
+ * The lock is only held to update the index. Entries are linked into and out
+ * of the cache outside of it, under temporary names that are published with
+ * an atomic rename, and entries being read are pinned so that they are not
+ * evicted until the read completes.
+ */
+public class ConversionCache {
+
+    private static final Logger LOG = Logger.getLogger(ConversionCache.class.getName());
+
+    private static final String ENTRY_FILE = "entry.properties";
+    private static final String OUTPUT_DIR = "output";
+    private static final String OUTPUT_ZIP = "output.zip";
+
+    private final Path cacheDir;
+    private final long maxSize;
+    private final String buildVuVersion;
+
+    /** Entry sizes in least recently used order. */
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalSize;
+
+    /** The number of reads in progress for each entry, which are not evicted until the count reaches zero. */
+    private final Map<String, Integer> pins = new HashMap<>();
+
+    private long evictedCount;
+
+    /**
+     * Creates the cache, loading any entries left from a previous run.
+     *
+     * @param cacheDir the directory to store cache entries in
+     * @param maxSize the maximum total size of all entries in bytes
+     * @param buildVuVersion the version of BuildVu producing the output
+     * @throws IOException if the cache directory cannot be created or read
+     */
+    public ConversionCache(final File cacheDir, final long maxSize, final String buildVuVersion) throws IOException {
+        this.cacheDir = cacheDir.toPath();
+        this.maxSize = maxSize;
+        this.buildVuVersion = buildVuVersion;
+
+        Files.createDirectories(this.cacheDir);
+        loadEntries();
+    }
+
+    private void loadEntries() throws IOException {
+        final List<Path> entryDirs;
+        try (Stream<Path> paths = Files.list(cacheDir)) {
+            entryDirs = paths.collect(Collectors.toList());
+        }
+
+        final Map<Path, FileTime> lastAccess = new HashMap<>();
+        for (final Path entryDir : entryDirs) {
+            final Path entryFile = entryDir.resolve(ENTRY_FILE);
+            // Keys are hex digests, so any other name is a temporary or evicted entry
+            if (Files.exists(entryFile) && entryDir.getFileName().toString().indexOf('.') == -1) {
+                lastAccess.put(entryDir, Files.getLastModifiedTime(entryFile));
+            } else {
+                // Left over from an interrupted put or eviction
+                deleteRecursively(entryDir);
+            }
+        }
+
+        final List<Path> byLastAccess = new ArrayList<>(lastAccess.keySet());
+        byLastAccess.sort(Comparator.comparing(lastAccess::get));
+        for (final Path entryDir : byLastAccess) {
+            final long size = Long.parseLong(readEntry(entryDir).getProperty("size"));
+            entries.put(entryDir.getFileName().toString(), size);
+            totalSize += size;
+        }
+        deleteEvicted(evict());
+    }
+
+    /**
+     * Creates the cache key for a conversion.
+     *
+     * @param inputFile the file uploaded for conversion
+     * @param settings the settings that affect the conversion output
+     * @return the cache key
+     * @throws IOException if the input file cannot be read
+     */
+    public String createKey(final File inputFile, final Map<String, String> settings) throws IOException {
+        final MessageDigest digest = ContentHash.newDigest();
+        ContentHash.update(digest, inputFile.toPath());
+
+        final StringBuilder normalised = new StringBuilder(buildVuVersion).append('\n');
+        for (final Map.Entry<String, String> setting : new TreeMap<>(settings).entrySet()) {
+            normalised.append(setting.getKey()).append('=').append(setting.getValue()).append('\n');
+        }
+        digest.update(normalised.toString().getBytes(StandardCharsets.UTF_8));
+
+        return ContentHash.toHex(digest.digest());
+    }
+
+    /**
+     * Looks up the cached output for the given key and, if present, links it
+     * into the output directory and zip location of a new conversion.
+     *
+     * @param key the cache key
+     * @param outputDir the output directory of the new conversion
+     * @param outputZip the output zip of the new conversion
+     * @return the page count of the cached conversion, or -1 if there is no entry for the key
+     * @throws IOException if the cached output cannot be linked or copied
+     */
+    public int get(final String key, final File outputDir, final File outputZip) throws IOException {
+        final Path entryDir = cacheDir.resolve(key);
+        synchronized (this) {
+            // get rather than containsKey so that the entry moves to the end of the LRU order
+            if (entries.get(key) == null) {
+                return -1;
+            }
+            pins.merge(key, 1, Integer::sum);
+        }
+
+        try {
+            // Keeps the LRU order when the cache is reloaded
+            Files.setLastModifiedTime(entryDir.resolve(ENTRY_FILE), FileTime.fromMillis(System.currentTimeMillis()));
+
+            final Path target = outputDir.toPath();
+            final Path tempTarget = target.resolveSibling(target.getFileName() + ".cache");
+            try {
+                linkTree(entryDir.resolve(OUTPUT_DIR), tempTarget);
+                // Only an empty output directory is replaced
+                Files.deleteIfExists(target);
+                Files.move(tempTarget, target, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                deleteRecursively(tempTarget);
+            }
+
+            final Path cachedZip = entryDir.resolve(OUTPUT_ZIP);
+            if (Files.exists(cachedZip)) {
+                final Path zipTarget = outputZip.toPath();
+                final Path tempZip = zipTarget.resolveSibling(zipTarget.getFileName() + ".cache");
+                try {
+                    linkFile(cachedZip, tempZip);
+                    Files.move(tempZip, zipTarget, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } finally {
+                    Files.deleteIfExists(tempZip);
+                }
+            }
+            return Integer.parseInt(readEntry(entryDir).getProperty("pageCount"));
+        } finally {
+            final List<Path> evicted;
+            synchronized (this) {
+                pins.computeIfPresent(key, (pinned, count) -> count == 1 ? null : count - 1);
+                evicted = evict();
+            }
+            deleteEvicted(evicted);
+        }
+    }
+
+    /**
+     * Adds the output of a successful conversion to the cache, evicting the
+     * least recently used entries if the cache grows beyond its maximum size.
+     *
+     * @param key the cache key
+     * @param outputDir the output directory of the conversion
+     * @param outputZip the output zip of the conversion
+     * @param pageCount the page count of the converted document
+     */
+    public void put(final String key, final File outputDir, final File outputZip, final int pageCount) {
+        final Path entryDir = cacheDir.resolve(key);
+        final Path tempDir = cacheDir.resolve(key + ".tmp" + Thread.currentThread().getId());
+        try {
+            linkTree(outputDir.toPath(), tempDir.resolve(OUTPUT_DIR));
+            if (outputZip.exists()) {
+                linkFile(outputZip.toPath(), tempDir.resolve(OUTPUT_ZIP));
+            }
+
+            final long size = sizeOf(tempDir);
+            if (size > maxSize) {
+                deleteRecursively(tempDir);
+                return;
+            }
+
+            final Properties entry = new Properties();
+            entry.setProperty("pageCount", String.valueOf(pageCount));
+            entry.setProperty("size", String.valueOf(size));
+            try (OutputStream out = Files.newOutputStream(tempDir.resolve(ENTRY_FILE))) {
+                entry.store(out, null);
+            }
+
+            final List<Path> evicted;
+            synchronized (this) {
+                if (entries.containsKey(key)) {
+                    evicted = new ArrayList<>();
+                } else {
+                    Files.move(tempDir, entryDir, StandardCopyOption.ATOMIC_MOVE);
+                    entries.put(key, size);
+                    totalSize += size;
+                    evicted = evict();
+                }
+            }
+            deleteRecursively(tempDir);
+            deleteEvicted(evicted);
+        } catch (final IOException e) {
+            LOG.log(Level.WARNING, "Unable to add conversion output to the cache", e);
+            try {
+                deleteRecursively(tempDir);
+            } catch (final IOException ex) {
+                LOG.log(Level.WARNING, "Unable to remove incomplete cache entry " + tempDir, ex);
+            }
+        }
+    }
+
+    /**
+     * Removes the least recently used entries that are not being read until
+     * the cache is within its maximum size. Each entry is renamed so that its
+     * key can be reused straight away, and the renamed directories are
+     * returned to be deleted once the lock is released.
+     */
+    private synchronized List<Path> evict() throws IOException {
+        final List<Path> evicted = new ArrayList<>();
+        final Iterator<Map.Entry<String, Long>> eldest = entries.entrySet().iterator();
+        while (totalSize > maxSize && eldest.hasNext()) {
+            final Map.Entry<String, Long> entry = eldest.next();
+            if (pins.containsKey(entry.getKey())) {
+                continue;
+            }
+            final Path evictedDir = cacheDir.resolve(entry.getKey() + ".evicted" + evictedCount++);
+            Files.move(cacheDir.resolve(entry.getKey()), evictedDir, StandardCopyOption.ATOMIC_MOVE);
+            eldest.remove();
+            totalSize -= entry.getValue();
+            evicted.add(evictedDir);
+        }
+        return evicted;
+    }
+
+    private static void deleteEvicted(final List<Path> evicted) {
+        for (final Path evictedDir : evicted) {
+            try {
+                deleteRecursively(evictedDir);
+            } catch (final IOException e) {
+                LOG.log(Level.WARNING, "Unable to remove evicted cache entry " + evictedDir, e);
+            }
+        }
+    }
+
+    private static Properties readEntry(final Path entryDir) throws IOException {
+        final Properties entry = new Properties();
+        try (InputStream in = Files.newInputStream(entryDir.resolve(ENTRY_FILE))) {
+            entry.load(in);
+        }
+        return entry;
+    }
+
+    private static void linkTree(final Path source, final Path target) throws IOException {
+        final List<Path> files;
+        try (Stream<Path> paths = Files.walk(source)) {
+            files = paths.collect(Collectors.toList());
+        }
+        for (final Path file : files) {
+            final Path targetFile = target.resolve(source.relativize(file));
+            if (Files.isDirectory(file)) {
+                Files.createDirectories(targetFile);
+            } else {
+                linkFile(file, targetFile);
+            }
+        }
+    }
+
+    private static void linkFile(final Path source, final Path target) throws IOException {
+        Files.createDirectories(target.getParent());
+        try {
+            Files.createLink(target, source);
+        } catch (final IOException | UnsupportedOperationException e) {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static long sizeOf(final Path dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            long size = 0;
+            for (final Path file : (Iterable<Path>) paths::iterator) {
+                if (Files.isRegularFile(file)) {
+                    size += Files.size(file);
+                }
+            }
+            return size;
+        }
+    }
+
+    private static void deleteRecursively(final Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        final List<Path> files;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            files = paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (final Path file : files) {
+            Files.delete(file);
+        }
+    }
+}
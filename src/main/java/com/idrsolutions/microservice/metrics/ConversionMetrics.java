@@ -0,0 +1,245 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.metrics;
+
+import com.idrsolutions.microservice.scheduler.SchedulerStats;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records how long each stage of a conversion takes, how conversions end and
+ * how many child processes are running, and writes them in the Prometheus
+ * text exposition format.
+ * <p>
+ * Recording only updates striped counters, so it adds no locking to the
+ * conversion path.
+ */
+public final class ConversionMetrics {
+
+    /** Time from the request being accepted to the conversion starting, covering any URL download and the wait for a conversion thread. */
+    public static final String STAGE_INTAKE = "intake";
+    /** Time spent waiting for the scheduler to admit the conversion. */
+    public static final String STAGE_QUEUE = "queue";
+    /** Time spent converting an office document to PDF with LibreOffice. */
+    public static final String STAGE_LIBRE_OFFICE = "libreoffice";
+    /** Time spent reading the page count and encryption of the PDF. */
+    public static final String STAGE_PREFLIGHT = "preflight";
+    /** Time spent running BuildVu, including any retry after running out of memory. */
+    public static final String STAGE_BUILDVU = "buildvu";
+    /** Time spent zipping the output. */
+    public static final String STAGE_ZIP = "zip";
+    /** Time spent uploading the output zip to remote storage. */
+    public static final String STAGE_UPLOAD = "upload";
+
+    public static final String OUTCOME_SUCCESS = "success";
+    public static final String OUTCOME_ERROR = "error";
+    public static final String OUTCOME_TIMEOUT = "timeout";
+
+    /** The input types recorded as themselves, anything else is recorded as "other" so that clients cannot create unbounded label values. */
+    private static final Set<String> INPUT_TYPES = Set.of("pdf", "doc", "docx", "odt", "rtf", "txt", "xls", "xlsx", "ods",
+            "csv", "ppt", "pptx", "odp", "odg");
+    private static final String OTHER_INPUT_TYPE = "other";
+
+    /** Conversions that never finish, such as those whose download failed, are forgotten after this time. */
+    private static final long MAX_CONVERSION_AGE = 24 * 60 * 60 * 1000L;
+
+    private static final ConversionMetrics INSTANCE = new ConversionMetrics();
+
+    private final Map<String, ActiveConversion> activeConversions = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> stageDurations = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> conversionDurations = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> databaseWrites = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> conversions = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> activeProcesses = new ConcurrentHashMap<>();
+
+    private ConversionMetrics() {
+    }
+
+    public static ConversionMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records that a conversion request has been accepted.
+     *
+     * @param uuid the uuid of the conversion
+     */
+    public void conversionAccepted(final String uuid) {
+        activeConversions.put(uuid, new ActiveConversion());
+    }
+
+    /**
+     * Records that a conversion has started, recording the intake stage.
+     *
+     * @param uuid the uuid of the conversion
+     * @param inputType the file extension of the input, recorded as "other" if it is not a known input type
+     */
+    public void conversionStarted(final String uuid, final String inputType) {
+        final ActiveConversion conversion = activeConversions.computeIfAbsent(uuid, k -> new ActiveConversion());
+        final String type = inputType.toLowerCase(Locale.ROOT);
+        conversion.inputType = INPUT_TYPES.contains(type) ? type : OTHER_INPUT_TYPE;
+        recordStage(uuid, STAGE_INTAKE, OUTCOME_SUCCESS, conversion.startNanos);
+    }
+
+    /**
+     * Records the duration of a stage of a conversion.
+     *
+     * @param uuid the uuid of the conversion
+     * @param stage the stage, one of the STAGE_ constants
+     * @param outcome the outcome of the stage, one of the OUTCOME_ constants
+     * @param startNanos the {@link System#nanoTime()} the stage started at
+     */
+    public void recordStage(final String uuid, final String stage, final String outcome, final long startNanos) {
+        final long duration = System.nanoTime() - startNanos;
+        final String labels = "stage=\"" + stage + "\",input_type=\"" + getInputType(uuid) + "\",outcome=\"" + outcome + '"';
+        stageDurations.computeIfAbsent(labels, k -> new Histogram()).record(duration);
+    }
+
+    /**
+     * Records that a conversion has ended.
+     *
+     * @param uuid the uuid of the conversion
+     * @param outcome the outcome of the conversion, one of the OUTCOME_ constants
+     * @param errorCode the error code the conversion ended with, 0 if it succeeded
+     */
+    public void conversionFinished(final String uuid, final String outcome, final int errorCode) {
+        final ActiveConversion conversion = activeConversions.remove(uuid);
+        final String inputType = conversion != null ? conversion.inputType : ActiveConversion.UNKNOWN;
+
+        conversions.computeIfAbsent("outcome=\"" + outcome + "\",error_code=\"" + errorCode + "\",input_type=\"" + escape(inputType) + '"',
+                k -> new LongAdder()).increment();
+        if (conversion != null) {
+            conversionDurations.computeIfAbsent("outcome=\"" + outcome + "\",input_type=\"" + escape(inputType) + '"',
+                    k -> new Histogram()).record(System.nanoTime() - conversion.startNanos);
+        }
+    }
+
+    /**
+     * Records that a child process has started. It must be followed by {@link #processFinished(String)}.
+     *
+     * @param kind the kind of process, "buildvu" or "libreoffice"
+     */
+    public void processStarted(final String kind) {
+        activeProcesses.computeIfAbsent(kind, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    /**
+     * Records that a child process started with {@link #processStarted(String)} has finished.
+     *
+     * @param kind the kind of process, "buildvu" or "libreoffice"
+     */
+    public void processFinished(final String kind) {
+        activeProcesses.get(kind).decrementAndGet();
+    }
+
+    /**
+     * Records the duration of a write to the conversion status database.
+     *
+     * @param operation the kind of write, such as "setState"
+     * @param startNanos the {@link System#nanoTime()} the write started at
+     * @param failed true if the write threw an exception
+     */
+    public void recordDatabaseWrite(final String operation, final long startNanos, final boolean failed) {
+        final long duration = System.nanoTime() - startNanos;
+        databaseWrites.computeIfAbsent("operation=\"" + operation + "\",outcome=\"" + (failed ? OUTCOME_ERROR : OUTCOME_SUCCESS) + '"',
+                k -> new Histogram()).record(duration);
+    }
+
+    private String getInputType(final String uuid) {
+        final ActiveConversion conversion = activeConversions.get(uuid);
+        return escape(conversion != null ? conversion.inputType : ActiveConversion.UNKNOWN);
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text exposition format.
+     *
+     * @param out the writer to write to
+     * @param schedulerStats the current state of the conversion scheduler
+     * @throws IOException if the metrics cannot be written
+     */
+    public void write(final Writer out, final SchedulerStats schedulerStats) throws IOException {
+        final long oldest = System.currentTimeMillis() - MAX_CONVERSION_AGE;
+        activeConversions.values().removeIf(conversion -> conversion.startMillis < oldest);
+
+        writeHistograms(out, "buildvu_stage_duration_seconds", "Time spent in each stage of a conversion.", stageDurations);
+        writeHistograms(out, "buildvu_conversion_duration_seconds", "Time from a conversion being accepted to it ending.", conversionDurations);
+        writeHistograms(out, "buildvu_database_write_duration_seconds", "Time spent writing conversion status to the database.", databaseWrites);
+
+        out.write("# HELP buildvu_conversions_total Conversions that have ended.\n");
+        out.write("# TYPE buildvu_conversions_total counter\n");
+        for (final Map.Entry<String, LongAdder> counter : new TreeMap<>(conversions).entrySet()) {
+            out.write("buildvu_conversions_total{" + counter.getKey() + "} " + counter.getValue().sum() + '\n');
+        }
+
+        out.write("# HELP buildvu_active_processes Child processes currently running.\n");
+        out.write("# TYPE buildvu_active_processes gauge\n");
+        for (final Map.Entry<String, AtomicInteger> gauge : new TreeMap<>(activeProcesses).entrySet()) {
+            out.write("buildvu_active_processes{kind=\"" + gauge.getKey() + "\"} " + gauge.getValue().get() + '\n');
+        }
+
+        writeGauge(out, "buildvu_queue_depth", "Conversions waiting for the scheduler.", schedulerStats.getQueueDepth());
+        writeGauge(out, "buildvu_running_conversions", "Conversions and page range shards admitted by the scheduler.", schedulerStats.getRunning());
+        writeGauge(out, "buildvu_reserved_memory_megabytes", "Memory reserved by running conversions.", schedulerStats.getReservedMemory());
+    }
+
+    private static void writeHistograms(final Writer out, final String name, final String help,
+                                        final Map<String, Histogram> histograms) throws IOException {
+        out.write("# HELP " + name + ' ' + help + '\n');
+        out.write("# TYPE " + name + " histogram\n");
+        for (final Map.Entry<String, Histogram> entry : new TreeMap<>(histograms).entrySet()) {
+            final String labels = entry.getKey();
+            final Histogram histogram = entry.getValue();
+            final long[] cumulativeCounts = histogram.getCumulativeCounts();
+            for (int i = 0; i < Histogram.BUCKETS.length; i++) {
+                out.write(name + "_bucket{" + labels + ",le=\"" + Histogram.BUCKETS[i] + "\"} " + cumulativeCounts[i] + '\n');
+            }
+            final long count = histogram.getCount();
+            out.write(name + "_bucket{" + labels + ",le=\"+Inf\"} " + count + '\n');
+            out.write(name + "_sum{" + labels + "} " + histogram.getSumSeconds() + '\n');
+            out.write(name + "_count{" + labels + "} " + count + '\n');
+        }
+    }
+
+    private static void writeGauge(final Writer out, final String name, final String help, final long value) throws IOException {
+        out.write("# HELP " + name + ' ' + help + '\n');
+        out.write("# TYPE " + name + " gauge\n");
+        out.write(name + ' ' + value + '\n');
+    }
+
+    private static String escape(final String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static final class ActiveConversion {
+
+        private static final String UNKNOWN = "unknown";
+
+        private final long startNanos = System.nanoTime();
+        private final long startMillis = System.currentTimeMillis();
+        private volatile String inputType = UNKNOWN;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations with fixed buckets, safe to record into from many
+ * threads without locking.
+ */
+final class Histogram {
+
+    /** Upper bounds of the buckets in seconds, covering quick database writes up to hour long conversions. */
+    static final double[] BUCKETS = {0.005, 0.01, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600, 1800, 3600};
+
+    private final LongAdder[] counts = new LongAdder[BUCKETS.length];
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumNanos = new LongAdder();
+
+    Histogram() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+    }
+
+    void record(final long durationNanos) {
+        final double seconds = durationNanos / 1e9;
+        for (int i = 0; i < BUCKETS.length; i++) {
+            if (seconds <= BUCKETS[i]) {
+                counts[i].increment();
+                break;
+            }
+        }
+        count.increment();
+        sumNanos.add(durationNanos);
+    }
+
+    /**
+     * @return the cumulative count of each bucket, as Prometheus expects
+     */
+    long[] getCumulativeCounts() {
+        final long[] cumulative = new long[BUCKETS.length];
+        long total = 0;
+        for (int i = 0; i < BUCKETS.length; i++) {
+            total += counts[i].sum();
+            cumulative[i] = total;
+        }
+        return cumulative;
+    }
+
+    long getCount() {
+        return count.sum();
+    }
+
+    double getSumSeconds() {
+        return sumNanos.sum() / 1e9;
+    }
+}
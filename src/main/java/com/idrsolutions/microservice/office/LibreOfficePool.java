@@ -0,0 +1,398 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.office;
+
+import com.idrsolutions.microservice.utils.ProcessUtils;
+import com.sun.star.beans.PropertyValue;
+import com.sun.star.bridge.XBridge;
+import com.sun.star.bridge.XBridgeFactory;
+import com.sun.star.comp.helper.Bootstrap;
+import com.sun.star.connection.NoConnectException;
+import com.sun.star.connection.XConnection;
+import com.sun.star.connection.XConnector;
+import com.sun.star.frame.XComponentLoader;
+import com.sun.star.frame.XStorable;
+import com.sun.star.lang.XComponent;
+import com.sun.star.lang.XMultiComponentFactory;
+import com.sun.star.lang.XServiceInfo;
+import com.sun.star.uno.UnoRuntime;
+import com.sun.star.uno.XComponentContext;
+import com.sun.star.util.CloseVetoException;
+import com.sun.star.util.XCloseable;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * A fixed size pool of long-running headless LibreOffice instances used to
+ * preconvert office documents to PDF.
+ * <p>
+ * Each instance owns its own user profile directory and listens for UNO
+ * connections on its own port. Documents are loaded and stored as PDF through
+ * that connection, so a conversion only returns once the PDF has been written.
+ * Instances are restarted when they fail a health check, after a conversion
+ * times out or fails, and after a set number of uses.
+ */
+public class LibreOfficePool {
+
+    private static final Logger LOG = Logger.getLogger(LibreOfficePool.class.getName());
+
+    /** Time allowed for a newly started instance to begin accepting connections before it is considered unhealthy. */
+    private static final long STARTUP_GRACE_PERIOD = 30000;
+
+    /** The interval in milliseconds between attempts to connect to an instance that is starting. */
+    private static final long CONNECT_RETRY_DELAY = 250;
+
+    private final String libreOfficePath;
+    private final int maxUses;
+    private final XComponentContext localContext;
+    private final Path profileRoot;
+    private final BlockingQueue<Instance> idleInstances;
+    private final List<Instance> instances = new ArrayList<>();
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "buildvu-libreoffice-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Creates the pool and starts all of its instances.
+     *
+     * @param libreOfficePath the path to the soffice executable
+     * @param poolSize the number of LibreOffice instances to keep running
+     * @param maxUses the number of conversions an instance runs before it is restarted
+     * @throws IOException if the profile directories cannot be created or UNO cannot be initialised
+     */
+    public LibreOfficePool(final String libreOfficePath, final int poolSize, final int maxUses) throws IOException {
+        this.libreOfficePath = libreOfficePath;
+        this.maxUses = maxUses;
+        this.idleInstances = new ArrayBlockingQueue<>(poolSize);
+        try {
+            // Only the Java remote bridge is used, no LibreOffice installation is needed in this JVM
+            localContext = Bootstrap.createInitialComponentContext(null);
+        } catch (final Exception e) {
+            throw new IOException("Unable to initialise UNO", e);
+        }
+
+        profileRoot = Files.createTempDirectory("buildvu-libreoffice");
+        for (int i = 0; i < poolSize; i++) {
+            final Instance instance = new Instance(profileRoot.resolve("instance-" + i).toFile());
+            instance.start();
+            instances.add(instance);
+            idleInstances.add(instance);
+        }
+    }
+
+    /**
+     * Converts the given office document to PDF on the next idle instance,
+     * waiting for one to become available if all are busy.
+     * <p>
+     * The output is written to outputDir as uuid.pdf, matching
+     * {@link com.idrsolutions.microservice.utils.LibreOfficeHelper#convertDocToPDF}.
+     *
+     * @param inputFile the office document to convert
+     * @param uuid the uuid of the conversion
+     * @param timeout the maximum duration of the conversion in milliseconds
+     * @param outputDir the directory to write the PDF to
+     * @return the result of the conversion
+     */
+    public ProcessUtils.Result convertDocToPDF(final File inputFile, final String uuid, final long timeout, final File outputDir) {
+        final Instance instance;
+        try {
+            instance = idleInstances.take();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ProcessUtils.Result.ERROR;
+        }
+
+        ProcessUtils.Result result = ProcessUtils.Result.ERROR;
+        try {
+            if (!instance.isHealthy()) {
+                LOG.log(Level.WARNING, "LibreOffice instance " + instance.profileDir.getName() + " failed health check, restarting");
+                instance.restart();
+            }
+
+            // Set by whichever of the conversion and the watchdog finishes first
+            final AtomicBoolean finished = new AtomicBoolean();
+            final ScheduledFuture<?> watch = timeout > 0 ? watchdog.schedule(() -> {
+                if (finished.compareAndSet(false, true)) {
+                    // Closes the connection, so the conversion fails rather than waiting any longer
+                    instance.stop();
+                }
+            }, timeout, TimeUnit.MILLISECONDS) : null;
+
+            instance.uses++;
+            boolean converted = false;
+            try {
+                converted = instance.convert(inputFile, new File(outputDir, uuid + ".pdf"));
+            } catch (final IOException | com.sun.star.uno.Exception | RuntimeException e) {
+                if (!finished.get()) {
+                    LOG.log(Level.SEVERE, "LibreOffice failed to convert " + uuid, e);
+                }
+            } finally {
+                if (watch != null) {
+                    watch.cancel(false);
+                }
+            }
+
+            if (!finished.compareAndSet(false, true) && !converted) {
+                LOG.log(Level.INFO, "LibreOffice conversion " + uuid + " exceeded " + timeout + "ms");
+                result = ProcessUtils.Result.TIMEOUT;
+            } else {
+                result = converted ? ProcessUtils.Result.SUCCESS : ProcessUtils.Result.ERROR;
+            }
+        } catch (final IOException e) {
+            LOG.log(Level.SEVERE, "Unable to start LibreOffice instance", e);
+        } finally {
+            if (result != ProcessUtils.Result.SUCCESS || instance.uses >= maxUses) {
+                try {
+                    instance.restart();
+                } catch (final IOException e) {
+                    LOG.log(Level.SEVERE, "Unable to restart LibreOffice instance", e);
+                }
+            }
+            idleInstances.add(instance);
+        }
+
+        return result;
+    }
+
+    /**
+     * Stops all LibreOffice instances and deletes their user profiles.
+     */
+    public void shutdown() {
+        watchdog.shutdownNow();
+        for (final Instance instance : instances) {
+            instance.stop();
+        }
+
+        // The instances have exited, so nothing is still writing to the profiles
+        try (Stream<Path> paths = Files.walk(profileRoot)) {
+            for (final Path path : paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.deleteIfExists(path);
+            }
+        } catch (final IOException e) {
+            LOG.log(Level.WARNING, "Unable to delete LibreOffice profiles in " + profileRoot, e);
+        }
+    }
+
+    private static PropertyValue property(final String name, final Object value) {
+        final PropertyValue property = new PropertyValue();
+        property.Name = name;
+        property.Value = value;
+        return property;
+    }
+
+    /**
+     * Returns the PDF export filter for the type of the loaded document.
+     */
+    private static String getPdfFilter(final XComponent document) {
+        final XServiceInfo serviceInfo = UnoRuntime.queryInterface(XServiceInfo.class, document);
+        if (serviceInfo.supportsService("com.sun.star.sheet.SpreadsheetDocument")) {
+            return "calc_pdf_Export";
+        }
+        if (serviceInfo.supportsService("com.sun.star.presentation.PresentationDocument")) {
+            return "impress_pdf_Export";
+        }
+        if (serviceInfo.supportsService("com.sun.star.drawing.DrawingDocument")) {
+            return "draw_pdf_Export";
+        }
+        return "writer_pdf_Export";
+    }
+
+    private final class Instance {
+
+        private final File profileDir;
+        private Process process;
+        private XBridge bridge;
+        private XComponentLoader loader;
+        private int port;
+        private long startTime;
+        private int uses;
+
+        Instance(final File profileDir) {
+            this.profileDir = profileDir;
+        }
+
+        synchronized void start() throws IOException {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                port = socket.getLocalPort();
+            }
+
+            process = new ProcessBuilder(libreOfficePath,
+                    "-env:UserInstallation=" + profileDir.toPath().toUri(),
+                    "--headless",
+                    "--invisible",
+                    "--nocrashreport",
+                    "--nodefault",
+                    "--nofirststartwizard",
+                    "--nolockcheck",
+                    "--nologo",
+                    "--norestore",
+                    "--accept=socket,host=127.0.0.1,port=" + port + ";urp;")
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .start();
+            startTime = System.currentTimeMillis();
+            uses = 0;
+        }
+
+        synchronized void stop() {
+            if (bridge != null) {
+                UnoRuntime.queryInterface(XComponent.class, bridge).dispose();
+                bridge = null;
+                loader = null;
+            }
+            if (process != null) {
+                process.destroyForcibly();
+                try {
+                    process.waitFor();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                process = null;
+            }
+        }
+
+        synchronized void restart() throws IOException {
+            stop();
+            start();
+        }
+
+        boolean isHealthy() {
+            final Process current;
+            final long started;
+            synchronized (this) {
+                current = process;
+                started = startTime;
+            }
+            if (current == null || !current.isAlive()) {
+                return false;
+            }
+
+            if (System.currentTimeMillis() - started < STARTUP_GRACE_PERIOD) {
+                return true;
+            }
+
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", port), 1000);
+                return true;
+            } catch (final IOException e) {
+                return false;
+            }
+        }
+
+        /**
+         * Loads the document in this instance and stores it as a PDF.
+         *
+         * @return true if the PDF was written
+         */
+        boolean convert(final File inputFile, final File outputPdf) throws IOException, com.sun.star.uno.Exception {
+            final XComponent document = connect().loadComponentFromURL(inputFile.toURI().toString(), "_blank", 0,
+                    new PropertyValue[] {property("Hidden", true), property("ReadOnly", true)});
+            if (document == null) {
+                return false;
+            }
+
+            try {
+                UnoRuntime.queryInterface(XStorable.class, document).storeToURL(outputPdf.toURI().toString(),
+                        new PropertyValue[] {property("FilterName", getPdfFilter(document)), property("Overwrite", true)});
+            } finally {
+                final XCloseable closeable = UnoRuntime.queryInterface(XCloseable.class, document);
+                try {
+                    if (closeable != null) {
+                        closeable.close(true);
+                    } else {
+                        document.dispose();
+                    }
+                } catch (final CloseVetoException e) {
+                    LOG.log(Level.FINE, "LibreOffice did not close " + inputFile.getName(), e);
+                }
+            }
+            return outputPdf.isFile();
+        }
+
+        /**
+         * Returns the component loader of this instance, connecting to it
+         * first and waiting for it to accept connections if it is starting.
+         */
+        private XComponentLoader connect() throws IOException, com.sun.star.uno.Exception {
+            synchronized (this) {
+                if (loader != null) {
+                    return loader;
+                }
+            }
+
+            final XMultiComponentFactory localFactory = localContext.getServiceManager();
+            final XConnector connector = UnoRuntime.queryInterface(XConnector.class,
+                    localFactory.createInstanceWithContext("com.sun.star.connection.Connector", localContext));
+            XConnection connection = null;
+            while (connection == null) {
+                try {
+                    connection = connector.connect("socket,host=127.0.0.1,port=" + port);
+                } catch (final NoConnectException e) {
+                    synchronized (this) {
+                        if (process == null || !process.isAlive() || System.currentTimeMillis() - startTime > STARTUP_GRACE_PERIOD) {
+                            throw new IOException("LibreOffice instance " + profileDir.getName() + " is not accepting connections", e);
+                        }
+                    }
+                    try {
+                        Thread.sleep(CONNECT_RETRY_DELAY);
+                    } catch (final InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while connecting to LibreOffice", ex);
+                    }
+                }
+            }
+
+            final XBridgeFactory bridgeFactory = UnoRuntime.queryInterface(XBridgeFactory.class,
+                    localFactory.createInstanceWithContext("com.sun.star.bridge.BridgeFactory", localContext));
+            final XBridge newBridge = bridgeFactory.createBridge("", "urp", connection, null);
+            final XComponentContext remoteContext = UnoRuntime.queryInterface(XComponentContext.class,
+                    newBridge.getInstance("StarOffice.ComponentContext"));
+            final XComponentLoader newLoader = UnoRuntime.queryInterface(XComponentLoader.class,
+                    remoteContext.getServiceManager().createInstanceWithContext("com.sun.star.frame.Desktop", remoteContext));
+
+            synchronized (this) {
+                bridge = newBridge;
+                loader = newLoader;
+                return loader;
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.output;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes gzip compressed copies of the text files in a conversion's output,
+ * so that they can be served compressed without compressing them on every
+ * request. Each copy is written next to its file with a .gz suffix.
+ */
+public final class OutputCompressor {
+
+    /** The suffix of a compressed copy of an output file. */
+    public static final String GZIP_SUFFIX = ".gz";
+
+    /** Files smaller than this gain too little from compression to be worth a second copy. */
+    private static final long MIN_SIZE = 1024;
+
+    private static final Set<String> COMPRESSIBLE_EXTENSIONS = Set.of("html", "svg", "css", "js", "json", "xml", "txt");
+
+    private OutputCompressor() {
+    }
+
+    /**
+     * Writes a compressed copy of each text file in the output directory,
+     * keeping only the copies that are smaller than the original.
+     *
+     * @param outputDir the output directory of a finished conversion
+     * @throws IOException if the output cannot be read or a copy cannot be written
+     */
+    public static void compress(final Path outputDir) throws IOException {
+        final List<Path> files;
+        try (Stream<Path> paths = Files.walk(outputDir)) {
+            files = paths.filter(Files::isRegularFile).filter(OutputCompressor::isCompressible).collect(Collectors.toList());
+        }
+
+        for (final Path file : files) {
+            final long size = Files.size(file);
+            if (size < MIN_SIZE) {
+                continue;
+            }
+
+            final Path target = file.resolveSibling(file.getFileName() + GZIP_SUFFIX);
+            final Path tempFile = file.resolveSibling(file.getFileName() + GZIP_SUFFIX + ".tmp");
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(tempFile), 65536) {
+                {
+                    def.setLevel(Deflater.BEST_COMPRESSION);
+                }
+            }) {
+                Files.copy(file, out);
+            }
+
+            if (Files.size(tempFile) < size) {
+                // The file is only ever seen complete by the servlet
+                Files.move(tempFile, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                Files.delete(tempFile);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the file is a compressed copy written by {@link #compress(Path)},
+     * which should be left out of the output zip.
+     *
+     * @param file the file to check
+     * @return true if the file is a compressed copy of another output file
+     */
+    public static boolean isCompressedCopy(final Path file) {
+        final String fileName = file.getFileName().toString();
+        if (!fileName.endsWith(GZIP_SUFFIX)) {
+            return false;
+        }
+        final Path original = file.resolveSibling(fileName.substring(0, fileName.length() - GZIP_SUFFIX.length()));
+        return isCompressible(original) && Files.exists(original);
+    }
+
+    private static boolean isCompressible(final Path file) {
+        final String fileName = file.getFileName().toString();
+        final int extIndex = fileName.lastIndexOf('.');
+        return extIndex != -1 && COMPRESSIBLE_EXTENSIONS.contains(fileName.substring(extIndex + 1).toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.output;
+
+import com.idrsolutions.microservice.cache.ContentHash;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Stores one copy of each viewer script, stylesheet, font and image that is
+ * repeated across conversions, keyed on a hash of its content.
+ * <p>
+ * Each shared file in a conversion's output is replaced with a hard link to
+ * the stored copy, so the output directory still holds every file and is
+ * served and zipped as before. Deleting an output directory only removes its
+ * links. The store is swept every {@value #SWEEP_INTERVAL}ms and copies that
+ * are no longer linked from any output are deleted, so the store must be on
+ * the same file system as the output path and that file system must report
+ * link counts. Both are checked when the store is created, by linking a file
+ * from the output path into the store.
+ */
+public class SharedAssetStore {
+
+    private static final Logger LOG = Logger.getLogger(SharedAssetStore.class.getName());
+
+    /** The interval in milliseconds between sweeps of copies that are no longer linked from any output. */
+    private static final long SWEEP_INTERVAL = 600000;
+
+    /** Page content is rarely repeated between documents, so only the file types that are get hashed. */
+    private static final Set<String> SHARED_EXTENSIONS = Set.of("js", "css", "woff", "woff2", "otf", "ttf", "eot",
+            "png", "jpg", "jpeg", "gif", "webp", "ico");
+
+    private final Path storeDir;
+    private final ScheduledExecutorService sweepService = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "buildvu-asset-sweeper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Creates the store and starts sweeping it, beginning with any copies
+     * left unlinked while the service was stopped.
+     *
+     * @param storeDir the directory to store shared files in
+     * @param outputDir the directory conversion output is written to
+     * @throws IOException if the directory cannot be created, its file system does not report link counts
+     * or files in the output directory cannot be linked into it
+     */
+    public SharedAssetStore(final File storeDir, final File outputDir) throws IOException {
+        this.storeDir = storeDir.toPath();
+        Files.createDirectories(this.storeDir);
+        if (!Files.getFileStore(this.storeDir).supportsFileAttributeView("unix")) {
+            throw new IOException("The file system of " + storeDir + " does not report link counts");
+        }
+        checkLinkable(outputDir.toPath());
+        sweepService.scheduleWithFixedDelay(this::sweep, 0, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Links a file from the output directory into the store, which fails if
+     * they are on different file systems.
+     */
+    private void checkLinkable(final Path outputDir) throws IOException {
+        Files.createDirectories(outputDir);
+        final Path file = Files.createTempFile(outputDir, "link-check", ".tmp");
+        final Path link = storeDir.resolve(file.getFileName());
+        try {
+            Files.createLink(link, file);
+        } catch (final IOException | UnsupportedOperationException e) {
+            throw new IOException("Unable to link files in " + outputDir + " into " + storeDir
+                    + ", they must be on the same file system", e);
+        } finally {
+            Files.deleteIfExists(link);
+            Files.deleteIfExists(file);
+        }
+    }
+
+    /**
+     * Replaces the shared files in the output of a finished conversion with
+     * links to the stored copies, storing the files not seen before.
+     *
+     * @param outputDir the output directory of a finished conversion
+     * @throws IOException if the output cannot be read or a file cannot be linked
+     */
+    public void share(final Path outputDir) throws IOException {
+        final List<Path> files;
+        try (Stream<Path> paths = Files.walk(outputDir)) {
+            files = paths.filter(Files::isRegularFile).filter(SharedAssetStore::isShared).collect(Collectors.toList());
+        }
+
+        for (final Path file : files) {
+            if (Files.size(file) > 0) {
+                shareFile(file);
+            }
+        }
+    }
+
+    private void shareFile(final Path file) throws IOException {
+        final String hash = ContentHash.hash(file);
+        final Path asset = storeDir.resolve(hash.substring(0, 2)).resolve(hash);
+        Files.createDirectories(asset.getParent());
+
+        final Path link = file.resolveSibling(file.getFileName() + ".link.tmp");
+        // Left behind if the service stopped while sharing this output
+        Files.deleteIfExists(link);
+        try {
+            Files.createLink(link, asset);
+            // The file is only ever seen complete by the servlet
+            Files.move(link, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return;
+        } catch (final NoSuchFileException e) {
+            // Not stored yet, or swept since it was last linked
+        } catch (final FileSystemException e) {
+            // Usually the stored copy has as many links as the file system allows, which only the localised message
+            // tells apart, so any failure stores this file in its place and later output links to it instead
+            LOG.log(Level.FINE, "Unable to link " + file + " to " + asset, e);
+        } finally {
+            Files.deleteIfExists(link);
+        }
+
+        final Path stored = asset.resolveSibling(hash + ".tmp" + Thread.currentThread().getId());
+        try {
+            Files.createLink(stored, file);
+            Files.move(stored, asset, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(stored);
+        }
+    }
+
+    /**
+     * Deletes the stored copies that are no longer linked from any output,
+     * including copies left by an interrupted {@link #share(Path)}.
+     */
+    void sweep() {
+        final List<Path> assets;
+        try (Stream<Path> paths = Files.walk(storeDir)) {
+            assets = paths.filter(Files::isRegularFile).collect(Collectors.toList());
+        } catch (final IOException e) {
+            LOG.log(Level.WARNING, "Unable to sweep shared assets in " + storeDir, e);
+            return;
+        }
+
+        int deleted = 0;
+        for (final Path asset : assets) {
+            try {
+                // A copy linked again while it is being deleted stays in that output, it is just no longer shared
+                if ((Integer) Files.getAttribute(asset, "unix:nlink") <= 1) {
+                    Files.deleteIfExists(asset);
+                    deleted++;
+                }
+            } catch (final IOException e) {
+                LOG.log(Level.WARNING, "Unable to sweep shared asset " + asset, e);
+            }
+        }
+        LOG.log(Level.FINE, "Swept " + deleted + " of " + assets.size() + " shared assets");
+    }
+
+    /**
+     * Stops sweeping the store.
+     */
+    public void shutdown() {
+        sweepService.shutdownNow();
+    }
+
+    private static boolean isShared(final Path file) {
+        String fileName = file.getFileName().toString();
+        // Compressed copies of shared files are shared too
+        if (fileName.endsWith(OutputCompressor.GZIP_SUFFIX)) {
+            fileName = fileName.substring(0, fileName.length() - OutputCompressor.GZIP_SUFFIX.length());
+        }
+        final int extIndex = fileName.lastIndexOf('.');
+        return extIndex != -1 && SHARED_EXTENSIONS.contains(fileName.substring(extIndex + 1).toLowerCase(Locale.ROOT));
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.pdf;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits large documents into page ranges that are converted as concurrent
+ * shards.
+ */
+public final class PageRanges {
+
+    private PageRanges() {
+    }
+
+    /**
+     * Returns the number of page range shards to convert a document as, which
+     * is 1 when the document is not split.
+     *
+     * @param pageCount the page count of the document
+     * @param shardPageThreshold the page count above which documents are split, 0 to never split documents
+     * @param slots the number of conversions that can run at once
+     * @return the number of shards
+     */
+    public static int getShardCount(final int pageCount, final int shardPageThreshold, final int slots) {
+        if (shardPageThreshold <= 0 || pageCount <= shardPageThreshold) {
+            return 1;
+        }
+        final int shardCount = (pageCount + shardPageThreshold - 1) / shardPageThreshold;
+        return Math.max(1, Math.min(shardCount, slots));
+    }
+
+    /**
+     * Splits the pages of a document into contiguous page ranges whose sizes
+     * differ by at most one page, with the larger ranges first.
+     *
+     * @param pageCount the page count of the document
+     * @param rangeCount the number of ranges, no more than the page count
+     * @return the first and last page of each range, in page order
+     */
+    public static List<int[]> split(final int pageCount, final int rangeCount) {
+        final List<int[]> ranges = new ArrayList<>(rangeCount);
+        final int minPages = pageCount / rangeCount;
+        final int largerRanges = pageCount % rangeCount;
+        int firstPage = 1;
+        for (int i = 0; i < rangeCount; i++) {
+            final int lastPage = firstPage + minPages - (i < largerRanges ? 0 : 1);
+            ranges.add(new int[] {firstPage, lastPage});
+            firstPage = lastPage + 1;
+        }
+        return ranges;
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.pdf;
+
+/**
+ * The basic properties of a PDF found before it is converted, shared with the
+ * later stages of the conversion so that they do not need to be read again.
+ */
+public final class PdfInfo {
+
+    private final int pageCount;
+    private final boolean encrypted;
+    private final String version;
+    private final long fileSize;
+
+    /**
+     * Creates the PdfInfo.
+     *
+     * @param pageCount the number of pages in the PDF
+     * @param encrypted whether the PDF is encrypted
+     * @param version the PDF version from the file header, or null if it could not be read
+     * @param fileSize the size of the PDF in bytes
+     */
+    public PdfInfo(final int pageCount, final boolean encrypted, final String version, final long fileSize) {
+        this.pageCount = pageCount;
+        this.encrypted = encrypted;
+        this.version = version;
+        this.fileSize = fileSize;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public boolean isEncrypted() {
+        return encrypted;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+}
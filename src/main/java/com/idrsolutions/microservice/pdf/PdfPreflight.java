@@ -0,0 +1,618 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.pdf;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the page count, encryption status and version of a PDF without fully
+ * opening it.
+ * <p>
+ * Only the header, the cross reference sections, the trailer, the catalog and
+ * the root of the page tree are read, through a memory mapped view of the file,
+ * so memory use does not grow with the size of the document. Cross reference
+ * streams and object streams are decoded when they use Flate compression.
+ * Files the preflight cannot read this way are reported as unknown so that the
+ * caller can fall back to a full parse.
+ */
+public final class PdfPreflight {
+
+    /** The furthest from the end of the file that startxref is searched for. */
+    private static final int TAIL_SIZE = 2048;
+
+    /** The largest dictionary read for a single object. */
+    private static final int MAX_OBJECT_SIZE = 65536;
+
+    /** The largest decoded cross reference or object stream, beyond which the file is left to the full parser. */
+    private static final int MAX_STREAM_SIZE = 64 * 1024 * 1024;
+
+    private static final Pattern STARTXREF = Pattern.compile("startxref\\s+(\\d+)");
+    private static final Pattern VERSION = Pattern.compile("%PDF-(\\d\\.\\d)");
+    private static final Pattern ROOT = Pattern.compile("/Root\\s+(\\d+)\\s+(\\d+)\\s+R");
+    private static final Pattern PREV = Pattern.compile("/Prev\\s+(\\d+)");
+    private static final Pattern XREF_STM = Pattern.compile("/XRefStm\\s+(\\d+)");
+    private static final Pattern PAGES = Pattern.compile("/Pages\\s+(\\d+)\\s+(\\d+)\\s+R");
+    private static final Pattern COUNT = Pattern.compile("/Count\\s+(\\d++)(?!\\s+\\d+\\s+R)");
+    private static final Pattern XREF_SUBSECTION = Pattern.compile("(\\d+)\\s+(\\d+)\\s*");
+    private static final Pattern OBJECT_HEADER = Pattern.compile("(\\d+)\\s+(\\d+)\\s+obj");
+    private static final Pattern TYPE_XREF = Pattern.compile("/Type\\s*/XRef(?![A-Za-z])");
+    private static final Pattern W = Pattern.compile("/W\\s*\\[\\s*(\\d+)\\s+(\\d+)\\s+(\\d+)\\s*]");
+    private static final Pattern INDEX = Pattern.compile("/Index\\s*\\[([\\d\\s]*)]");
+    private static final Pattern SIZE = Pattern.compile("/Size\\s+(\\d+)");
+    private static final Pattern FILTER = Pattern.compile("/Filter\\s*(\\[\\s*)?/(\\w+)\\s*(]?)");
+    private static final Pattern LENGTH = Pattern.compile("/Length\\s+(\\d++)(?!\\s+\\d+\\s+R)");
+    private static final Pattern PREDICTOR = Pattern.compile("/Predictor\\s+(\\d+)");
+    private static final Pattern COLUMNS = Pattern.compile("/Columns\\s+(\\d+)");
+    private static final Pattern N = Pattern.compile("/N\\s+(\\d+)");
+    private static final Pattern FIRST = Pattern.compile("/First\\s+(\\d+)");
+
+    private PdfPreflight() {
+    }
+
+    /**
+     * Reads the basic properties of the given PDF.
+     *
+     * @param pdfFile the PDF to read
+     * @return the properties of the PDF, or null if they could not be found
+     * without a full parse
+     * @throws IOException if the file cannot be read
+     */
+    public static PdfInfo read(final File pdfFile) throws IOException {
+        final long fileSize = pdfFile.length();
+        if (fileSize > Integer.MAX_VALUE) {
+            return null;
+        }
+
+        try (FileChannel channel = FileChannel.open(pdfFile.toPath(), StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            return read(buffer, fileSize);
+        } catch (final RuntimeException e) {
+            // Malformed structure, leave it to the full parser to report
+            return null;
+        }
+    }
+
+    private static PdfInfo read(final ByteBuffer buffer, final long fileSize) {
+        final Matcher version = VERSION.matcher(text(buffer, 0, 1024));
+        final String pdfVersion = version.find() ? version.group(1) : null;
+
+        final int tailStart = (int) Math.max(0, fileSize - TAIL_SIZE);
+        final Matcher startXref = STARTXREF.matcher(text(buffer, tailStart, (int) fileSize - tailStart));
+        int xrefOffset = -1;
+        while (startXref.find()) {
+            xrefOffset = Integer.parseInt(startXref.group(1));
+        }
+        if (xrefOffset < 0 || xrefOffset >= fileSize) {
+            return null;
+        }
+
+        final CrossReferences xref = new CrossReferences();
+        String rootRef = null;
+        boolean encrypted = false;
+
+        // Follow the chain of cross reference sections from the newest to the oldest
+        final Set<Integer> visited = new HashSet<>();
+        int section = xrefOffset;
+        while (section >= 0 && visited.add(section)) {
+            final String trailer = readXrefSection(buffer, section, xref);
+            if (trailer == null) {
+                return null;
+            }
+            // The cross reference stream of a hybrid file comes before the previous section
+            final Matcher xrefStm = XREF_STM.matcher(trailer);
+            if (xrefStm.find() && readXrefSection(buffer, Integer.parseInt(xrefStm.group(1)), xref) == null) {
+                return null;
+            }
+            if (rootRef == null) {
+                final Matcher root = ROOT.matcher(trailer);
+                if (root.find()) {
+                    rootRef = root.group(1) + ' ' + root.group(2);
+                }
+            }
+            encrypted |= trailer.contains("/Encrypt");
+
+            final Matcher prev = PREV.matcher(trailer);
+            section = prev.find() ? Integer.parseInt(prev.group(1)) : -1;
+        }
+
+        if (rootRef == null) {
+            return null;
+        }
+
+        final String catalog = readObject(buffer, rootRef, xref);
+        final Matcher pages = catalog != null ? PAGES.matcher(catalog) : null;
+        if (pages == null || !pages.find()) {
+            return null;
+        }
+
+        final String pageTreeRoot = readObject(buffer, pages.group(1) + ' ' + pages.group(2), xref);
+        final Matcher count = pageTreeRoot != null ? COUNT.matcher(pageTreeRoot) : null;
+        if (count == null || !count.find()) {
+            return null;
+        }
+
+        final int pageCount = Integer.parseInt(count.group(1));
+        // Most likely a damaged page tree, the full parser may still find the pages
+        if (pageCount <= 0) {
+            return null;
+        }
+        return new PdfInfo(pageCount, encrypted, pdfVersion, fileSize);
+    }
+
+    /**
+     * Reads a cross reference table or stream, adding the location of any
+     * objects not already found in a newer section.
+     *
+     * @return the trailer dictionary, or null if the section could not be read
+     */
+    private static String readXrefSection(final ByteBuffer buffer, final int offset, final CrossReferences xref) {
+        final String head = text(buffer, offset, 4);
+        if (head.startsWith("xref")) {
+            int pos = offset + 4;
+            while (true) {
+                pos = skipWhitespace(buffer, pos);
+                final String line = text(buffer, pos, 64);
+                if (line.startsWith("trailer")) {
+                    return dictionary(buffer, pos + 7);
+                }
+                final Matcher subsection = XREF_SUBSECTION.matcher(line);
+                if (!subsection.lookingAt()) {
+                    return null;
+                }
+                final int first = Integer.parseInt(subsection.group(1));
+                final int count = Integer.parseInt(subsection.group(2));
+                pos += subsection.end();
+                // The count comes from the file, so it is only trusted as far as the entries fit in it
+                if (count > (buffer.limit() - pos) / 20) {
+                    return null;
+                }
+                for (int i = 0; i < count; i++) {
+                    // Each entry is exactly 20 bytes: 10 digit offset, 5 digit generation, type and end of line
+                    final String entry = text(buffer, pos, 20);
+                    if (entry.length() == 20 && entry.charAt(17) == 'n') {
+                        xref.putOffset(first + i, Integer.parseInt(entry.substring(0, 10)));
+                    } else if (entry.length() == 20) {
+                        xref.putFree(first + i);
+                    }
+                    pos += 20;
+                }
+            }
+        }
+
+        final String object = text(buffer, offset, 64);
+        final Matcher header = OBJECT_HEADER.matcher(object);
+        if (!header.lookingAt()) {
+            return null;
+        }
+        final int dictionaryStart = offset + header.end();
+        final String dictionary = dictionary(buffer, dictionaryStart);
+        if (!TYPE_XREF.matcher(dictionary).find()) {
+            return null;
+        }
+        xref.streams = true;
+        return readXrefStream(buffer, dictionaryStart, dictionary, xref) ? dictionary : null;
+    }
+
+    /**
+     * Adds the entries of a cross reference stream.
+     *
+     * @return true if the stream could be decoded
+     */
+    private static boolean readXrefStream(final ByteBuffer buffer, final int dictionaryStart, final String dictionary,
+                                          final CrossReferences xref) {
+        final Matcher w = W.matcher(dictionary);
+        final Matcher size = SIZE.matcher(dictionary);
+        if (!w.find() || !size.find()) {
+            return false;
+        }
+        final int[] widths = {Integer.parseInt(w.group(1)), Integer.parseInt(w.group(2)), Integer.parseInt(w.group(3))};
+        final int entrySize = widths[0] + widths[1] + widths[2];
+
+        final int[] index;
+        final Matcher indexMatcher = INDEX.matcher(dictionary);
+        if (indexMatcher.find()) {
+            final String[] values = indexMatcher.group(1).trim().split("\\s+");
+            index = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                index[i] = Integer.parseInt(values[i]);
+            }
+        } else {
+            index = new int[] {0, Integer.parseInt(size.group(1))};
+        }
+
+        final byte[] data = streamData(buffer, dictionaryStart, dictionary);
+        if (data == null || entrySize == 0) {
+            return false;
+        }
+
+        int pos = 0;
+        for (int i = 0; i + 1 < index.length; i += 2) {
+            for (int j = 0; j < index[i + 1]; j++) {
+                if (pos + entrySize > data.length) {
+                    return false;
+                }
+                // The type defaults to 1, an uncompressed object, when its field is omitted
+                final long type = widths[0] == 0 ? 1 : readField(data, pos, widths[0]);
+                final long field2 = readField(data, pos + widths[0], widths[1]);
+                final long field3 = readField(data, pos + widths[0] + widths[1], widths[2]);
+                pos += entrySize;
+
+                final int objectNumber = index[i] + j;
+                if (type == 1) {
+                    xref.putOffset(objectNumber, (int) field2);
+                } else if (type == 2) {
+                    xref.putCompressed(objectNumber, (int) field2, (int) field3);
+                } else {
+                    xref.putFree(objectNumber);
+                }
+            }
+        }
+        return true;
+    }
+
+    private static long readField(final byte[] data, final int pos, final int width) {
+        long value = 0;
+        for (int i = 0; i < width; i++) {
+            value = value << 8 | data[pos + i] & 0xFF;
+        }
+        return value;
+    }
+
+    /**
+     * Reads the dictionary of an object, from its cross reference offset, from
+     * the object stream it is compressed in, or, for files without cross
+     * reference streams whose table is damaged, from the last definition of the
+     * object in the file.
+     */
+    private static String readObject(final ByteBuffer buffer, final String ref, final CrossReferences xref) {
+        final int objectNumber = Integer.parseInt(ref.substring(0, ref.indexOf(' ')));
+
+        final int[] compressed = xref.compressed.get(objectNumber);
+        if (compressed != null) {
+            return readCompressedObject(buffer, objectNumber, compressed[0], compressed[1], xref);
+        }
+
+        final String header = ref + " obj";
+        Integer offset = xref.offsets.get(objectNumber);
+        if (offset == null || !text(buffer, offset, header.length()).equals(header)) {
+            // Scanning for the object is only worth it for files written without object streams
+            if (xref.streams) {
+                return null;
+            }
+            offset = lastIndexOf(buffer, header.getBytes(StandardCharsets.ISO_8859_1));
+            if (offset < 0) {
+                return null;
+            }
+        }
+        return dictionary(buffer, offset + header.length());
+    }
+
+    /**
+     * Reads an object stored in an object stream, decoding the object stream
+     * if it has not already been.
+     */
+    private static String readCompressedObject(final ByteBuffer buffer, final int objectNumber, final int streamNumber,
+                                               final int index, final CrossReferences xref) {
+        ObjectStream objectStream = xref.objectStreams.get(streamNumber);
+        if (objectStream == null) {
+            objectStream = readObjectStream(buffer, streamNumber, xref);
+            if (objectStream == null) {
+                return null;
+            }
+            xref.objectStreams.put(streamNumber, objectStream);
+        }
+        if (index >= objectStream.count) {
+            return null;
+        }
+        final String objects = objectStream.objects;
+        final int firstOffset = objectStream.first;
+
+        // The stream starts with pairs of object number and offset relative to First
+        final String[] pairs = objects.substring(0, Math.min(firstOffset, objects.length())).trim().split("\\s+");
+        if (pairs.length < 2 * index + 2 || Integer.parseInt(pairs[2 * index]) != objectNumber) {
+            return null;
+        }
+        final int start = firstOffset + Integer.parseInt(pairs[2 * index + 1]);
+        final int end = pairs.length >= 2 * index + 4 ? firstOffset + Integer.parseInt(pairs[2 * index + 3]) : objects.length();
+        if (start > end || end > objects.length()) {
+            return null;
+        }
+        return objects.substring(start, end);
+    }
+
+    private static ObjectStream readObjectStream(final ByteBuffer buffer, final int streamNumber, final CrossReferences xref) {
+        final Integer offset = xref.offsets.get(streamNumber);
+        if (offset == null) {
+            return null;
+        }
+        final Matcher header = OBJECT_HEADER.matcher(text(buffer, offset, 64));
+        if (!header.lookingAt() || Integer.parseInt(header.group(1)) != streamNumber) {
+            return null;
+        }
+        final String dictionary = dictionary(buffer, offset + header.end());
+        final Matcher n = N.matcher(dictionary);
+        final Matcher first = FIRST.matcher(dictionary);
+        if (!n.find() || !first.find()) {
+            return null;
+        }
+        final byte[] data = streamData(buffer, offset + header.end(), dictionary);
+        if (data == null) {
+            return null;
+        }
+        return new ObjectStream(new String(data, StandardCharsets.ISO_8859_1), Integer.parseInt(n.group(1)),
+                Integer.parseInt(first.group(1)));
+    }
+
+    /**
+     * Decodes the data of the stream whose dictionary starts at the given
+     * position. Only unfiltered and Flate streams, with or without PNG
+     * predictors, are decoded.
+     *
+     * @return the decoded data, or null if the stream cannot be decoded
+     */
+    private static byte[] streamData(final ByteBuffer buffer, final int dictionaryStart, final String dictionary) {
+        int dataStart = dictionaryStart + dictionary.length();
+        if (!text(buffer, dataStart, 6).equals("stream")) {
+            return null;
+        }
+        dataStart += 6;
+        if (text(buffer, dataStart, 1).equals("\r")) {
+            dataStart++;
+        }
+        if (text(buffer, dataStart, 1).equals("\n")) {
+            dataStart++;
+        }
+
+        final Matcher filter = FILTER.matcher(dictionary);
+        final byte[] data;
+        if (!filter.find()) {
+            final Matcher length = LENGTH.matcher(dictionary);
+            if (!length.find()) {
+                return null;
+            }
+            data = bytes(buffer, dataStart, Integer.parseInt(length.group(1)));
+        } else if ("FlateDecode".equals(filter.group(2)) && (filter.group(1) == null) == filter.group(3).isEmpty()) {
+            data = inflate(buffer, dataStart);
+        } else {
+            return null;
+        }
+        if (data == null) {
+            return null;
+        }
+
+        final Matcher predictor = PREDICTOR.matcher(dictionary);
+        if (!predictor.find() || Integer.parseInt(predictor.group(1)) == 1) {
+            return data;
+        }
+        if (Integer.parseInt(predictor.group(1)) < 10) {
+            // TIFF predictors are not used for cross reference streams in practice
+            return null;
+        }
+        final Matcher columns = COLUMNS.matcher(dictionary);
+        return unpredict(data, columns.find() ? Integer.parseInt(columns.group(1)) : 1);
+    }
+
+    /**
+     * Inflates Flate data starting at the given position, stopping at the end
+     * of the compressed data rather than relying on the stream length.
+     */
+    private static byte[] inflate(final ByteBuffer buffer, final int pos) {
+        final Inflater inflater = new Inflater();
+        try {
+            final ByteBuffer input = buffer.duplicate();
+            input.position(pos);
+            inflater.setInput(input);
+
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            final byte[] chunk = new byte[65536];
+            while (!inflater.finished()) {
+                final int inflated = inflater.inflate(chunk);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                out.write(chunk, 0, inflated);
+                if (out.size() > MAX_STREAM_SIZE) {
+                    return null;
+                }
+            }
+            return out.toByteArray();
+        } catch (final DataFormatException e) {
+            return null;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Reverses the PNG predictors applied to each row of the data, where every
+     * row starts with a byte giving the predictor used for it.
+     */
+    private static byte[] unpredict(final byte[] data, final int columns) {
+        final int rowSize = columns + 1;
+        final int rows = data.length / rowSize;
+        final byte[] result = new byte[rows * columns];
+        for (int row = 0; row < rows; row++) {
+            final int type = data[row * rowSize];
+            for (int col = 0; col < columns; col++) {
+                final int raw = data[row * rowSize + 1 + col] & 0xFF;
+                final int left = col > 0 ? result[row * columns + col - 1] & 0xFF : 0;
+                final int up = row > 0 ? result[(row - 1) * columns + col] & 0xFF : 0;
+                final int upLeft = row > 0 && col > 0 ? result[(row - 1) * columns + col - 1] & 0xFF : 0;
+                final int value;
+                switch (type) {
+                    case 0:
+                        value = raw;
+                        break;
+                    case 1:
+                        value = raw + left;
+                        break;
+                    case 2:
+                        value = raw + up;
+                        break;
+                    case 3:
+                        value = raw + (left + up) / 2;
+                        break;
+                    case 4:
+                        value = raw + paeth(left, up, upLeft);
+                        break;
+                    default:
+                        return null;
+                }
+                result[row * columns + col] = (byte) value;
+            }
+        }
+        return result;
+    }
+
+    private static int paeth(final int left, final int up, final int upLeft) {
+        final int estimate = left + up - upLeft;
+        final int leftDistance = Math.abs(estimate - left);
+        final int upDistance = Math.abs(estimate - up);
+        final int upLeftDistance = Math.abs(estimate - upLeft);
+        if (leftDistance <= upDistance && leftDistance <= upLeftDistance) {
+            return left;
+        }
+        return upDistance <= upLeftDistance ? up : upLeft;
+    }
+
+    /**
+     * Returns the text of the dictionary starting at or after the given
+     * position, stopping at the end of the object.
+     */
+    private static String dictionary(final ByteBuffer buffer, final int pos) {
+        final String text = text(buffer, pos, MAX_OBJECT_SIZE);
+        int end = text.length();
+        for (final String terminator : new String[] {"endobj", "stream", "startxref"}) {
+            final int index = text.indexOf(terminator);
+            if (index != -1 && index < end) {
+                end = index;
+            }
+        }
+        return text.substring(0, end);
+    }
+
+    private static int lastIndexOf(final ByteBuffer buffer, final byte[] pattern) {
+        for (int i = buffer.limit() - pattern.length; i > 0; i--) {
+            if (matchesAt(buffer, i, pattern) && isWhitespace(buffer.get(i - 1))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matchesAt(final ByteBuffer buffer, final int pos, final byte[] pattern) {
+        for (int j = 0; j < pattern.length; j++) {
+            if (buffer.get(pos + j) != pattern[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int skipWhitespace(final ByteBuffer buffer, int pos) {
+        while (pos < buffer.limit() && isWhitespace(buffer.get(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    private static boolean isWhitespace(final byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0;
+    }
+
+    private static byte[] bytes(final ByteBuffer buffer, final int pos, final int length) {
+        final int end = Math.min(buffer.limit(), pos + length);
+        final byte[] bytes = new byte[Math.max(0, end - pos)];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(pos + i);
+        }
+        return bytes;
+    }
+
+    private static String text(final ByteBuffer buffer, final int pos, final int length) {
+        return new String(bytes(buffer, pos, length), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * The locations of objects found in the cross reference sections read so
+     * far. Sections are read from the newest, so the first location found for
+     * an object is kept.
+     */
+    private static final class CrossReferences {
+
+        private final Map<Integer, Integer> offsets = new HashMap<>();
+        private final Map<Integer, int[]> compressed = new HashMap<>();
+        private final Set<Integer> free = new HashSet<>();
+        private final Map<Integer, ObjectStream> objectStreams = new HashMap<>();
+        private boolean streams;
+
+        private boolean isKnown(final int objectNumber) {
+            return offsets.containsKey(objectNumber) || compressed.containsKey(objectNumber) || free.contains(objectNumber);
+        }
+
+        private void putOffset(final int objectNumber, final int offset) {
+            if (!isKnown(objectNumber)) {
+                offsets.put(objectNumber, offset);
+            }
+        }
+
+        private void putCompressed(final int objectNumber, final int streamNumber, final int index) {
+            if (!isKnown(objectNumber)) {
+                compressed.put(objectNumber, new int[] {streamNumber, index});
+            }
+        }
+
+        private void putFree(final int objectNumber) {
+            if (!isKnown(objectNumber)) {
+                free.add(objectNumber);
+            }
+        }
+    }
+
+    /**
+     * The decoded content of an object stream.
+     */
+    private static final class ObjectStream {
+
+        private final String objects;
+        private final int count;
+        private final int first;
+
+        private ObjectStream(final String objects, final int count, final int first) {
+            this.objects = objects;
+            this.count = count;
+            this.first = first;
+        }
+    }
+}
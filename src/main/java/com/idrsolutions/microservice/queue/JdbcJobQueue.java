@@ -0,0 +1,172 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.queue;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link JobQueue} held in a table of a shared JDBC database, normally the
+ * external database used for conversion status.
+ * <p>
+ * A waiting job has a lease expiry of 0. Nodes claim a job by setting their
+ * id and a lease expiry on a row whose lease has expired, which only one node
+ * can do, so no locks are held between statements. Lease times are taken from
+ * each node's clock, so the clocks of the nodes should be kept in step.
+ * <p>
+ * Jobs are claimed oldest first. Each node claims no more jobs than it has
+ * conversion slots, so its scheduler never has claimed jobs to choose
+ * between, and jobs shared through this queue run in FIFO order whatever
+ * schedulerPolicy is set.
+ */
+public class JdbcJobQueue implements JobQueue {
+
+    private static final String TABLE = "buildvu_job_queue";
+
+    /** How many claimable jobs are read at once, in case other nodes claim the first ones. */
+    private static final int CLAIM_CANDIDATES = 5;
+
+    private final ConnectionFactory connectionFactory;
+
+    /**
+     * Opens connections to the database holding the queue.
+     */
+    public interface ConnectionFactory {
+
+        /**
+         * @return a new connection, closed by the caller
+         * @throws SQLException if a connection cannot be opened
+         */
+        Connection getConnection() throws SQLException;
+    }
+
+    /**
+     * Creates the queue, creating its table if it does not exist.
+     *
+     * @param connectionFactory opens connections to the database holding the queue
+     * @throws IOException if the table cannot be created
+     */
+    public JdbcJobQueue(final ConnectionFactory connectionFactory) throws IOException {
+        this.connectionFactory = connectionFactory;
+        try (Connection connection = connectionFactory.getConnection();
+             Statement statement = connection.createStatement()) {
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS " + TABLE + " ("
+                    + "uuid VARCHAR(64) NOT NULL PRIMARY KEY, "
+                    + "input_name VARCHAR(1024) NOT NULL, "
+                    + "input_path VARCHAR(4096) NOT NULL, "
+                    + "input_url VARCHAR(4096), "
+                    + "context_url VARCHAR(4096) NOT NULL, "
+                    + "client_id VARCHAR(1024), "
+                    + "owner VARCHAR(255), "
+                    + "lease_expires BIGINT NOT NULL, "
+                    + "attempts INT NOT NULL, "
+                    + "created BIGINT NOT NULL)");
+        } catch (final SQLException e) {
+            throw new IOException("Unable to create the job queue table", e);
+        }
+    }
+
+    @Override
+    public void enqueue(final QueuedJob job) throws IOException {
+        try (Connection connection = connectionFactory.getConnection();
+             PreparedStatement statement = connection.prepareStatement("INSERT INTO " + TABLE
+                     + " (uuid, input_name, input_path, input_url, context_url, client_id, owner, lease_expires, attempts, created)"
+                     + " VALUES (?, ?, ?, ?, ?, ?, NULL, 0, 0, ?)")) {
+            statement.setString(1, job.getUuid());
+            statement.setString(2, job.getInputName());
+            statement.setString(3, job.getInputPath());
+            statement.setString(4, job.getInputUrl());
+            statement.setString(5, job.getContextUrl());
+            statement.setString(6, job.getClientId());
+            statement.setLong(7, System.currentTimeMillis());
+            statement.executeUpdate();
+        } catch (final SQLException e) {
+            throw new IOException("Unable to queue " + job.getUuid(), e);
+        }
+    }
+
+    @Override
+    public QueuedJob claim(final String nodeId, final long leaseDuration) throws IOException {
+        try (Connection connection = connectionFactory.getConnection()) {
+            final long now = System.currentTimeMillis();
+            final List<QueuedJob> candidates = new ArrayList<>();
+            try (PreparedStatement statement = connection.prepareStatement("SELECT uuid, input_name, input_path, input_url, context_url, client_id, attempts FROM "
+                    + TABLE + " WHERE lease_expires < ? ORDER BY created")) {
+                // Rather than LIMIT, which not every database supports
+                statement.setMaxRows(CLAIM_CANDIDATES);
+                statement.setLong(1, now);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        candidates.add(new QueuedJob(resultSet.getString(1), resultSet.getString(2), resultSet.getString(3),
+                                resultSet.getString(4), resultSet.getString(5), resultSet.getString(6), resultSet.getInt(7) + 1));
+                    }
+                }
+            }
+
+            try (PreparedStatement statement = connection.prepareStatement("UPDATE " + TABLE
+                    + " SET owner = ?, lease_expires = ?, attempts = attempts + 1 WHERE uuid = ? AND lease_expires < ?")) {
+                for (final QueuedJob candidate : candidates) {
+                    statement.setString(1, nodeId);
+                    statement.setLong(2, now + leaseDuration);
+                    statement.setString(3, candidate.getUuid());
+                    statement.setLong(4, now);
+                    // Another node claimed the job first if no row was updated
+                    if (statement.executeUpdate() == 1) {
+                        return candidate;
+                    }
+                }
+            }
+            return null;
+        } catch (final SQLException e) {
+            throw new IOException("Unable to claim a job", e);
+        }
+    }
+
+    @Override
+    public boolean renew(final String uuid, final String nodeId, final long leaseDuration) throws IOException {
+        try (Connection connection = connectionFactory.getConnection();
+             PreparedStatement statement = connection.prepareStatement("UPDATE " + TABLE
+                     + " SET lease_expires = ? WHERE uuid = ? AND owner = ?")) {
+            statement.setLong(1, System.currentTimeMillis() + leaseDuration);
+            statement.setString(2, uuid);
+            statement.setString(3, nodeId);
+            return statement.executeUpdate() == 1;
+        } catch (final SQLException e) {
+            throw new IOException("Unable to renew the lease of " + uuid, e);
+        }
+    }
+
+    @Override
+    public void complete(final String uuid, final String nodeId) throws IOException {
+        try (Connection connection = connectionFactory.getConnection();
+             PreparedStatement statement = connection.prepareStatement("DELETE FROM " + TABLE + " WHERE uuid = ? AND owner = ?")) {
+            statement.setString(1, uuid);
+            statement.setString(2, nodeId);
+            statement.executeUpdate();
+        } catch (final SQLException e) {
+            throw new IOException("Unable to remove " + uuid + " from the job queue", e);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.queue;
+
+import java.io.IOException;
+
+/**
+ * Conversions waiting to be claimed by any of the nodes sharing the queue.
+ * <p>
+ * A claimed job is leased to the node that claimed it. The node renews the
+ * lease while the conversion runs and removes the job when it ends. A job
+ * whose lease expires, because its node stopped, can be claimed again by
+ * another node.
+ */
+public interface JobQueue {
+
+    /**
+     * Adds a job for any node to claim.
+     *
+     * @param job the job, its attempts are ignored
+     * @throws IOException if the job cannot be added
+     */
+    void enqueue(QueuedJob job) throws IOException;
+
+    /**
+     * Claims the oldest job that is waiting or whose lease has expired. The
+     * scheduling policy is not applied to the jobs in the queue.
+     *
+     * @param nodeId the id of the claiming node
+     * @param leaseDuration the time in milliseconds the claim lasts unless renewed
+     * @return the claimed job, or null if there are none to claim
+     * @throws IOException if the queue cannot be read
+     */
+    QueuedJob claim(String nodeId, long leaseDuration) throws IOException;
+
+    /**
+     * Extends the lease of a claimed job.
+     *
+     * @param uuid the uuid of the job
+     * @param nodeId the id of the node holding the lease
+     * @param leaseDuration the time in milliseconds from now the lease lasts
+     * @return false if the node no longer holds the lease
+     * @throws IOException if the lease cannot be updated
+     */
+    boolean renew(String uuid, String nodeId, long leaseDuration) throws IOException;
+
+    /**
+     * Removes a claimed job once its conversion has ended.
+     *
+     * @param uuid the uuid of the job
+     * @param nodeId the id of the node holding the lease
+     * @throws IOException if the job cannot be removed
+     */
+    void complete(String uuid, String nodeId) throws IOException;
+}
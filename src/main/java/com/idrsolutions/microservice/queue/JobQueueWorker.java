@@ -0,0 +1,218 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.queue;
+
+import com.idrsolutions.microservice.status.StatusUpdater;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Claims jobs from a {@link JobQueue} and runs them on this node, keeping the
+ * lease of each running job renewed until it ends.
+ * <p>
+ * Each worker thread runs one job at a time, so a node claims no more jobs
+ * than it has threads. Idle threads check the queue every
+ * {@value #POLL_INTERVAL}ms, or straight away when this node queues a job.
+ */
+public class JobQueueWorker {
+
+    private static final Logger LOG = Logger.getLogger(JobQueueWorker.class.getName());
+
+    /** The interval in milliseconds between checks of the queue by an idle worker thread. */
+    private static final long POLL_INTERVAL = 1000;
+
+    private final JobQueue jobQueue;
+    private final long leaseDuration;
+    private final int maxAttempts;
+    private final JobRunner jobRunner;
+    private final String nodeId;
+    private final Set<String> runningJobs = ConcurrentHashMap.newKeySet();
+    private final Object wakeLock = new Object();
+    private final ExecutorService workerService;
+    private final ScheduledExecutorService leaseService;
+
+    private volatile boolean running = true;
+
+    /**
+     * Runs a claimed job on this node.
+     */
+    public interface JobRunner {
+
+        /**
+         * Runs the conversion of the job, returning once it has ended.
+         *
+         * @param job the claimed job
+         */
+        void run(QueuedJob job);
+    }
+
+    /**
+     * Starts the worker threads.
+     *
+     * @param jobQueue the queue to claim jobs from
+     * @param threadCount the number of jobs this node may run at once
+     * @param leaseDuration the time in milliseconds a claim lasts without being renewed
+     * @param maxAttempts the number of times a job may be claimed before it is failed
+     * @param jobRunner runs each claimed job
+     */
+    public JobQueueWorker(final JobQueue jobQueue, final int threadCount, final long leaseDuration, final int maxAttempts,
+                          final JobRunner jobRunner) {
+        this.jobQueue = jobQueue;
+        this.leaseDuration = leaseDuration;
+        this.maxAttempts = maxAttempts;
+        this.jobRunner = jobRunner;
+        nodeId = createNodeId();
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        workerService = Executors.newFixedThreadPool(threadCount, r -> {
+            final Thread thread = new Thread(r, "buildvu-queue-worker-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < threadCount; i++) {
+            workerService.execute(this::work);
+        }
+
+        leaseService = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "buildvu-queue-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Renewed well before expiry so that a slow database does not lose the lease
+        final long renewInterval = Math.max(1, leaseDuration / 3);
+        leaseService.scheduleWithFixedDelay(this::renewLeases, renewInterval, renewInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Wakes an idle worker thread to check the queue, used after this node queues a job.
+     */
+    public void wake() {
+        synchronized (wakeLock) {
+            wakeLock.notify();
+        }
+    }
+
+    /**
+     * Stops claiming jobs and stops the worker threads. Running jobs are
+     * interrupted and their leases are left to expire, so that another node
+     * can claim them.
+     */
+    public void shutdown() {
+        running = false;
+        leaseService.shutdownNow();
+        workerService.shutdownNow();
+    }
+
+    private void work() {
+        while (running) {
+            final QueuedJob job;
+            try {
+                job = jobQueue.claim(nodeId, leaseDuration);
+            } catch (final IOException e) {
+                LOG.log(Level.WARNING, "Unable to claim a job from the queue", e);
+                if (!idle()) {
+                    return;
+                }
+                continue;
+            }
+
+            if (job == null) {
+                if (!idle()) {
+                    return;
+                }
+                continue;
+            }
+
+            runningJobs.add(job.getUuid());
+            try {
+                if (job.getAttempts() > maxAttempts) {
+                    LOG.log(Level.SEVERE, "Conversion " + job.getUuid() + " was claimed " + maxAttempts + " times without finishing");
+                    StatusUpdater.getInstance().setError(job.getUuid(), 1220, "Conversion did not finish after " + maxAttempts + " attempts");
+                } else {
+                    jobRunner.run(job);
+                }
+            } catch (final RuntimeException e) {
+                LOG.log(Level.SEVERE, "Exception thrown when running queued conversion " + job.getUuid(), e);
+                StatusUpdater.getInstance().setError(job.getUuid(), 1220, "Exception thrown when converting input: " + e.getMessage());
+            } finally {
+                runningJobs.remove(job.getUuid());
+            }
+
+            if (running) {
+                try {
+                    jobQueue.complete(job.getUuid(), nodeId);
+                } catch (final IOException e) {
+                    LOG.log(Level.WARNING, "Unable to remove " + job.getUuid() + " from the queue, it will be failed when its lease expires", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until the poll interval passes or this node queues a job.
+     *
+     * @return false if the worker thread was interrupted and should stop
+     */
+    private boolean idle() {
+        synchronized (wakeLock) {
+            try {
+                wakeLock.wait(POLL_INTERVAL);
+                return true;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+
+    private void renewLeases() {
+        for (final String uuid : runningJobs) {
+            try {
+                if (!jobQueue.renew(uuid, nodeId, leaseDuration)) {
+                    LOG.log(Level.WARNING, "The lease of " + uuid + " has been lost, it may be converted again by another node");
+                }
+            } catch (final IOException e) {
+                LOG.log(Level.WARNING, "Unable to renew the lease of " + uuid, e);
+            }
+        }
+    }
+
+    private static String createNodeId() {
+        String hostName;
+        try {
+            hostName = InetAddress.getLocalHost().getHostName();
+        } catch (final UnknownHostException e) {
+            hostName = "unknown";
+        }
+        // Several instances may run on one host
+        return hostName + '-' + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.queue;
+
+/**
+ * A conversion held in a {@link JobQueue} until a node claims it.
+ */
+public final class QueuedJob {
+
+    private final String uuid;
+    private final String inputName;
+    private final String inputPath;
+    private final String inputUrl;
+    private final String contextUrl;
+    private final String clientId;
+    private final int attempts;
+
+    /**
+     * Creates the job.
+     *
+     * @param uuid the uuid of the conversion
+     * @param inputName the file name of the input
+     * @param inputPath the path of the input on the node that received it
+     * @param inputUrl the url of the input in remote storage, or null if it was not uploaded
+     * @param contextUrl the context url of the request that submitted the conversion
+     * @param clientId the client that submitted the conversion
+     * @param attempts the number of times the job has been claimed
+     */
+    public QueuedJob(final String uuid, final String inputName, final String inputPath, final String inputUrl,
+                     final String contextUrl, final String clientId, final int attempts) {
+        this.uuid = uuid;
+        this.inputName = inputName;
+        this.inputPath = inputPath;
+        this.inputUrl = inputUrl;
+        this.contextUrl = contextUrl;
+        this.clientId = clientId;
+        this.attempts = attempts;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public String getInputName() {
+        return inputName;
+    }
+
+    /**
+     * @return the path of the input on the node that received it, which other
+     * nodes can use when the input path is on shared storage
+     */
+    public String getInputPath() {
+        return inputPath;
+    }
+
+    /**
+     * @return the url of the input in remote storage, or null if it was not uploaded
+     */
+    public String getInputUrl() {
+        return inputUrl;
+    }
+
+    public String getContextUrl() {
+        return contextUrl;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    /**
+     * @return the number of times the job has been claimed, including the current claim
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+}
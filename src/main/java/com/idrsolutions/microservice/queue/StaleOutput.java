@@ -0,0 +1,80 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.queue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Removes the output left by an earlier attempt at a reclaimed job, whose node
+ * stopped while converting it, so that the job is converted again from scratch.
+ */
+public final class StaleOutput {
+
+    /** The directories page range shards are written to within the input directory. */
+    private static final Pattern SHARD_DIR = Pattern.compile("shard-\\d+");
+
+    private StaleOutput() {
+    }
+
+    /**
+     * Removes the output directory, output zip and shard directories of an
+     * earlier attempt at the job. Nothing is removed on the first attempt.
+     *
+     * @param job the claimed job
+     * @param inputDir the directory containing the input file of the job
+     * @param outputDir the output directory of the job
+     * @param outputZip the output zip of the job
+     * @throws IOException if the output of the earlier attempt cannot be removed
+     */
+    public static void remove(final QueuedJob job, final File inputDir, final File outputDir, final File outputZip) throws IOException {
+        if (job.getAttempts() <= 1) {
+            return;
+        }
+
+        deleteRecursively(outputDir.toPath());
+        Files.deleteIfExists(outputZip.toPath());
+        final File[] shardDirs = inputDir.listFiles(file -> file.isDirectory() && SHARD_DIR.matcher(file.getName()).matches());
+        if (shardDirs != null) {
+            for (final File shardDir : shardDirs) {
+                deleteRecursively(shardDir.toPath());
+            }
+        }
+    }
+
+    private static void deleteRecursively(final Path dir) throws IOException {
+        if (!Files.exists(dir)) {
+            return;
+        }
+        final List<Path> files;
+        try (Stream<Path> paths = Files.walk(dir)) {
+            files = paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (final Path file : files) {
+            Files.delete(file);
+        }
+    }
+}
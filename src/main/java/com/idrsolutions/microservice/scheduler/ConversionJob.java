@@ -0,0 +1,103 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.scheduler;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A conversion waiting for, or holding, a slot in the {@link ConversionScheduler}.
+ */
+public final class ConversionJob {
+
+    private final String uuid;
+    private final String clientId;
+    private final int pageCount;
+    private final long fileSize;
+    private final int memory;
+    private final CountDownLatch admitted = new CountDownLatch(1);
+    private long queuedTime;
+    private long admittedTime;
+
+    /**
+     * Creates the job.
+     *
+     * @param uuid the uuid of the conversion
+     * @param clientId the client that submitted the conversion
+     * @param pageCount the page count of the document, or an estimate if it is not yet known
+     * @param fileSize the size of the input file in bytes
+     * @param memory the memory in megabytes reserved for the conversion against the scheduler's memory budget
+     */
+    public ConversionJob(final String uuid, final String clientId, final int pageCount, final long fileSize, final int memory) {
+        this.uuid = uuid;
+        this.clientId = clientId;
+        this.pageCount = pageCount;
+        this.fileSize = fileSize;
+        this.memory = memory;
+    }
+
+    public String getUuid() {
+        return uuid;
+    }
+
+    public String getClientId() {
+        return clientId;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public long getFileSize() {
+        return fileSize;
+    }
+
+    /**
+     * @return the memory in megabytes reserved for the conversion
+     */
+    public int getMemory() {
+        return memory;
+    }
+
+    /**
+     * @return the time in milliseconds the job was queued at
+     */
+    public long getQueuedTime() {
+        return queuedTime;
+    }
+
+    /**
+     * @return the time in milliseconds the job was given a slot at, or 0 if it is still waiting
+     */
+    public long getAdmittedTime() {
+        return admittedTime;
+    }
+
+    void queued(final long time) {
+        queuedTime = time;
+    }
+
+    void admit(final long time) {
+        admittedTime = time;
+        admitted.countDown();
+    }
+
+    void awaitAdmission() throws InterruptedException {
+        admitted.await();
+    }
+}
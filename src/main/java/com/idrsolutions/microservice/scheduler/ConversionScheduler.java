@@ -0,0 +1,209 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Limits the conversions running at once, handing capacity to waiting
+ * conversions in the order chosen by a {@link SchedulingPolicy}.
+ * <p>
+ * Without a memory budget, capacity is a fixed number of slots. With a memory
+ * budget, a conversion is admitted when the memory it reserves fits within the
+ * budget, so many small conversions or a few large ones can run at once. A
+ * single conversion is always admitted when nothing else is running, even if
+ * it is larger than the budget.
+ * <p>
+ * Page range shards of a running conversion may borrow spare capacity through
+ * {@link #tryAcquireExtra(int)}, but only while no conversion is waiting.
+ */
+public class ConversionScheduler {
+
+    private final int slots;
+    private final long memoryBudget;
+    private final SchedulingPolicy policy;
+
+    private final List<ConversionJob> waiting = new ArrayList<>();
+    private final List<ConversionJob> running = new ArrayList<>();
+    private int extraRunning;
+    private long reservedMemory;
+    private int pendingReservations;
+
+    private long admittedCount;
+    private long totalWaitTime;
+    private long maxWaitTime;
+
+    /**
+     * @param slots the maximum number of conversions, including borrowed shard slots, to run at once
+     * when there is no memory budget
+     * @param memoryBudget the total memory in megabytes conversions may reserve at once, or 0 to limit
+     * conversions by slots instead
+     * @param policy the policy used to choose the next conversion to run
+     */
+    public ConversionScheduler(final int slots, final long memoryBudget, final SchedulingPolicy policy) {
+        this.slots = slots;
+        this.memoryBudget = memoryBudget;
+        this.policy = policy;
+    }
+
+    public int getSlots() {
+        return slots;
+    }
+
+    /**
+     * Queues the job and waits until it is given a slot. The slot must be
+     * returned with {@link #release(ConversionJob)}.
+     *
+     * @param job the job to run
+     * @throws InterruptedException if the thread is interrupted while waiting, the job is
+     * removed from the queue in that case
+     */
+    public void acquire(final ConversionJob job) throws InterruptedException {
+        synchronized (this) {
+            job.queued(System.currentTimeMillis());
+            waiting.add(job);
+            dispatch();
+        }
+
+        try {
+            job.awaitAdmission();
+        } catch (final InterruptedException e) {
+            synchronized (this) {
+                if (!waiting.remove(job)) {
+                    release(job);
+                }
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the slot held by the job and hands it to the next waiting job.
+     *
+     * @param job the job that has finished
+     */
+    public synchronized void release(final ConversionJob job) {
+        if (running.remove(job)) {
+            reservedMemory -= job.getMemory();
+            dispatch();
+        }
+    }
+
+    /**
+     * Takes spare capacity for a page range shard if there is some and no job is waiting.
+     *
+     * @param memory the memory in megabytes the shard reserves
+     * @return true if capacity was taken, it must be returned with {@link #releaseExtra(int)}
+     */
+    public synchronized boolean tryAcquireExtra(final int memory) {
+        if (waiting.isEmpty() && pendingReservations == 0 && canAdmit(memory)) {
+            extraRunning++;
+            reservedMemory += memory;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns capacity taken with {@link #tryAcquireExtra(int)}.
+     *
+     * @param memory the memory in megabytes the shard reserved
+     */
+    public synchronized void releaseExtra(final int memory) {
+        extraRunning--;
+        reservedMemory -= memory;
+        dispatch();
+    }
+
+    /**
+     * Reserves more memory for a running conversion, such as when it is retried
+     * with a larger heap, waiting until it fits within the memory budget. New
+     * conversions are not admitted while a reservation is waiting.
+     *
+     * @param memory the additional memory in megabytes, returned with {@link #releaseMemory(int)}
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public synchronized void reserveMemory(final int memory) throws InterruptedException {
+        pendingReservations++;
+        try {
+            // Stop waiting once every running conversion is itself waiting to reserve memory, as none would finish
+            while (memoryBudget > 0 && reservedMemory + memory > memoryBudget && running.size() + extraRunning > pendingReservations) {
+                wait();
+            }
+            reservedMemory += memory;
+        } finally {
+            pendingReservations--;
+        }
+    }
+
+    /**
+     * Returns memory reserved with {@link #reserveMemory(int)}.
+     *
+     * @param memory the memory in megabytes to return
+     */
+    public synchronized void releaseMemory(final int memory) {
+        reservedMemory -= memory;
+        dispatch();
+    }
+
+    private boolean canAdmit(final int memory) {
+        if (memoryBudget > 0) {
+            return reservedMemory + memory <= memoryBudget || running.size() + extraRunning == 0;
+        }
+        return running.size() + extraRunning < slots;
+    }
+
+    private void dispatch() {
+        // Wake any conversion waiting to reserve memory, it takes priority over queued conversions
+        notifyAll();
+        if (pendingReservations > 0) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        while (!waiting.isEmpty()) {
+            final ConversionJob next = policy.select(waiting, running, now);
+            if (next == null || !canAdmit(next.getMemory())) {
+                return;
+            }
+
+            waiting.remove(next);
+            running.add(next);
+            reservedMemory += next.getMemory();
+
+            final long waitTime = now - next.getQueuedTime();
+            admittedCount++;
+            totalWaitTime += waitTime;
+            maxWaitTime = Math.max(maxWaitTime, waitTime);
+
+            next.admit(now);
+        }
+    }
+
+    /**
+     * @return a snapshot of the queue depth and wait times
+     */
+    public synchronized SchedulerStats getStats() {
+        final long now = System.currentTimeMillis();
+        final long oldestWaitTime = waiting.stream().mapToLong(job -> now - job.getQueuedTime()).max().orElse(0);
+        return new SchedulerStats(policy.getName(), slots, memoryBudget, reservedMemory, waiting.size(), running.size() + extraRunning,
+                admittedCount, admittedCount > 0 ? totalWaitTime / admittedCount : 0, maxWaitTime, oldestWaitTime);
+    }
+}
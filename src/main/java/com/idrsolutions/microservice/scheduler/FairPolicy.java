@@ -0,0 +1,55 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.scheduler;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Shares slots between clients by running the oldest job of the client with
+ * the fewest jobs currently running.
+ */
+public class FairPolicy implements SchedulingPolicy {
+
+    @Override
+    public ConversionJob select(final List<ConversionJob> waiting, final List<ConversionJob> running, final long now) {
+        final Map<String, Integer> runningPerClient = new HashMap<>();
+        for (final ConversionJob job : running) {
+            runningPerClient.merge(job.getClientId(), 1, Integer::sum);
+        }
+
+        ConversionJob next = null;
+        int nextRunning = Integer.MAX_VALUE;
+        // Waiting jobs are in queue order, so each client's oldest job is seen first
+        for (final ConversionJob job : waiting) {
+            final int clientRunning = runningPerClient.getOrDefault(job.getClientId(), 0);
+            if (clientRunning < nextRunning) {
+                next = job;
+                nextRunning = clientRunning;
+            }
+        }
+        return next;
+    }
+
+    @Override
+    public String getName() {
+        return "fair";
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.scheduler;
+
+import java.util.List;
+
+/**
+ * Runs jobs in the order they were queued.
+ */
+public class FifoPolicy implements SchedulingPolicy {
+
+    @Override
+    public ConversionJob select(final List<ConversionJob> waiting, final List<ConversionJob> running, final long now) {
+        return waiting.get(0);
+    }
+
+    @Override
+    public String getName() {
+        return "fifo";
+    }
+}
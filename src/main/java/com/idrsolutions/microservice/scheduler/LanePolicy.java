@@ -0,0 +1,70 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.scheduler;
+
+import java.util.List;
+
+/**
+ * Splits jobs into a small lane and a large lane by page count. Small jobs may
+ * use any free slot and are preferred, while large jobs are limited to a set
+ * number of slots so that they can never hold up every small job.
+ */
+public class LanePolicy implements SchedulingPolicy {
+
+    private final int largeJobPages;
+    private final int largeLaneSlots;
+
+    /**
+     * @param largeJobPages the page count at or above which a job is in the large lane
+     * @param largeLaneSlots the maximum number of large jobs that may run at once
+     */
+    public LanePolicy(final int largeJobPages, final int largeLaneSlots) {
+        this.largeJobPages = largeJobPages;
+        this.largeLaneSlots = largeLaneSlots;
+    }
+
+    @Override
+    public ConversionJob select(final List<ConversionJob> waiting, final List<ConversionJob> running, final long now) {
+        ConversionJob firstLarge = null;
+        for (final ConversionJob job : waiting) {
+            if (!isLarge(job)) {
+                return job;
+            }
+            if (firstLarge == null) {
+                firstLarge = job;
+            }
+        }
+
+        final long runningLarge = running.stream().filter(this::isLarge).count();
+        return runningLarge < largeLaneSlots ? firstLarge : null;
+    }
+
+    /**
+     * @param job the job to check
+     * @return true if the job is in the large lane
+     */
+    public boolean isLarge(final ConversionJob job) {
+        return job.getPageCount() >= largeJobPages;
+    }
+
+    @Override
+    public String getName() {
+        return "lanes";
+    }
+}
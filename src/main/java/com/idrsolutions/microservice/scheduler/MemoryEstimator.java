@@ -0,0 +1,124 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.scheduler;
+
+import java.util.Map;
+
+/**
+ * Sizes the heap of each BuildVu process and the memory it reserves against
+ * the scheduler's memory budget.
+ * <p>
+ * When adaptive sizing is enabled the heap grows with the page count, file size
+ * and output scaling of the document, up to the conversionMemoryLimit. Otherwise
+ * every conversion uses the conversionMemoryLimit as before.
+ * <p>
+ * The conversionMemoryLimit only bounds the heap a conversion starts with. A
+ * conversion that runs out of memory is retried with double the heap, which
+ * is bounded by the conversionMemoryBudget instead, so that a document too
+ * large for the limit is still converted.
+ */
+public class MemoryEstimator {
+
+    /** Heap in megabytes needed by BuildVu regardless of the document. */
+    private static final int BASE_HEAP = 256;
+
+    /** Heap in megabytes added for each page of the document at a scaling of 1. */
+    private static final double HEAP_PER_PAGE = 2;
+
+    /** Heap in megabytes added for each megabyte of the input file, which covers large embedded images and fonts. */
+    private static final int HEAP_PER_FILE_MEGABYTE = 4;
+
+    /** Memory in megabytes used by a child JVM outside of its heap. */
+    private static final int JVM_OVERHEAD = 128;
+
+    /** Heap in megabytes assumed for the JVM default when no limit is set. */
+    private static final int DEFAULT_HEAP = 1024;
+
+    private static final String SCALING = "org.jpedal.pdf2html.scaling";
+
+    private final boolean adaptive;
+    private final int memoryLimit;
+    private final long memoryBudget;
+
+    /**
+     * @param adaptive true to size the heap of each conversion from its document
+     * @param memoryLimit the conversionMemoryLimit in megabytes, the largest heap any conversion starts with,
+     * or 0 for the JVM default
+     * @param memoryBudget the conversionMemoryBudget in megabytes, or 0 if conversions are limited by slots
+     */
+    public MemoryEstimator(final boolean adaptive, final int memoryLimit, final long memoryBudget) {
+        this.adaptive = adaptive;
+        this.memoryLimit = memoryLimit;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Returns the heap to give the BuildVu process converting the document.
+     *
+     * @param pageCount the page count, or an estimate of it for office documents
+     * @param fileSize the size of the input file in bytes
+     * @param settings the conversion settings
+     * @return the heap in megabytes, or 0 to use the JVM default
+     */
+    public int estimateHeap(final int pageCount, final long fileSize, final Map<String, String> settings) {
+        if (!adaptive) {
+            return memoryLimit;
+        }
+
+        final long heap = BASE_HEAP + Math.round(pageCount * HEAP_PER_PAGE * getScaling(settings))
+                + HEAP_PER_FILE_MEGABYTE * fileSize / (1024 * 1024);
+        return (int) (memoryLimit > 0 ? Math.min(heap, memoryLimit) : Math.min(heap, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Returns the heap to retry a conversion with after it ran out of memory,
+     * which is double the heap it ran out of memory with as far as the memory
+     * budget allows.
+     *
+     * @param heap the heap in megabytes the conversion ran out of memory with, 0 for the JVM default
+     * @return the larger heap in megabytes, or 0 if the heap cannot be increased
+     */
+    public int getRetryHeap(final int heap) {
+        if (heap <= 0) {
+            return 0;
+        }
+        final long retryHeap = memoryBudget > 0 ? Math.min(heap * 2L, memoryBudget - JVM_OVERHEAD) : heap * 2L;
+        return retryHeap > heap ? (int) Math.min(retryHeap, Integer.MAX_VALUE) : 0;
+    }
+
+    /**
+     * Returns the memory a BuildVu process with the given heap reserves against
+     * the scheduler's memory budget.
+     *
+     * @param heap the heap in megabytes, 0 for the JVM default
+     * @return the reservation in megabytes
+     */
+    public static int getReservation(final int heap) {
+        return (heap > 0 ? heap : DEFAULT_HEAP) + JVM_OVERHEAD;
+    }
+
+    private static double getScaling(final Map<String, String> settings) {
+        final String scaling = settings.get(SCALING);
+        if (scaling != null && scaling.matches("\\d+(\\.\\d+)?")) {
+            return Math.max(1, Double.parseDouble(scaling));
+        }
+        // Fit to width / height scalings are bounded by their size rather than the page, so they are treated as 1
+        return 1;
+    }
+}
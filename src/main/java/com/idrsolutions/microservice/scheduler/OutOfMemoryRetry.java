@@ -0,0 +1,148 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.scheduler;
+
+import com.idrsolutions.microservice.utils.ProcessUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Retries a BuildVu conversion that ran out of memory once in a new process
+ * with a larger heap, after reserving the extra memory with the scheduler.
+ * <p>
+ * The first attempt may run in a new process or on a worker of the worker
+ * pool, either of which leaves the out of memory marker when it runs out of
+ * memory. The retry always runs in a new process, as the heap of a worker is
+ * fixed when the pool starts.
+ */
+public class OutOfMemoryRetry {
+
+    private static final Logger LOG = Logger.getLogger(OutOfMemoryRetry.class.getName());
+
+    /**
+     * Runs one attempt at a conversion.
+     */
+    @FunctionalInterface
+    public interface Attempt {
+
+        /**
+         * @param maxDuration the maximum duration of the attempt in milliseconds
+         * @return the result of the attempt
+         */
+        ProcessUtils.Result run(long maxDuration);
+    }
+
+    /**
+     * Runs an attempt at a conversion in a new process.
+     */
+    @FunctionalInterface
+    public interface ProcessAttempt {
+
+        /**
+         * @param heap the heap in megabytes to give the process
+         * @param maxDuration the maximum duration of the attempt in milliseconds
+         * @return the result of the attempt
+         */
+        ProcessUtils.Result run(int heap, long maxDuration);
+    }
+
+    private final MemoryEstimator memoryEstimator;
+    private final ConversionScheduler scheduler;
+
+    /**
+     * @param memoryEstimator sizes the heap of the retry
+     * @param scheduler reserves the memory of the retry
+     */
+    public OutOfMemoryRetry(final MemoryEstimator memoryEstimator, final ConversionScheduler scheduler) {
+        this.memoryEstimator = memoryEstimator;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Runs the first attempt, then retries it in a new process if it ran out
+     * of memory and the heap can be increased. The marker is deleted once
+     * the conversion ends.
+     *
+     * @param uuid the uuid of the conversion
+     * @param firstAttempt the first attempt at the conversion
+     * @param usedHeap the heap in megabytes of the first attempt, 0 for the JVM default
+     * @param reservedHeap the heap in megabytes the conversion reserved with the scheduler
+     * @param maxDuration the maximum duration of the conversion in milliseconds, shared by both attempts
+     * @param outOfMemoryMarker the file left by an attempt that ran out of memory
+     * @param retry runs the retry in a new process
+     * @return the result of the last attempt
+     */
+    public ProcessUtils.Result run(final String uuid, final Attempt firstAttempt, final int usedHeap, final int reservedHeap,
+                                   final long maxDuration, final File outOfMemoryMarker, final ProcessAttempt retry) {
+        final long startTime = System.currentTimeMillis();
+        try {
+            final ProcessUtils.Result result = firstAttempt.run(maxDuration);
+            final int retryHeap = memoryEstimator.getRetryHeap(usedHeap);
+            if (result != ProcessUtils.Result.ERROR || !ranOutOfMemory(outOfMemoryMarker) || retryHeap == 0) {
+                return result;
+            }
+
+            final long remaining = maxDuration > 0 ? maxDuration - (System.currentTimeMillis() - startTime) : maxDuration;
+            if (maxDuration > 0 && remaining <= 0) {
+                return ProcessUtils.Result.TIMEOUT;
+            }
+
+            LOG.log(Level.INFO, "Conversion " + uuid + " ran out of memory with a " + usedHeap + "MB heap, retrying with " + retryHeap + "MB");
+            final int extraMemory = Math.max(0, MemoryEstimator.getReservation(retryHeap) - MemoryEstimator.getReservation(reservedHeap));
+            try {
+                scheduler.reserveMemory(extraMemory);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return ProcessUtils.Result.ERROR;
+            }
+            try {
+                return retry.run(retryHeap, remaining);
+            } finally {
+                scheduler.releaseMemory(extraMemory);
+            }
+        } finally {
+            if (outOfMemoryMarker.exists() && !outOfMemoryMarker.delete()) {
+                LOG.log(Level.WARNING, "Unable to delete " + outOfMemoryMarker.getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Returns true if the BuildVu process or worker that wrote the marker ran out of memory.
+     * <p>
+     * Workers create an empty marker, a new process writes its fatal error log to it.
+     */
+    private static boolean ranOutOfMemory(final File outOfMemoryMarker) {
+        if (!outOfMemoryMarker.exists()) {
+            return false;
+        }
+        try {
+            return outOfMemoryMarker.length() == 0
+                    || new String(Files.readAllBytes(outOfMemoryMarker.toPath()), StandardCharsets.ISO_8859_1).contains("OutOfMemory");
+        } catch (final IOException e) {
+            LOG.log(Level.WARNING, "Unable to read " + outOfMemoryMarker.getAbsolutePath(), e);
+            return false;
+        }
+    }
+}
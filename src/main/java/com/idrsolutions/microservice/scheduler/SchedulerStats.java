@@ -0,0 +1,115 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.scheduler;
+
+/**
+ * A snapshot of the state of the {@link ConversionScheduler}, used to tune its
+ * configuration.
+ */
+public final class SchedulerStats {
+
+    private final String policy;
+    private final int slots;
+    private final long memoryBudget;
+    private final long reservedMemory;
+    private final int queueDepth;
+    private final int running;
+    private final long admittedCount;
+    private final long averageWaitTime;
+    private final long maxWaitTime;
+    private final long oldestWaitTime;
+
+    SchedulerStats(final String policy, final int slots, final long memoryBudget, final long reservedMemory, final int queueDepth, final int running, final long admittedCount,
+                   final long averageWaitTime, final long maxWaitTime, final long oldestWaitTime) {
+        this.policy = policy;
+        this.slots = slots;
+        this.memoryBudget = memoryBudget;
+        this.reservedMemory = reservedMemory;
+        this.queueDepth = queueDepth;
+        this.running = running;
+        this.admittedCount = admittedCount;
+        this.averageWaitTime = averageWaitTime;
+        this.maxWaitTime = maxWaitTime;
+        this.oldestWaitTime = oldestWaitTime;
+    }
+
+    public String getPolicy() {
+        return policy;
+    }
+
+    public int getSlots() {
+        return slots;
+    }
+
+    /**
+     * @return the total memory in megabytes conversions may reserve, or 0 if conversions are limited by slots
+     */
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return the memory in megabytes currently reserved by running conversions
+     */
+    public long getReservedMemory() {
+        return reservedMemory;
+    }
+
+    /**
+     * @return the number of conversions waiting for a slot
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * @return the number of slots in use, including those borrowed by page range shards
+     */
+    public int getRunning() {
+        return running;
+    }
+
+    /**
+     * @return the number of conversions given a slot since startup
+     */
+    public long getAdmittedCount() {
+        return admittedCount;
+    }
+
+    /**
+     * @return the average time in milliseconds conversions waited for a slot
+     */
+    public long getAverageWaitTime() {
+        return averageWaitTime;
+    }
+
+    /**
+     * @return the longest time in milliseconds a conversion waited for a slot
+     */
+    public long getMaxWaitTime() {
+        return maxWaitTime;
+    }
+
+    /**
+     * @return the time in milliseconds the oldest waiting conversion has waited so far
+     */
+    public long getOldestWaitTime() {
+        return oldestWaitTime;
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.scheduler;
+
+import java.util.List;
+
+/**
+ * Chooses which waiting conversion is given the next free slot in the
+ * {@link ConversionScheduler}.
+ */
+public interface SchedulingPolicy {
+
+    /**
+     * Selects the next job to run.
+     *
+     * @param waiting the waiting jobs, in the order they were queued
+     * @param running the jobs currently holding a slot
+     * @param now the current time in milliseconds
+     * @return the job to run next, or null if none of the waiting jobs should run yet
+     */
+    ConversionJob select(List<ConversionJob> waiting, List<ConversionJob> running, long now);
+
+    /**
+     * @return the name of the policy as used in the configuration file
+     */
+    String getName();
+}
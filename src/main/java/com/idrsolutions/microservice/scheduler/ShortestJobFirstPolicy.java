@@ -0,0 +1,58 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.scheduler;
+
+import java.util.List;
+
+/**
+ * Runs the job with the fewest pages first. To stop large jobs from waiting
+ * forever, each job's page count is reduced by the aging rate for every second
+ * it has waited.
+ */
+public class ShortestJobFirstPolicy implements SchedulingPolicy {
+
+    private final double agingRate;
+
+    /**
+     * @param agingRate the number of pages a job's priority improves by per second of waiting
+     */
+    public ShortestJobFirstPolicy(final double agingRate) {
+        this.agingRate = agingRate;
+    }
+
+    @Override
+    public ConversionJob select(final List<ConversionJob> waiting, final List<ConversionJob> running, final long now) {
+        ConversionJob next = null;
+        double nextCost = Double.MAX_VALUE;
+        // Waiting jobs are in queue order, so ties go to the job that has waited longest
+        for (final ConversionJob job : waiting) {
+            final double cost = job.getPageCount() - agingRate * (now - job.getQueuedTime()) / 1000.0;
+            if (cost < nextCost) {
+                next = job;
+                nextCost = cost;
+            }
+        }
+        return next;
+    }
+
+    @Override
+    public String getName() {
+        return "sjf";
+    }
+}
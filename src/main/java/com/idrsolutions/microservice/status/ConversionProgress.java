@@ -0,0 +1,101 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.status;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Tracks the pagesConverted count of a conversion from the pages BuildVu has
+ * written, combined across every page range shard of a sharded conversion.
+ * <p>
+ * The count is published through the {@link StatusUpdater}, so it is held and
+ * merged with other updates and listeners are told of it as it changes. The
+ * last page written by a running shard may still be in progress, so it is
+ * only counted once the next page is started or the shard finishes.
+ */
+public class ConversionProgress {
+
+    private final String uuid;
+    private final List<File> shardDirs;
+    private final int[] shardPages;
+    private final boolean[] finished;
+    private int published;
+
+    /**
+     * @param uuid the uuid of the conversion
+     * @param shardDirs the output directory of each shard
+     * @param pageRanges the first and last page of each shard
+     */
+    public ConversionProgress(final String uuid, final List<File> shardDirs, final List<int[]> pageRanges) {
+        this.uuid = uuid;
+        this.shardDirs = shardDirs;
+        shardPages = new int[pageRanges.size()];
+        for (int i = 0; i < shardPages.length; i++) {
+            shardPages[i] = pageRanges.get(i)[1] - pageRanges.get(i)[0] + 1;
+        }
+        finished = new boolean[shardPages.length];
+    }
+
+    /**
+     * Counts every page written by a shard as converted.
+     *
+     * @param shard the index of the shard that finished successfully
+     */
+    public synchronized void shardFinished(final int shard) {
+        finished[shard] = true;
+    }
+
+    /**
+     * @return the number of pages converted across all shards
+     */
+    public synchronized int getPagesConverted() {
+        int pagesConverted = 0;
+        for (int i = 0; i < shardPages.length; i++) {
+            final int written = countPages(shardDirs.get(i));
+            pagesConverted += Math.min(shardPages[i], finished[i] ? written : Math.max(0, written - 1));
+        }
+        return pagesConverted;
+    }
+
+    /**
+     * Publishes the pagesConverted value if it has increased since it was last published.
+     */
+    public synchronized void publish() {
+        final int pagesConverted = getPagesConverted();
+        if (pagesConverted > published) {
+            published = pagesConverted;
+            StatusUpdater.getInstance().setCustomValue(uuid, "pagesConverted", String.valueOf(pagesConverted));
+        }
+    }
+
+    private static int countPages(final File dir) {
+        final String[] fileNames = dir.list();
+        if (fileNames == null) {
+            return 0;
+        }
+        int pages = 0;
+        for (final String fileName : fileNames) {
+            if (PageAvailabilityMonitor.PAGE_FILE.matcher(fileName).matches()) {
+                pages++;
+            }
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.status;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Publishes the pages of running conversions as BuildVu writes them, so that
+ * clients can show the first pages of a long document before the whole
+ * document is converted.
+ * <p>
+ * The output directory of each watched conversion is scanned at a fixed
+ * interval. BuildVu writes each page as [page].html or [page].svg and writes
+ * pages in order, so a page is treated as ready once the next page has been
+ * started, and every page is ready once the conversion completes.
+ * <p>
+ * Ready pages are written to the "pagesReady" custom value as a list of page
+ * ranges, along with a "pageUrlTemplate" to build their URLs from. The
+ * "previewUrl" is published as soon as the viewer's index.html exists.
+ */
+public class PageAvailabilityMonitor {
+
+    private static final Logger LOG = Logger.getLogger(PageAvailabilityMonitor.class.getName());
+
+    static final Pattern PAGE_FILE = Pattern.compile("(\\d+)\\.(html|svg)");
+
+    private final Map<String, WatchedConversion> conversions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scanService = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "buildvu-page-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param scanInterval the interval in milliseconds between scans of the output directories
+     */
+    public PageAvailabilityMonitor(final long scanInterval) {
+        scanService.scheduleWithFixedDelay(this::scanAll, scanInterval, scanInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts publishing the pages of a conversion as they are written.
+     *
+     * @param uuid the uuid of the conversion
+     * @param outputDir the directory BuildVu writes the output to
+     * @param outputUrl the URL the output directory is served from
+     * @param publishPreview true to publish the previewUrl once index.html exists
+     */
+    public void watch(final String uuid, final File outputDir, final String outputUrl, final boolean publishPreview) {
+        conversions.put(uuid, new WatchedConversion(uuid, outputDir, outputUrl, publishPreview));
+    }
+
+    /**
+     * Stops watching a conversion. When the conversion succeeded, every page in
+     * the output directory is published as ready.
+     *
+     * @param uuid the uuid of the conversion
+     * @param complete true if BuildVu finished writing the output
+     */
+    public void stop(final String uuid, final boolean complete) {
+        final WatchedConversion conversion = conversions.remove(uuid);
+        if (conversion != null && complete) {
+            synchronized (conversion) {
+                conversion.scan(true);
+            }
+        }
+    }
+
+    /**
+     * Publishes every page in the output directory of a conversion that was
+     * not watched while it ran, such as one served from the result cache.
+     *
+     * @param uuid the uuid of the conversion
+     * @param outputDir the output directory of the conversion
+     * @param outputUrl the URL the output directory is served from
+     */
+    public static void publishComplete(final String uuid, final File outputDir, final String outputUrl) {
+        new WatchedConversion(uuid, outputDir, outputUrl, false).scan(true);
+    }
+
+    /**
+     * Stops scanning. Conversions that are still being watched are no longer updated.
+     */
+    public void shutdown() {
+        scanService.shutdownNow();
+        conversions.clear();
+    }
+
+    private void scanAll() {
+        for (final WatchedConversion conversion : conversions.values()) {
+            try {
+                synchronized (conversion) {
+                    conversion.scan(false);
+                }
+            } catch (final RuntimeException e) {
+                LOG.log(Level.WARNING, "Unable to publish pages of " + conversion.uuid, e);
+            }
+        }
+    }
+
+    /**
+     * Formats page numbers as a comma separated list of ranges, such as "1-10,21-25,30".
+     *
+     * @param pages the page numbers in ascending order
+     * @return the page ranges
+     */
+    private static String toRanges(final TreeSet<Integer> pages) {
+        final StringBuilder ranges = new StringBuilder();
+        int start = -1;
+        int end = -1;
+        for (final int page : pages) {
+            if (page != end + 1) {
+                appendRange(ranges, start, end);
+                start = page;
+            }
+            end = page;
+        }
+        appendRange(ranges, start, end);
+        return ranges.toString();
+    }
+
+    private static void appendRange(final StringBuilder ranges, final int start, final int end) {
+        if (start == -1) {
+            return;
+        }
+        if (ranges.length() > 0) {
+            ranges.append(',');
+        }
+        ranges.append(start);
+        if (end != start) {
+            ranges.append('-').append(end);
+        }
+    }
+
+    private static final class WatchedConversion {
+
+        private final String uuid;
+        private final File outputDir;
+        private final String outputUrl;
+        private final boolean publishPreview;
+
+        private String publishedRanges = "";
+        private boolean previewPublished;
+
+        WatchedConversion(final String uuid, final File outputDir, final String outputUrl, final boolean publishPreview) {
+            this.uuid = uuid;
+            this.outputDir = outputDir;
+            this.outputUrl = outputUrl;
+            this.publishPreview = publishPreview;
+        }
+
+        void scan(final boolean complete) {
+            final String[] fileNames = outputDir.list();
+            if (fileNames == null) {
+                return;
+            }
+
+            final TreeSet<Integer> written = new TreeSet<>();
+            String extension = null;
+            boolean hasIndex = false;
+            for (final String fileName : fileNames) {
+                final Matcher matcher = PAGE_FILE.matcher(fileName);
+                if (matcher.matches()) {
+                    written.add(Integer.parseInt(matcher.group(1)));
+                    extension = matcher.group(2);
+                } else if ("index.html".equals(fileName)) {
+                    hasIndex = true;
+                }
+            }
+
+            if (publishPreview && hasIndex && !previewPublished) {
+                StatusUpdater.getInstance().setCustomValue(uuid, "previewUrl", outputUrl + "/index.html");
+                previewPublished = true;
+            }
+
+            if (written.isEmpty()) {
+                return;
+            }
+
+            final TreeSet<Integer> ready = new TreeSet<>();
+            if (complete) {
+                ready.addAll(written);
+            } else {
+                for (final int page : written) {
+                    if (written.contains(page + 1)) {
+                        ready.add(page);
+                    }
+                }
+            }
+
+            final String ranges = toRanges(ready);
+            if (!ranges.equals(publishedRanges)) {
+                if (publishedRanges.isEmpty()) {
+                    StatusUpdater.getInstance().setCustomValue(uuid, "pageUrlTemplate", outputUrl + "/{page}." + extension);
+                }
+                StatusUpdater.getInstance().setCustomValue(uuid, "pagesReady", ranges);
+                publishedRanges = ranges;
+            }
+        }
+    }
+}
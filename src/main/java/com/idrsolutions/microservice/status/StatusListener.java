@@ -0,0 +1,36 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.status;
+
+import java.util.Map;
+
+/**
+ * Notified of every status update made through the {@link StatusUpdater}, as
+ * it is made and before it is written to the database.
+ */
+public interface StatusListener {
+
+    /**
+     * Called on the thread making the update, so implementations must not block.
+     *
+     * @param uuid the uuid of the conversion
+     * @param values the updated values, keyed as in the conversion status
+     */
+    void statusChanged(String uuid, Map<String, String> values);
+}
@@ -0,0 +1,312 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.status;
+
+import com.idrsolutions.microservice.db.DBHandler;
+import com.idrsolutions.microservice.metrics.ConversionMetrics;
+import com.idrsolutions.microservice.utils.ProcessUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes conversion state and custom values to the {@link DBHandler} database.
+ * <p>
+ * When a flush interval is set, updates are held in memory and merged per
+ * conversion, so that only the latest value of each key is written, then
+ * written together on the next flush. Terminal states ("processed" and
+ * "error") are never delayed: any held updates for the conversion are written
+ * first, followed by the terminal state, so clients never see a finished
+ * conversion without its output values. Held updates that fail to be written
+ * are kept for the next flush.
+ * <p>
+ * Conversion progress is published through the updater as well, so a
+ * conversion's pagesConverted value is written at most once per flush
+ * however many pages are converted in between.
+ * <p>
+ * Registered {@link StatusListener}s are told of each update as it is made,
+ * whether or not it is held.
+ */
+public final class StatusUpdater {
+
+    private static final Logger LOG = Logger.getLogger(StatusUpdater.class.getName());
+
+    private static final int LOCK_STRIPES = 64;
+
+    /** The error code of a BuildVu conversion that exceeded the maximum conversion duration. */
+    public static final int CONVERSION_TIMEOUT_ERROR_CODE = 1230;
+
+    private static StatusUpdater instance = new StatusUpdater(0);
+
+    private final long flushInterval;
+    private final Map<String, PendingUpdate> pendingUpdates = new ConcurrentHashMap<>();
+    private final Object[] locks = new Object[LOCK_STRIPES];
+    private final ScheduledExecutorService flushService;
+    private final List<StatusListener> listeners = new CopyOnWriteArrayList<>();
+
+    private StatusUpdater(final long flushInterval) {
+        this.flushInterval = flushInterval;
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            locks[i] = new Object();
+        }
+
+        if (flushInterval > 0) {
+            flushService = Executors.newSingleThreadScheduledExecutor(r -> {
+                final Thread thread = new Thread(r, "buildvu-status-flush");
+                thread.setDaemon(true);
+                return thread;
+            });
+            flushService.scheduleWithFixedDelay(this::flushAll, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        } else {
+            flushService = null;
+        }
+    }
+
+    /**
+     * Replaces the current instance with one using the given flush interval,
+     * writing out anything held by the previous instance.
+     *
+     * @param flushInterval the interval in milliseconds between writes of held
+     * updates, or 0 to write every update immediately
+     */
+    public static synchronized void initialise(final long flushInterval) {
+        instance.shutdown();
+        final StatusUpdater previous = instance;
+        instance = new StatusUpdater(flushInterval);
+        instance.listeners.addAll(previous.listeners);
+    }
+
+    public static synchronized StatusUpdater getInstance() {
+        return instance;
+    }
+
+    /**
+     * Registers a listener to be told of every status update.
+     *
+     * @param listener the listener
+     */
+    public void addListener(final StatusListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener the listener to stop telling of status updates
+     */
+    public void removeListener(final StatusListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Sets a custom value for the conversion.
+     *
+     * @param uuid the uuid of the conversion
+     * @param key the key of the value
+     * @param value the value
+     */
+    public void setCustomValue(final String uuid, final String key, final String value) {
+        notifyListeners(uuid, Collections.singletonMap(key, value));
+        if (flushInterval <= 0) {
+            writeCustomValue(uuid, key, value);
+            return;
+        }
+        synchronized (lockFor(uuid)) {
+            pendingUpdates.computeIfAbsent(uuid, k -> new PendingUpdate()).customValues.put(key, value);
+        }
+    }
+
+    /**
+     * Sets the state of the conversion. The "processed" state is written
+     * immediately along with any held updates. Other states may be held until
+     * the next flush.
+     *
+     * @param uuid the uuid of the conversion
+     * @param state the new state
+     */
+    public void setState(final String uuid, final String state) {
+        notifyListeners(uuid, Collections.singletonMap("state", state));
+        if ("processed".equals(state)) {
+            ConversionMetrics.getInstance().conversionFinished(uuid, ConversionMetrics.OUTCOME_SUCCESS, 0);
+        }
+        if (flushInterval <= 0) {
+            writeState(uuid, state);
+            return;
+        }
+        synchronized (lockFor(uuid)) {
+            if ("processed".equals(state)) {
+                writeHeld(uuid, true);
+                writeState(uuid, state);
+            } else {
+                pendingUpdates.computeIfAbsent(uuid, k -> new PendingUpdate()).state = state;
+            }
+        }
+    }
+
+    /**
+     * Sets the conversion to the error state. This is written immediately
+     * along with any held updates.
+     *
+     * @param uuid the uuid of the conversion
+     * @param errorCode the error code
+     * @param errorMessage the error message
+     */
+    public void setError(final String uuid, final int errorCode, final String errorMessage) {
+        final Map<String, String> errorValues = new HashMap<>();
+        errorValues.put("state", "error");
+        errorValues.put("errorCode", String.valueOf(errorCode));
+        errorValues.put("error", errorMessage);
+        notifyListeners(uuid, errorValues);
+        ConversionMetrics.getInstance().conversionFinished(uuid, errorCode == CONVERSION_TIMEOUT_ERROR_CODE || errorCode == ProcessUtils.Result.TIMEOUT.getCode()
+                ? ConversionMetrics.OUTCOME_TIMEOUT : ConversionMetrics.OUTCOME_ERROR, errorCode);
+        if (flushInterval <= 0) {
+            writeError(uuid, errorCode, errorMessage);
+            return;
+        }
+        synchronized (lockFor(uuid)) {
+            writeHeld(uuid, true);
+            writeError(uuid, errorCode, errorMessage);
+        }
+    }
+
+    /**
+     * Writes any held updates for the conversion immediately.
+     *
+     * @param uuid the uuid of the conversion
+     */
+    public void flush(final String uuid) {
+        synchronized (lockFor(uuid)) {
+            writeHeld(uuid, false);
+        }
+    }
+
+    /**
+     * Writes the held updates for the conversion, keeping them for the next
+     * flush if they cannot be written. Must be called holding the lock for
+     * the conversion.
+     *
+     * @param terminal true if a terminal state follows, which a held state
+     * kept for the next flush must not overwrite
+     */
+    private void writeHeld(final String uuid, final boolean terminal) {
+        final PendingUpdate update = pendingUpdates.remove(uuid);
+        try {
+            write(uuid, update);
+        } catch (final RuntimeException e) {
+            if (terminal) {
+                update.state = null;
+            }
+            pendingUpdates.put(uuid, update);
+            throw e;
+        }
+    }
+
+    private void flushAll() {
+        for (final String uuid : new ArrayList<>(pendingUpdates.keySet())) {
+            try {
+                flush(uuid);
+            } catch (final RuntimeException e) {
+                LOG.log(Level.SEVERE, "Unable to write status updates for " + uuid, e);
+            }
+        }
+    }
+
+    /**
+     * Stops the periodic flush and writes any held updates.
+     */
+    public void shutdown() {
+        if (flushService != null) {
+            flushService.shutdown();
+        }
+        flushAll();
+    }
+
+    private void notifyListeners(final String uuid, final Map<String, String> values) {
+        for (final StatusListener listener : listeners) {
+            try {
+                listener.statusChanged(uuid, values);
+            } catch (final RuntimeException e) {
+                LOG.log(Level.WARNING, "Status listener failed for " + uuid, e);
+            }
+        }
+    }
+
+    private Object lockFor(final String uuid) {
+        return locks[Math.floorMod(uuid.hashCode(), LOCK_STRIPES)];
+    }
+
+    private static void write(final String uuid, final PendingUpdate update) {
+        if (update == null) {
+            return;
+        }
+        for (final Map.Entry<String, String> customValue : update.customValues.entrySet()) {
+            writeCustomValue(uuid, customValue.getKey(), customValue.getValue());
+        }
+        if (update.state != null) {
+            writeState(uuid, update.state);
+        }
+    }
+
+    private static void writeCustomValue(final String uuid, final String key, final String value) {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            DBHandler.getInstance().setCustomValue(uuid, key, value);
+            failed = false;
+        } finally {
+            ConversionMetrics.getInstance().recordDatabaseWrite("setCustomValue", start, failed);
+        }
+    }
+
+    private static void writeState(final String uuid, final String state) {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            DBHandler.getInstance().setState(uuid, state);
+            failed = false;
+        } finally {
+            ConversionMetrics.getInstance().recordDatabaseWrite("setState", start, failed);
+        }
+    }
+
+    private static void writeError(final String uuid, final int errorCode, final String errorMessage) {
+        final long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            DBHandler.getInstance().setError(uuid, errorCode, errorMessage);
+            failed = false;
+        } finally {
+            ConversionMetrics.getInstance().recordDatabaseWrite("setError", start, failed);
+        }
+    }
+
+    private static final class PendingUpdate {
+        private final Map<String, String> customValues = new LinkedHashMap<>();
+        private String state;
+    }
+}
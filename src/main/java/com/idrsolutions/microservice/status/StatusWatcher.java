@@ -0,0 +1,269 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.status;
+
+import com.idrsolutions.microservice.db.DBHandler;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the status of conversions that clients are waiting on in memory and
+ * tells those clients when it changes, so that they do not need to poll.
+ * <p>
+ * The status of a conversion is read from the database when its first client
+ * subscribes, then kept up to date from the updates made through the
+ * {@link StatusUpdater}. Subscribers are told when the state, pagesConverted
+ * or pagesReady changes. The progress of conversions run on this instance is
+ * published through the {@link StatusUpdater}, so subscribers are told of it
+ * as it is made. The reread of watched conversions from the database every
+ * {@value #REFRESH_INTERVAL}ms only picks up the updates made elsewhere: those
+ * the base microservice writes directly, such as the downloading state, and
+ * those of conversions running on another instance.
+ * <p>
+ * The version of a status is derived from the values subscribers are told of,
+ * so an unchanged status has the same version however often it is reread,
+ * after a restart and on every instance.
+ */
+public class StatusWatcher implements StatusListener {
+
+    private static final Logger LOG = Logger.getLogger(StatusWatcher.class.getName());
+
+    /** The interval in milliseconds between rereads of watched conversions, which also keeps idle connections alive. */
+    private static final long REFRESH_INTERVAL = 15000;
+
+    private static final Set<String> NOTIFIED_KEYS = Set.of("state", "pagesConverted", "pagesReady");
+
+    private final Map<String, WatchedStatus> statuses = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService refreshService = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "buildvu-status-watcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public StatusWatcher() {
+        StatusUpdater.getInstance().addListener(this);
+        refreshService.scheduleWithFixedDelay(this::refreshAll, REFRESH_INTERVAL, REFRESH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Told of changes to the status of a watched conversion. Subscribers are
+     * called on the thread that made the change, so must not block.
+     */
+    public interface Subscriber {
+
+        /**
+         * @param snapshot the new status of the conversion
+         */
+        void statusChanged(StatusSnapshot snapshot);
+
+        /**
+         * Called periodically while subscribed, whether or not the status has changed.
+         */
+        void keepAlive();
+    }
+
+    /**
+     * Starts telling the subscriber of changes to the status of a conversion.
+     *
+     * @param uuid the uuid of the conversion
+     * @param subscriber the subscriber
+     * @return the current status of the conversion, or null if the
+     * conversion is unknown, in which case the subscriber is not added
+     * @throws SQLException if the status cannot be read from the database
+     */
+    public StatusSnapshot subscribe(final String uuid, final Subscriber subscriber) throws SQLException {
+        while (true) {
+            WatchedStatus status = statuses.get(uuid);
+            if (status == null) {
+                StatusUpdater.getInstance().flush(uuid);
+                final Map<String, String> values = DBHandler.getInstance().getStatus(uuid);
+                if (values == null) {
+                    return null;
+                }
+                final WatchedStatus loaded = new WatchedStatus(values);
+                status = statuses.putIfAbsent(uuid, loaded);
+                if (status == null) {
+                    status = loaded;
+                }
+            }
+
+            synchronized (status) {
+                // A status is dropped when its last subscriber leaves, in which case it is read again
+                if (statuses.get(uuid) == status) {
+                    status.subscribers.add(subscriber);
+                    return status.snapshot;
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops telling the subscriber of changes. The status of a conversion is
+     * no longer kept once it has no subscribers.
+     *
+     * @param uuid the uuid of the conversion
+     * @param subscriber the subscriber
+     */
+    public void unsubscribe(final String uuid, final Subscriber subscriber) {
+        final WatchedStatus status = statuses.get(uuid);
+        if (status != null) {
+            synchronized (status) {
+                status.subscribers.remove(subscriber);
+                if (status.subscribers.isEmpty()) {
+                    statuses.remove(uuid, status);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void statusChanged(final String uuid, final Map<String, String> values) {
+        final WatchedStatus status = statuses.get(uuid);
+        if (status != null) {
+            update(status, values);
+        }
+    }
+
+    /**
+     * Stops rereading watched conversions and stops listening for updates.
+     */
+    public void shutdown() {
+        StatusUpdater.getInstance().removeListener(this);
+        refreshService.shutdownNow();
+        statuses.clear();
+    }
+
+    private void refreshAll() {
+        for (final Map.Entry<String, WatchedStatus> entry : statuses.entrySet()) {
+            try {
+                // Held updates are written first so that the database is not behind the watched status
+                StatusUpdater.getInstance().flush(entry.getKey());
+                final Map<String, String> values = DBHandler.getInstance().getStatus(entry.getKey());
+                if (values != null) {
+                    update(entry.getValue(), values);
+                }
+                for (final Subscriber subscriber : entry.getValue().subscribers) {
+                    subscriber.keepAlive();
+                }
+            } catch (final SQLException | RuntimeException e) {
+                LOG.log(Level.WARNING, "Unable to refresh the status of " + entry.getKey(), e);
+            }
+        }
+    }
+
+    private static void update(final WatchedStatus status, final Map<String, String> values) {
+        final StatusSnapshot snapshot;
+        synchronized (status) {
+            final Map<String, String> merged = new HashMap<>(status.snapshot.getValues());
+            boolean notify = false;
+            for (final Map.Entry<String, String> value : values.entrySet()) {
+                final String previous = merged.put(value.getKey(), value.getValue());
+                notify |= NOTIFIED_KEYS.contains(value.getKey()) && !Objects.equals(previous, value.getValue());
+            }
+            // A finished conversion is not changed by a stale reread from the database
+            if (!notify || status.snapshot.isFinished()) {
+                if (!status.snapshot.isFinished()) {
+                    status.snapshot = new StatusSnapshot(merged);
+                }
+                return;
+            }
+            snapshot = new StatusSnapshot(merged);
+            status.snapshot = snapshot;
+        }
+
+        for (final Subscriber subscriber : status.subscribers) {
+            subscriber.statusChanged(snapshot);
+        }
+    }
+
+    private static final class WatchedStatus {
+
+        private final Set<Subscriber> subscribers = new CopyOnWriteArraySet<>();
+        private StatusSnapshot snapshot;
+
+        private WatchedStatus(final Map<String, String> values) {
+            snapshot = new StatusSnapshot(values);
+        }
+    }
+
+    /**
+     * The status of a conversion at one point in time. The version changes
+     * each time subscribers are told of a change and is the same for equal
+     * statuses.
+     */
+    public static final class StatusSnapshot {
+
+        private final long version;
+        private final Map<String, String> values;
+
+        private StatusSnapshot(final Map<String, String> values) {
+            this.values = Collections.unmodifiableMap(new HashMap<>(values));
+            version = computeVersion(this.values);
+        }
+
+        /**
+         * Hashes the notified values into a positive version that fits within
+         * the integers a JavaScript client can hold exactly.
+         */
+        private static long computeVersion(final Map<String, String> values) {
+            long hash = 1125899906842597L;
+            for (final String key : new TreeSet<>(NOTIFIED_KEYS)) {
+                final String value = key + '=' + values.get(key) + '\n';
+                for (int i = 0; i < value.length(); i++) {
+                    hash = 31 * hash + value.charAt(i);
+                }
+            }
+            final long version = hash & (1L << 53) - 1;
+            // 0 is the version of a client that has not seen the status
+            return version != 0 ? version : 1;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * @return the values of the status, keyed as in the conversion status
+         */
+        public Map<String, String> getValues() {
+            return values;
+        }
+
+        /**
+         * @return true if the conversion has been processed or has failed
+         */
+        public boolean isFinished() {
+            final String state = values.get("state");
+            return "processed".equals(state) || "error".equals(state);
+        }
+    }
+}
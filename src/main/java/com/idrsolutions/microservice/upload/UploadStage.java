@@ -0,0 +1,153 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.upload;
+
+import com.idrsolutions.microservice.storage.Storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Uploads conversion output to remote storage on its own threads, so that a
+ * slow upload does not hold a conversion slot.
+ * <p>
+ * At most uploadThreadCount uploads run at once and the rest wait in order.
+ * A failed upload is retried after a delay that doubles with each attempt,
+ * without holding an upload thread while it waits.
+ * <p>
+ * The queue of waiting uploads is not bounded. Each upload only has one task
+ * queued at a time and belongs to a conversion that has already finished and
+ * released its slot, so the queue grows no faster than conversions finish and
+ * each entry leaves it after at most uploadRetries retries.
+ */
+public class UploadStage {
+
+    private static final Logger LOG = Logger.getLogger(UploadStage.class.getName());
+
+    private final int maxRetries;
+    private final long retryDelay;
+    private final ScheduledThreadPoolExecutor uploadService;
+    private final Set<Upload> uploads = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param threadCount the number of uploads that may run at once
+     * @param maxRetries the number of times a failed upload is retried
+     * @param retryDelay the delay in milliseconds before the first retry
+     */
+    public UploadStage(final int threadCount, final int maxRetries, final long retryDelay) {
+        this.maxRetries = maxRetries;
+        this.retryDelay = retryDelay;
+
+        final AtomicInteger threadNumber = new AtomicInteger();
+        uploadService = new ScheduledThreadPoolExecutor(threadCount, r -> {
+            final Thread thread = new Thread(r, "buildvu-upload-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        uploadService.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Queues the output of a conversion for upload.
+     *
+     * @param storage the remote storage to upload to
+     * @param uuid the uuid of the conversion
+     * @param outputZip the zipped output to upload
+     * @return a future completed with the remote URL of the upload, or
+     * completed exceptionally once every attempt has failed
+     */
+    public CompletableFuture<String> upload(final Storage storage, final String uuid, final File outputZip) {
+        final CompletableFuture<String> result = new CompletableFuture<>();
+        final Upload upload = new Upload(storage, uuid, outputZip, result);
+        uploads.add(upload);
+        result.whenComplete((remoteUrl, error) -> uploads.remove(upload));
+        schedule(upload, 0);
+        return result;
+    }
+
+    /**
+     * Stops the upload threads, interrupting running uploads and abandoning
+     * queued uploads and retries. The future of every unfinished upload is
+     * completed exceptionally, so its conversion still ends with only its
+     * local output.
+     */
+    public void shutdown() {
+        uploadService.shutdownNow();
+        for (final Upload upload : uploads) {
+            upload.result.completeExceptionally(new RejectedExecutionException("Upload of " + upload.uuid + " abandoned at shutdown"));
+        }
+    }
+
+    private void schedule(final Upload upload, final long delay) {
+        try {
+            uploadService.schedule(upload, delay, TimeUnit.MILLISECONDS);
+        } catch (final RejectedExecutionException e) {
+            upload.result.completeExceptionally(e);
+        }
+    }
+
+    private final class Upload implements Runnable {
+
+        private final Storage storage;
+        private final String uuid;
+        private final File outputZip;
+        private final CompletableFuture<String> result;
+        private int attempt;
+
+        Upload(final Storage storage, final String uuid, final File outputZip, final CompletableFuture<String> result) {
+            this.storage = storage;
+            this.uuid = uuid;
+            this.outputZip = outputZip;
+            this.result = result;
+        }
+
+        @Override
+        public void run() {
+            Exception failure;
+            try {
+                final String remoteUrl = storage.put(outputZip, uuid + ".zip", uuid);
+                if (remoteUrl != null) {
+                    result.complete(remoteUrl);
+                    return;
+                }
+                failure = new IOException("Storage did not return a URL for " + uuid);
+            } catch (final RuntimeException e) {
+                failure = e;
+            }
+
+            if (attempt < maxRetries) {
+                final long delay = retryDelay << Math.min(attempt, 16);
+                attempt++;
+                LOG.log(Level.WARNING, "Upload of " + uuid + " failed, retrying in " + delay + "ms", failure);
+                schedule(this, delay);
+            } else {
+                result.completeExceptionally(failure);
+            }
+        }
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.worker;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Entry point of a long-lived BuildVu worker JVM started by {@link WorkerPool}.
+ * <p>
+ * The worker reads jobs from stdin and writes a single status line per job to
+ * stdout, running each job through the main class of buildvu.jar in-process so
+ * that JVM startup, class loading and JIT warm-up are only paid once.
+ * <p>
+ * This class must only depend on the JDK as it is loaded alongside buildvu.jar
+ * in the child JVM rather than inside the servlet container.
+ */
+public final class BuildVuWorker {
+
+    static final String READY = "READY";
+    static final String SUCCESS = "SUCCESS";
+    static final String ERROR = "ERROR";
+    static final String OUT_OF_MEMORY = "OOM";
+
+    private BuildVuWorker() {
+    }
+
+    /**
+     * Starts the worker loop.
+     *
+     * @param args the fully qualified name of the BuildVu main class
+     * @throws Exception if the BuildVu main class cannot be loaded or the
+     * channel to the parent process fails
+     */
+    public static void main(final String[] args) throws Exception {
+        // Keep stdout for the protocol, anything BuildVu prints goes to stderr instead
+        final PrintStream protocolStream = System.out;
+        System.setOut(System.err);
+
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(protocolStream));
+
+        final Method buildVuMain = Class.forName(args[0]).getMethod("main", String[].class);
+
+        out.writeUTF(READY);
+        out.flush();
+
+        while (true) {
+            final String inputPath;
+            final String outputPath;
+            final Map<String, String> params = new HashMap<>();
+            try {
+                inputPath = in.readUTF();
+                outputPath = in.readUTF();
+                final int paramCount = in.readInt();
+                for (int i = 0; i < paramCount; i++) {
+                    params.put(in.readUTF(), in.readUTF());
+                }
+            } catch (final EOFException e) {
+                // Parent closed the channel, shut down cleanly
+                return;
+            }
+
+            final String status = runJob(buildVuMain, inputPath, outputPath, params);
+
+            out.writeUTF(status);
+            out.flush();
+
+            if (OUT_OF_MEMORY.equals(status)) {
+                // The heap may be left in an unusable state, let the pool start a fresh worker
+                System.exit(1);
+            }
+        }
+    }
+
+    private static String runJob(final Method buildVuMain, final String inputPath, final String outputPath,
+                                 final Map<String, String> params) {
+        // Restored after the job, including any properties BuildVu set itself, so that no job sees another's settings
+        final Properties original = (Properties) System.getProperties().clone();
+        for (final Map.Entry<String, String> param : params.entrySet()) {
+            System.setProperty(param.getKey(), param.getValue());
+        }
+
+        try {
+            buildVuMain.invoke(null, (Object) new String[] {inputPath, outputPath});
+            return SUCCESS;
+        } catch (final InvocationTargetException e) {
+            if (e.getCause() instanceof OutOfMemoryError) {
+                return OUT_OF_MEMORY;
+            }
+            e.getCause().printStackTrace();
+            return ERROR;
+        } catch (final OutOfMemoryError e) {
+            return OUT_OF_MEMORY;
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            e.printStackTrace();
+            return ERROR;
+        } finally {
+            System.setProperties(original);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.worker;
+
+import com.idrsolutions.microservice.utils.ProcessUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A fixed size pool of long-lived BuildVu worker JVMs.
+ * <p>
+ * Each worker runs {@link BuildVuWorker} with buildvu.jar on its classpath and
+ * accepts jobs over its stdin / stdout. Workers are recycled after a set number
+ * of jobs, after a crash and after a job exceeds the maximum conversion duration.
+ * <p>
+ * The settings of each job are applied as system properties, and all system
+ * properties are restored once the job ends. Other static state in buildvu.jar
+ * is kept between the jobs of a worker, so the pool relies on BuildVu reading
+ * the conversion settings at the start of each conversion, as it does for the
+ * settings accepted by the settings parameter. Options that are only read when
+ * the JVM starts, such as the heap size, apply to the worker rather than a job.
+ */
+public class WorkerPool {
+
+    private static final Logger LOG = Logger.getLogger(WorkerPool.class.getName());
+
+    /** The exit code of a JVM stopped by -XX:+ExitOnOutOfMemoryError. */
+    private static final int OUT_OF_MEMORY_EXIT_CODE = 3;
+
+    private final List<String> command;
+    private final int maxJobsPerWorker;
+    private final BlockingQueue<Worker> idleWorkers;
+    private final List<Worker> workers = new ArrayList<>();
+    private final ScheduledExecutorService watchdog = Executors.newSingleThreadScheduledExecutor(r -> {
+        final Thread thread = new Thread(r, "buildvu-worker-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Creates the pool and starts all of its workers.
+     *
+     * @param jarPath the path to buildvu.jar
+     * @param poolSize the number of worker JVMs to keep running
+     * @param maxJobsPerWorker the number of jobs a worker runs before it is replaced
+     * @param memoryLimit the maximum heap of each worker in megabytes, or 0 for the JVM default
+     * @throws IOException if buildvu.jar cannot be read
+     */
+    public WorkerPool(final String jarPath, final int poolSize, final int maxJobsPerWorker, final int memoryLimit) throws IOException {
+        this.maxJobsPerWorker = maxJobsPerWorker;
+        this.command = createCommand(jarPath, memoryLimit);
+        this.idleWorkers = new ArrayBlockingQueue<>(poolSize);
+
+        for (int i = 0; i < poolSize; i++) {
+            final Worker worker = new Worker();
+            worker.start();
+            workers.add(worker);
+            idleWorkers.add(worker);
+        }
+    }
+
+    private static List<String> createCommand(final String jarPath, final int memoryLimit) throws IOException {
+        final String mainClass;
+        try (JarFile jarFile = new JarFile(jarPath)) {
+            final Manifest manifest = jarFile.getManifest();
+            mainClass = manifest != null ? manifest.getMainAttributes().getValue(Attributes.Name.MAIN_CLASS) : null;
+        }
+        if (mainClass == null) {
+            throw new IOException("No Main-Class found in " + jarPath);
+        }
+
+        final String workerClasspath;
+        try {
+            workerClasspath = new File(BuildVuWorker.class.getProtectionDomain().getCodeSource().getLocation().toURI()).getAbsolutePath();
+        } catch (final URISyntaxException e) {
+            throw new IOException("Unable to locate worker classes", e);
+        }
+
+        final List<String> commandArgs = new ArrayList<>();
+        commandArgs.add("java");
+        if (memoryLimit > 0) {
+            commandArgs.add("-Xmx" + memoryLimit + 'M');
+        }
+        commandArgs.add("-XX:+ExitOnOutOfMemoryError");
+        commandArgs.add("-cp");
+        commandArgs.add(jarPath + File.pathSeparator + workerClasspath);
+        commandArgs.add(BuildVuWorker.class.getName());
+        commandArgs.add(mainClass);
+        return commandArgs;
+    }
+
+    /**
+     * Converts the input file on the next idle worker, waiting for one to
+     * become available if all are busy.
+     *
+     * @param conversionParams the settings to apply as system properties for this job
+     * @param uuid the uuid of the conversion
+     * @param inputPdf the file to convert
+     * @param outputDir the directory to write the output to
+     * @param maxDuration the maximum duration of the job in milliseconds
+     * @param outOfMemoryMarker a file that is created if the worker runs out of memory during the job
+     * @return the result of the conversion in the same form as {@link ProcessUtils#runProcess}
+     */
+    public ProcessUtils.Result convert(final Map<String, String> conversionParams, final String uuid,
+                                       final File inputPdf, final File outputDir, final long maxDuration,
+                                       final File outOfMemoryMarker) {
+        final Worker worker;
+        try {
+            worker = idleWorkers.take();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ProcessUtils.Result.ERROR;
+        }
+
+        boolean recycle = true;
+        try {
+            // Set by whichever of the reply and the watchdog comes first, so a worker is not destroyed after replying
+            final AtomicBoolean finished = new AtomicBoolean();
+            final ScheduledFuture<?> timeout = maxDuration > 0 ? watchdog.schedule(() -> {
+                if (finished.compareAndSet(false, true)) {
+                    worker.destroy();
+                }
+            }, maxDuration, TimeUnit.MILLISECONDS) : null;
+
+            String status;
+            try {
+                status = worker.run(inputPdf, outputDir, conversionParams);
+            } catch (final IOException e) {
+                status = null;
+                if (!finished.get()) {
+                    LOG.log(Level.SEVERE, "BuildVu worker failed while converting " + uuid, e);
+                }
+            } finally {
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+            }
+
+            final boolean timedOut = !finished.compareAndSet(false, true);
+            if (timedOut && !BuildVuWorker.SUCCESS.equals(status)) {
+                return ProcessUtils.Result.TIMEOUT;
+            }
+
+            if (BuildVuWorker.OUT_OF_MEMORY.equals(status) || status == null && worker.exitedOutOfMemory()) {
+                try {
+                    Files.createFile(outOfMemoryMarker.toPath());
+                } catch (final IOException e) {
+                    LOG.log(Level.WARNING, "Unable to record out of memory error for " + uuid, e);
+                }
+            }
+
+            recycle = timedOut || !BuildVuWorker.SUCCESS.equals(status) || worker.jobCount >= maxJobsPerWorker;
+            return BuildVuWorker.SUCCESS.equals(status) ? ProcessUtils.Result.SUCCESS : ProcessUtils.Result.ERROR;
+        } finally {
+            if (recycle) {
+                worker.destroy();
+                try {
+                    worker.start();
+                } catch (final IOException e) {
+                    LOG.log(Level.SEVERE, "Unable to restart BuildVu worker", e);
+                }
+            }
+            idleWorkers.add(worker);
+        }
+    }
+
+    /**
+     * Stops all workers. Jobs that are still running are terminated.
+     */
+    public void shutdown() {
+        watchdog.shutdownNow();
+        for (final Worker worker : workers) {
+            worker.destroy();
+        }
+    }
+
+    private final class Worker {
+
+        private Process process;
+        private DataOutputStream toWorker;
+        private DataInputStream fromWorker;
+        private boolean ready;
+        private int jobCount;
+
+        synchronized void start() throws IOException {
+            process = new ProcessBuilder(command)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            toWorker = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            fromWorker = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+            ready = false;
+            jobCount = 0;
+        }
+
+        String run(final File inputPdf, final File outputDir, final Map<String, String> params) throws IOException {
+            final DataOutputStream out;
+            final DataInputStream in;
+            synchronized (this) {
+                if (process == null || !process.isAlive()) {
+                    start();
+                }
+                out = toWorker;
+                in = fromWorker;
+            }
+
+            if (!ready) {
+                if (!BuildVuWorker.READY.equals(in.readUTF())) {
+                    throw new IOException("Unexpected response from BuildVu worker");
+                }
+                ready = true;
+            }
+
+            jobCount++;
+            out.writeUTF(inputPdf.getAbsolutePath());
+            out.writeUTF(outputDir.getAbsolutePath());
+            out.writeInt(params.size());
+            for (final Map.Entry<String, String> param : params.entrySet()) {
+                out.writeUTF(param.getKey());
+                out.writeUTF(param.getValue());
+            }
+            out.flush();
+
+            return in.readUTF();
+        }
+
+        synchronized boolean exitedOutOfMemory() {
+            try {
+                return process != null && process.waitFor(1, TimeUnit.SECONDS) && process.exitValue() == OUT_OF_MEMORY_EXIT_CODE;
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        synchronized void destroy() {
+            if (process != null) {
+                process.destroyForcibly();
+                process = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.cache;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversionCacheTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void keyDependsOnInputSettingsAndVersion() throws IOException {
+        final ConversionCache cache = new ConversionCache(tempDir.resolve("cache").toFile(), 1024 * 1024, "1.0");
+        final File input = write("input.pdf", "%PDF-1.7 one");
+        final File otherInput = write("other.pdf", "%PDF-1.7 two");
+
+        final Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("org.jpedal.pdf2html.viewMode", "content");
+        settings.put("org.jpedal.pdf2html.textMode", "svg_realtext");
+        final Map<String, String> reordered = new LinkedHashMap<>();
+        reordered.put("org.jpedal.pdf2html.textMode", "svg_realtext");
+        reordered.put("org.jpedal.pdf2html.viewMode", "content");
+        final Map<String, String> changed = new HashMap<>(settings);
+        changed.put("org.jpedal.pdf2html.viewMode", "multi");
+
+        final String key = cache.createKey(input, settings);
+        assertEquals(key, cache.createKey(input, reordered));
+        assertNotEquals(key, cache.createKey(input, changed));
+        assertNotEquals(key, cache.createKey(otherInput, settings));
+        assertNotEquals(key, new ConversionCache(tempDir.resolve("cache2").toFile(), 1024 * 1024, "2.0").createKey(input, settings));
+    }
+
+    @Test
+    void getReturnsCachedOutput() throws IOException {
+        final ConversionCache cache = new ConversionCache(tempDir.resolve("cache").toFile(), 1024 * 1024, "1.0");
+        final File outputDir = output("first", 100);
+        final File outputZip = write("first.zip", "zip");
+        cache.put("a", outputDir, outputZip, 7);
+
+        final File newOutputDir = tempDir.resolve("second").toFile();
+        final File newOutputZip = tempDir.resolve("second.zip").toFile();
+        assertEquals(7, cache.get("a", newOutputDir, newOutputZip));
+        assertEquals("page", Files.readString(newOutputDir.toPath().resolve("pages/1.html")).substring(0, 4));
+        assertEquals("zip", Files.readString(newOutputZip.toPath()));
+        assertEquals(-1, cache.get("b", newOutputDir, newOutputZip));
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() throws IOException {
+        final ConversionCache cache = new ConversionCache(tempDir.resolve("cache").toFile(), 250, "1.0");
+        cache.put("a", output("a", 100), tempDir.resolve("none.zip").toFile(), 1);
+        cache.put("b", output("b", 100), tempDir.resolve("none.zip").toFile(), 1);
+        // Using a makes b the least recently used
+        assertEquals(1, cache.get("a", tempDir.resolve("a-copy").toFile(), tempDir.resolve("a-copy.zip").toFile()));
+        cache.put("c", output("c", 100), tempDir.resolve("none.zip").toFile(), 1);
+
+        assertEquals(1, cache.get("a", tempDir.resolve("a-copy2").toFile(), tempDir.resolve("a-copy2.zip").toFile()));
+        assertEquals(-1, cache.get("b", tempDir.resolve("b-copy").toFile(), tempDir.resolve("b-copy.zip").toFile()));
+        assertEquals(1, cache.get("c", tempDir.resolve("c-copy").toFile(), tempDir.resolve("c-copy.zip").toFile()));
+        assertFalse(Files.exists(tempDir.resolve("cache/b")));
+    }
+
+    @Test
+    void getPublishesIntoTheCreatedOutputDirectory() throws IOException {
+        final ConversionCache cache = new ConversionCache(tempDir.resolve("cache").toFile(), 1024 * 1024, "1.0");
+        cache.put("a", output("a", 100), write("a.zip", "zip"), 2);
+
+        // The servlet creates the output directory before looking up the cache
+        final Path newOutputDir = Files.createDirectories(tempDir.resolve("second"));
+        final Path newOutputZip = write("second.zip", "stale").toPath();
+        assertEquals(2, cache.get("a", newOutputDir.toFile(), newOutputZip.toFile()));
+        assertTrue(Files.exists(newOutputDir.resolve("pages/1.html")));
+        assertEquals("zip", Files.readString(newOutputZip));
+        assertFalse(Files.exists(tempDir.resolve("second.cache")));
+        assertFalse(Files.exists(tempDir.resolve("second.zip.cache")));
+    }
+
+    @Test
+    void evictedKeyCanBeStoredAgain() throws IOException {
+        final Path cacheDir = tempDir.resolve("cache");
+        final ConversionCache cache = new ConversionCache(cacheDir.toFile(), 150, "1.0");
+        cache.put("a", output("a", 100), tempDir.resolve("none.zip").toFile(), 1);
+        cache.put("b", output("b", 100), tempDir.resolve("none.zip").toFile(), 1);
+        cache.put("a", output("a2", 100), tempDir.resolve("none.zip").toFile(), 4);
+
+        assertEquals(4, cache.get("a", tempDir.resolve("a-copy").toFile(), tempDir.resolve("a-copy.zip").toFile()));
+        try (Stream<Path> entries = Files.list(cacheDir)) {
+            assertEquals(List.of(cacheDir.resolve("a")), entries.collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void outputLargerThanTheCacheIsNotStored() throws IOException {
+        final ConversionCache cache = new ConversionCache(tempDir.resolve("cache").toFile(), 50, "1.0");
+        cache.put("a", output("a", 100), tempDir.resolve("none.zip").toFile(), 1);
+        assertEquals(-1, cache.get("a", tempDir.resolve("a-copy").toFile(), tempDir.resolve("a-copy.zip").toFile()));
+    }
+
+    @Test
+    void entriesAreReloadedAndIncompleteEntriesRemoved() throws IOException {
+        final File cacheDir = tempDir.resolve("cache").toFile();
+        new ConversionCache(cacheDir, 1024 * 1024, "1.0").put("a", output("a", 100), tempDir.resolve("none.zip").toFile(), 3);
+        final Path incomplete = cacheDir.toPath().resolve("b.tmp1");
+        Files.createDirectories(incomplete.resolve("output"));
+
+        final ConversionCache reloaded = new ConversionCache(cacheDir, 1024 * 1024, "1.0");
+        assertEquals(3, reloaded.get("a", tempDir.resolve("a-copy").toFile(), tempDir.resolve("a-copy.zip").toFile()));
+        assertFalse(Files.exists(incomplete));
+        assertTrue(Files.exists(cacheDir.toPath().resolve("a")));
+    }
+
+    private File write(final String name, final String content) throws IOException {
+        final Path file = tempDir.resolve(name);
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file.toFile();
+    }
+
+    private File output(final String name, final int size) throws IOException {
+        final Path page = tempDir.resolve(name).resolve("pages/1.html");
+        Files.createDirectories(page.getParent());
+        Files.writeString(page, "page" + "x".repeat(size - 4));
+        return page.getParent().getParent().toFile();
+    }
+}
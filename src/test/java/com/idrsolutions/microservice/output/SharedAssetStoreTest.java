@@ -0,0 +1,138 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.output;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SharedAssetStoreTest {
+
+    @TempDir
+    Path tempDir;
+
+    private Path storeDir;
+    private Path outputDir;
+    private SharedAssetStore store;
+
+    @BeforeEach
+    void createStore() throws IOException {
+        storeDir = tempDir.resolve("assets");
+        outputDir = tempDir.resolve("output");
+        store = new SharedAssetStore(storeDir.toFile(), outputDir.toFile());
+    }
+
+    @AfterEach
+    void stopStore() {
+        store.shutdown();
+    }
+
+    @Test
+    void repeatedFilesAreLinkedToOneStoredCopy() throws IOException {
+        final Path first = writeOutput("first", "assets/viewer.js", "viewer script");
+        final Path second = writeOutput("second", "assets/viewer.js", "viewer script");
+
+        store.share(first.getParent().getParent());
+        store.share(second.getParent().getParent());
+
+        assertTrue(Files.isSameFile(first, second));
+        assertEquals("viewer script", Files.readString(second));
+        assertEquals(1, countStored());
+        assertEquals(3, (Integer) Files.getAttribute(first, "unix:nlink"));
+    }
+
+    @Test
+    void differentContentIsStoredSeparately() throws IOException {
+        final Path first = writeOutput("first", "style.css", "a");
+        final Path second = writeOutput("second", "style.css", "b");
+
+        store.share(first.getParent());
+        store.share(second.getParent());
+
+        assertFalse(Files.isSameFile(first, second));
+        assertEquals(2, countStored());
+    }
+
+    @Test
+    void pagesAndEmptyFilesAreNotShared() throws IOException {
+        final Path page = writeOutput("first", "1.html", "page");
+        writeOutput("second", "1.html", "page");
+        final Path empty = writeOutput("first", "empty.js", "");
+
+        store.share(page.getParent());
+        store.share(outputDir.resolve("second"));
+
+        assertEquals(1, (Integer) Files.getAttribute(page, "unix:nlink"));
+        assertEquals(1, (Integer) Files.getAttribute(empty, "unix:nlink"));
+        assertEquals(0, countStored());
+    }
+
+    @Test
+    void compressedCopiesAreShared() throws IOException {
+        final Path first = writeOutput("first", "viewer.js" + OutputCompressor.GZIP_SUFFIX, "compressed");
+        final Path second = writeOutput("second", "viewer.js" + OutputCompressor.GZIP_SUFFIX, "compressed");
+
+        store.share(first.getParent());
+        store.share(second.getParent());
+
+        assertTrue(Files.isSameFile(first, second));
+    }
+
+    @Test
+    void sweepDeletesCopiesNoLongerLinked() throws IOException {
+        final Path first = writeOutput("first", "font.woff", "font");
+        store.share(first.getParent());
+        store.sweep();
+        assertEquals(1, countStored());
+
+        Files.delete(first);
+        store.sweep();
+        assertEquals(0, countStored());
+
+        // Shared again once a later output has the file
+        final Path second = writeOutput("second", "font.woff", "font");
+        store.share(second.getParent());
+        assertEquals(1, countStored());
+        assertEquals("font", Files.readString(second));
+    }
+
+    private Path writeOutput(final String uuid, final String name, final String content) throws IOException {
+        final Path file = outputDir.resolve(uuid).resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private long countStored() throws IOException {
+        try (Stream<Path> paths = Files.walk(storeDir)) {
+            return paths.filter(Files::isRegularFile).count();
+        }
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.pdf;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PageRangesTest {
+
+    @Test
+    void documentsAtOrBelowTheThresholdAreNotSharded() {
+        assertEquals(1, PageRanges.getShardCount(100, 100, 4));
+        assertEquals(1, PageRanges.getShardCount(1, 100, 4));
+    }
+
+    @Test
+    void zeroThresholdDisablesSharding() {
+        assertEquals(1, PageRanges.getShardCount(10000, 0, 4));
+    }
+
+    @Test
+    void shardCountIsLimitedBySlots() {
+        assertEquals(3, PageRanges.getShardCount(250, 100, 4));
+        assertEquals(4, PageRanges.getShardCount(1000, 100, 4));
+        assertEquals(1, PageRanges.getShardCount(1000, 100, 1));
+    }
+
+    @Test
+    void pageRangesCoverEveryPageOnce() {
+        for (int pageCount = 1; pageCount <= 60; pageCount++) {
+            for (int shardCount = 1; shardCount <= Math.min(pageCount, 8); shardCount++) {
+                final List<int[]> ranges = PageRanges.split(pageCount, shardCount);
+                assertEquals(shardCount, ranges.size());
+                int nextPage = 1;
+                for (final int[] range : ranges) {
+                    assertEquals(nextPage, range[0]);
+                    assertTrue(range[1] >= range[0], "Empty range for " + pageCount + " pages in " + shardCount + " shards");
+                    nextPage = range[1] + 1;
+                }
+                assertEquals(pageCount + 1, nextPage);
+            }
+        }
+    }
+
+    @Test
+    void pageRangeSizesDifferByAtMostOnePage() {
+        // 9 pages in 4 shards of 3 pages would leave the last shard empty
+        final List<int[]> ranges = PageRanges.split(9, 4);
+        assertArrayEquals(new int[] {1, 3}, ranges.get(0));
+        assertArrayEquals(new int[] {4, 5}, ranges.get(1));
+        assertArrayEquals(new int[] {6, 7}, ranges.get(2));
+        assertArrayEquals(new int[] {8, 9}, ranges.get(3));
+    }
+
+    @Test
+    void firstPageRangeIsTheLargest() {
+        final List<int[]> ranges = PageRanges.split(1001, 4);
+        final int firstSize = ranges.get(0)[1] - ranges.get(0)[0] + 1;
+        for (final int[] range : ranges) {
+            assertTrue(range[1] - range[0] + 1 <= firstSize);
+        }
+    }
+}
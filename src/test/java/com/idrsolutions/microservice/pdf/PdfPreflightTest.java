@@ -0,0 +1,301 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.pdf;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PdfPreflightTest {
+
+    private static final String CATALOG = "<< /Type /Catalog /Pages 2 0 R >>";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void readsClassicCrossReferenceTable() throws IOException {
+        final Map<Integer, String> objects = new LinkedHashMap<>();
+        objects.put(1, CATALOG);
+        objects.put(2, pages(3));
+
+        final PdfInfo info = PdfPreflight.read(write(classic("1.4", objects, 0, "")));
+        assertNotNull(info);
+        assertEquals(3, info.getPageCount());
+        assertFalse(info.isEncrypted());
+        assertEquals("1.4", info.getVersion());
+    }
+
+    @Test
+    void reportsEncryption() throws IOException {
+        final Map<Integer, String> objects = new LinkedHashMap<>();
+        objects.put(1, CATALOG);
+        objects.put(2, pages(2));
+
+        final PdfInfo info = PdfPreflight.read(write(classic("1.6", objects, 0, " /Encrypt 9 0 R")));
+        assertNotNull(info);
+        assertTrue(info.isEncrypted());
+    }
+
+    @Test
+    void followsPreviousSectionsOfIncrementalUpdates() throws IOException {
+        final Map<Integer, String> objects = new LinkedHashMap<>();
+        objects.put(1, CATALOG);
+        objects.put(2, pages(3));
+        final byte[] original = classic("1.4", objects, 0, "");
+
+        // The update replaces the page tree root, the catalog is only in the original section
+        final Map<Integer, String> update = new LinkedHashMap<>();
+        update.put(2, pages(5));
+        final byte[] updated = append(original, update, " /Prev " + startXref(original));
+
+        final PdfInfo info = PdfPreflight.read(write(updated));
+        assertNotNull(info);
+        assertEquals(5, info.getPageCount());
+    }
+
+    @Test
+    void readsCrossReferenceStreamAndObjectStream() throws IOException {
+        final Map<Integer, String> objects = new LinkedHashMap<>();
+        objects.put(1, CATALOG);
+        objects.put(2, pages(7));
+
+        final PdfInfo info = PdfPreflight.read(write(xrefStream(objects, false)));
+        assertNotNull(info);
+        assertEquals(7, info.getPageCount());
+        assertEquals("1.5", info.getVersion());
+    }
+
+    @Test
+    void readsCrossReferenceStreamWithPngPredictor() throws IOException {
+        final Map<Integer, String> objects = new LinkedHashMap<>();
+        objects.put(1, CATALOG);
+        objects.put(2, pages(12));
+
+        final PdfInfo info = PdfPreflight.read(write(xrefStream(objects, true)));
+        assertNotNull(info);
+        assertEquals(12, info.getPageCount());
+    }
+
+    @Test
+    void streamBasedFilesAreNotScannedForMissingObjects() throws IOException {
+        final Map<Integer, String> objects = new LinkedHashMap<>();
+        objects.put(1, "<< /Type /Catalog /Pages 5 0 R >>");
+        objects.put(2, pages(7));
+        final byte[] pdf = xrefStream(objects, false);
+
+        // Object 5 is not in the cross reference stream, but a definition of it can be found by scanning
+        final String trap = "\n5 0 obj\n" + pages(99) + "\nendobj\n";
+        final byte[] withTrap = new byte[pdf.length + trap.length()];
+        System.arraycopy(pdf, 0, withTrap, 0, pdf.length);
+        System.arraycopy(trap.getBytes(StandardCharsets.ISO_8859_1), 0, withTrap, pdf.length, trap.length());
+
+        assertNull(PdfPreflight.read(write(withTrap)));
+    }
+
+    @Test
+    void damagedTableOffsetsFallBackToScanning() throws IOException {
+        final Map<Integer, String> objects = new LinkedHashMap<>();
+        objects.put(1, CATALOG);
+        objects.put(2, pages(4));
+
+        final PdfInfo info = PdfPreflight.read(write(classic("1.4", objects, 3, "")));
+        assertNotNull(info);
+        assertEquals(4, info.getPageCount());
+    }
+
+    @Test
+    void emptyPageTreeIsUnknown() throws IOException {
+        final Map<Integer, String> objects = new LinkedHashMap<>();
+        objects.put(1, CATALOG);
+        objects.put(2, pages(0));
+
+        assertNull(PdfPreflight.read(write(classic("1.4", objects, 0, ""))));
+    }
+
+    @Test
+    void invalidFilesAreUnknown() throws IOException {
+        assertNull(PdfPreflight.read(write("not a pdf".getBytes(StandardCharsets.ISO_8859_1))));
+        assertNull(PdfPreflight.read(write("%PDF-1.4\nstartxref\n99999\n%%EOF\n".getBytes(StandardCharsets.ISO_8859_1))));
+        assertNull(PdfPreflight.read(write("%PDF-1.4\n1 0 obj\n<<>>\nendobj\nstartxref\n9\n%%EOF\n".getBytes(StandardCharsets.ISO_8859_1))));
+    }
+
+    @Test
+    void subsectionCountBeyondTheEndOfTheFileIsUnknown() throws IOException {
+        final String body = "%PDF-1.4\n1 0 obj\n" + CATALOG + "\nendobj\n";
+        final String pdf = body + "xref\n0 2147483647\n0000000000 65535 f\r\ntrailer\n<< /Size 2 /Root 1 0 R >>\nstartxref\n"
+                + body.length() + "\n%%EOF\n";
+
+        assertNull(PdfPreflight.read(write(pdf.getBytes(StandardCharsets.ISO_8859_1))));
+    }
+
+    private static String pages(final int count) {
+        return "<< /Type /Pages /Kids [] /Count " + count + " >>";
+    }
+
+    /**
+     * Writes a PDF with a cross reference table, adding offsetError to every
+     * offset in the table to simulate a damaged table.
+     */
+    private static byte[] classic(final String version, final Map<Integer, String> objects, final int offsetError,
+                                  final String trailerEntries) {
+        final StringBuilder pdf = new StringBuilder("%PDF-" + version + "\n");
+        final Map<Integer, Integer> offsets = new TreeMap<>();
+        for (final Map.Entry<Integer, String> object : objects.entrySet()) {
+            offsets.put(object.getKey(), pdf.length() + offsetError);
+            pdf.append(object.getKey()).append(" 0 obj\n").append(object.getValue()).append("\nendobj\n");
+        }
+        final int xref = pdf.length();
+        pdf.append("xref\n0 ").append(offsets.size() + 1).append('\n').append("0000000000 65535 f\r\n");
+        for (final int offset : offsets.values()) {
+            pdf.append(String.format("%010d 00000 n\r\n", offset));
+        }
+        pdf.append("trailer\n<< /Size ").append(offsets.size() + 1).append(" /Root 1 0 R").append(trailerEntries)
+                .append(" >>\nstartxref\n").append(xref).append("\n%%EOF\n");
+        return pdf.toString().getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Appends an incremental update replacing the given objects.
+     */
+    private static byte[] append(final byte[] original, final Map<Integer, String> objects, final String trailerEntries) {
+        final StringBuilder update = new StringBuilder();
+        final StringBuilder table = new StringBuilder();
+        for (final Map.Entry<Integer, String> object : objects.entrySet()) {
+            table.append(object.getKey()).append(" 1\n")
+                    .append(String.format("%010d 00000 n\r\n", original.length + update.length()));
+            update.append(object.getKey()).append(" 0 obj\n").append(object.getValue()).append("\nendobj\n");
+        }
+        final int xref = original.length + update.length();
+        update.append("xref\n").append(table).append("trailer\n<< /Size 3 /Root 1 0 R").append(trailerEntries)
+                .append(" >>\nstartxref\n").append(xref).append("\n%%EOF\n");
+
+        final byte[] appended = update.toString().getBytes(StandardCharsets.ISO_8859_1);
+        final byte[] result = new byte[original.length + appended.length];
+        System.arraycopy(original, 0, result, 0, original.length);
+        System.arraycopy(appended, 0, result, original.length, appended.length);
+        return result;
+    }
+
+    /**
+     * Writes a PDF 1.5 file with all the given objects compressed in object
+     * stream 10 and a Flate compressed cross reference stream, object 11.
+     */
+    private static byte[] xrefStream(final Map<Integer, String> objects, final boolean predictor) throws IOException {
+        final ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+        write(pdf, "%PDF-1.5\n");
+
+        final StringBuilder offsets = new StringBuilder();
+        final StringBuilder content = new StringBuilder();
+        for (final Map.Entry<Integer, String> object : objects.entrySet()) {
+            offsets.append(object.getKey()).append(' ').append(content.length()).append(' ');
+            content.append(object.getValue()).append('\n');
+        }
+        final String objectStreamData = offsets + content.toString();
+        final byte[] objectStream = deflate(objectStreamData.getBytes(StandardCharsets.ISO_8859_1));
+        final int objectStreamOffset = pdf.size();
+        write(pdf, "10 0 obj\n<< /Type /ObjStm /N " + objects.size() + " /First " + offsets.length()
+                + " /Filter /FlateDecode /Length " + objectStream.length + " >>\nstream\n");
+        pdf.write(objectStream);
+        write(pdf, "\nendstream\nendobj\n");
+
+        // Entries for objects 0 to 11, each a 1 byte type, 4 byte offset or stream number and 2 byte generation or index
+        final int xrefOffset = pdf.size();
+        final byte[][] rows = new byte[12][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new byte[] {0, 0, 0, 0, 0, (byte) 0xFF, (byte) 0xFF};
+        }
+        int index = 0;
+        for (final Integer objectNumber : objects.keySet()) {
+            rows[objectNumber] = entry(2, 10, index++);
+        }
+        rows[10] = entry(1, objectStreamOffset, 0);
+        rows[11] = entry(1, xrefOffset, 0);
+
+        final ByteArrayOutputStream entries = new ByteArrayOutputStream();
+        for (int i = 0; i < rows.length; i++) {
+            if (predictor) {
+                // PNG Up predictor, each byte is stored as the difference from the byte above it
+                entries.write(2);
+                for (int j = 0; j < rows[i].length; j++) {
+                    entries.write(rows[i][j] - (i > 0 ? rows[i - 1][j] : 0));
+                }
+            } else {
+                entries.write(rows[i]);
+            }
+        }
+        final byte[] xref = deflate(entries.toByteArray());
+        write(pdf, "11 0 obj\n<< /Type /XRef /Size 12 /W [1 4 2] /Root 1 0 R /Filter /FlateDecode"
+                + (predictor ? " /DecodeParms << /Predictor 12 /Columns 7 >>" : "")
+                + " /Length " + xref.length + " >>\nstream\r\n");
+        pdf.write(xref);
+        write(pdf, "\nendstream\nendobj\nstartxref\n" + xrefOffset + "\n%%EOF\n");
+        return pdf.toByteArray();
+    }
+
+    private static byte[] entry(final int type, final int field2, final int field3) {
+        return new byte[] {(byte) type, (byte) (field2 >> 24), (byte) (field2 >> 16), (byte) (field2 >> 8), (byte) field2,
+                (byte) (field3 >> 8), (byte) field3};
+    }
+
+    private static byte[] deflate(final byte[] data) {
+        final Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    private static void write(final ByteArrayOutputStream out, final String text) throws IOException {
+        out.write(text.getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    private static int startXref(final byte[] pdf) {
+        final String text = new String(pdf, StandardCharsets.ISO_8859_1);
+        final int start = text.lastIndexOf("startxref") + "startxref".length();
+        return Integer.parseInt(text.substring(start, text.indexOf("%%EOF", start)).trim());
+    }
+
+    private File write(final byte[] pdf) throws IOException {
+        final Path file = Files.createTempFile(tempDir, "preflight", ".pdf");
+        Files.write(file, pdf);
+        return file.toFile();
+    }
+}
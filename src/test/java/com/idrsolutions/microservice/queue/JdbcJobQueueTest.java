@@ -0,0 +1,124 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.queue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.sql.DriverManager;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JdbcJobQueueTest {
+
+    private static final long LEASE = 60000;
+
+    private JdbcJobQueue queue;
+
+    @BeforeEach
+    void createQueue() throws IOException {
+        final String url = "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        queue = new JdbcJobQueue(() -> DriverManager.getConnection(url));
+    }
+
+    @Test
+    void emptyQueueHasNothingToClaim() throws IOException {
+        assertNull(queue.claim("node-a", LEASE));
+    }
+
+    @Test
+    void jobsAreClaimedOldestFirst() throws IOException, InterruptedException {
+        queue.enqueue(job("first", "client-a"));
+        Thread.sleep(5);
+        queue.enqueue(job("second", "client-b"));
+
+        final QueuedJob claimed = queue.claim("node-a", LEASE);
+        assertNotNull(claimed);
+        assertEquals("first", claimed.getUuid());
+        assertEquals("client-a", claimed.getClientId());
+        assertEquals(1, claimed.getAttempts());
+        assertEquals("second", queue.claim("node-a", LEASE).getUuid());
+    }
+
+    @Test
+    void leasedJobIsNotClaimedByAnotherNode() throws IOException {
+        queue.enqueue(job("job", "client"));
+        assertNotNull(queue.claim("node-a", LEASE));
+        assertNull(queue.claim("node-b", LEASE));
+    }
+
+    @Test
+    void expiredLeaseIsClaimedAgain() throws IOException {
+        queue.enqueue(job("job", "client"));
+        // A negative duration gives a lease that has already expired
+        assertNotNull(queue.claim("node-a", -1));
+
+        final QueuedJob reclaimed = queue.claim("node-b", LEASE);
+        assertNotNull(reclaimed);
+        assertEquals("job", reclaimed.getUuid());
+        assertEquals(2, reclaimed.getAttempts());
+
+        // The first node no longer holds the lease, so cannot renew or remove the job
+        assertFalse(queue.renew("job", "node-a", LEASE));
+        queue.complete("job", "node-a");
+        assertTrue(queue.renew("job", "node-b", LEASE));
+    }
+
+    @Test
+    void renewedLeaseIsKept() throws IOException {
+        queue.enqueue(job("job", "client"));
+        assertNotNull(queue.claim("node-a", -1));
+        assertTrue(queue.renew("job", "node-a", LEASE));
+        assertNull(queue.claim("node-b", LEASE));
+    }
+
+    @Test
+    void completedJobIsRemoved() throws IOException {
+        queue.enqueue(job("job", "client"));
+        assertNotNull(queue.claim("node-a", -1));
+        queue.complete("job", "node-a");
+        assertNull(queue.claim("node-b", LEASE));
+    }
+
+    @Test
+    void everyJobIsClaimedOnceBeyondTheCandidateLimit() throws IOException {
+        for (int i = 0; i < 12; i++) {
+            queue.enqueue(job("job-" + i, "client"));
+        }
+
+        final Set<String> claimed = new HashSet<>();
+        QueuedJob job;
+        while ((job = queue.claim(claimed.size() % 2 == 0 ? "node-a" : "node-b", LEASE)) != null) {
+            assertTrue(claimed.add(job.getUuid()), "Claimed twice: " + job.getUuid());
+        }
+        assertEquals(12, claimed.size());
+    }
+
+    private static QueuedJob job(final String uuid, final String clientId) {
+        return new QueuedJob(uuid, uuid + ".pdf", "/input/" + uuid + ".pdf", null, "http://localhost:8080/buildvu", clientId, 0);
+    }
+}
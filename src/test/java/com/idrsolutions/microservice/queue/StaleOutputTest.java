@@ -0,0 +1,98 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.queue;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.DriverManager;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StaleOutputTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void reclaimedJobStartsFromEmptyOutput() throws IOException, InterruptedException {
+        final String url = "jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1";
+        final JdbcJobQueue queue = new JdbcJobQueue(() -> DriverManager.getConnection(url));
+        final Path inputDir = Files.createDirectories(tempDir.resolve("input/job"));
+        final File outputDir = tempDir.resolve("output/job").toFile();
+        final File outputZip = tempDir.resolve("output/job.zip").toFile();
+        queue.enqueue(new QueuedJob("job", "job.pdf", inputDir.resolve("job.pdf").toString(), null, "http://localhost:8080/buildvu", "client", 0));
+
+        // The first node claims the job, writes part of its output, then stops without renewing its lease
+        assertNotNull(queue.claim("node-a", -1));
+        Files.createDirectories(outputDir.toPath().resolve("assets"));
+        Files.write(outputDir.toPath().resolve("1.html"), new byte[0]);
+        Files.write(outputZip.toPath(), new byte[0]);
+        Files.createDirectories(inputDir.resolve("shard-1"));
+        Files.write(inputDir.resolve("shard-1/30.html"), new byte[0]);
+
+        final List<Integer> attempts = new CopyOnWriteArrayList<>();
+        final List<Boolean> created = new CopyOnWriteArrayList<>();
+        final CountDownLatch ran = new CountDownLatch(1);
+        final JobQueueWorker worker = new JobQueueWorker(queue, 1, 60000, 3, job -> {
+            try {
+                StaleOutput.remove(job, inputDir.toFile(), outputDir, outputZip);
+                attempts.add(job.getAttempts());
+                created.add(outputDir.mkdirs());
+            } catch (final IOException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                ran.countDown();
+            }
+        });
+        try {
+            assertTrue(ran.await(10, TimeUnit.SECONDS));
+        } finally {
+            worker.shutdown();
+        }
+
+        assertEquals(List.of(2), attempts);
+        assertEquals(List.of(true), created);
+        assertFalse(outputZip.exists());
+        assertFalse(Files.exists(inputDir.resolve("shard-1")));
+    }
+
+    @Test
+    void firstAttemptKeepsExistingFiles() throws IOException {
+        final Path inputDir = Files.createDirectories(tempDir.resolve("input/job"));
+        final Path outputDir = Files.createDirectories(tempDir.resolve("output/job"));
+        final QueuedJob job = new QueuedJob("job", "job.pdf", inputDir.resolve("job.pdf").toString(), null, "http://localhost:8080/buildvu", "client", 0);
+
+        StaleOutput.remove(job, inputDir.toFile(), outputDir.toFile(), tempDir.resolve("output/job.zip").toFile());
+
+        assertTrue(Files.isDirectory(outputDir));
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.scheduler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversionSchedulerTest {
+
+    @Test
+    void limitsRunningJobsToSlots() throws InterruptedException {
+        final ConversionScheduler scheduler = new ConversionScheduler(1, 0, new FifoPolicy());
+        final ConversionJob first = new ConversionJob("first", "a", 1, 0, 0);
+        scheduler.acquire(first);
+
+        final ConversionJob second = new ConversionJob("second", "a", 1, 0, 0);
+        final CountDownLatch admitted = acquireInBackground(scheduler, second);
+        assertFalse(admitted.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, scheduler.getStats().getQueueDepth());
+
+        scheduler.release(first);
+        assertTrue(admitted.await(5, TimeUnit.SECONDS));
+        assertEquals(0, scheduler.getStats().getQueueDepth());
+        assertEquals(2, scheduler.getStats().getAdmittedCount());
+    }
+
+    @Test
+    void freedSlotGoesToTheJobChosenByThePolicy() throws InterruptedException {
+        final ConversionScheduler scheduler = new ConversionScheduler(1, 0, new ShortestJobFirstPolicy(0));
+        final ConversionJob running = new ConversionJob("running", "a", 1, 0, 0);
+        scheduler.acquire(running);
+
+        final ConversionJob large = new ConversionJob("large", "a", 500, 0, 0);
+        final CountDownLatch largeAdmitted = acquireInBackground(scheduler, large);
+        waitForQueueDepth(scheduler, 1);
+        final ConversionJob small = new ConversionJob("small", "a", 5, 0, 0);
+        final CountDownLatch smallAdmitted = acquireInBackground(scheduler, small);
+        waitForQueueDepth(scheduler, 2);
+
+        scheduler.release(running);
+        assertTrue(smallAdmitted.await(5, TimeUnit.SECONDS));
+        assertFalse(largeAdmitted.await(200, TimeUnit.MILLISECONDS));
+
+        scheduler.release(small);
+        assertTrue(largeAdmitted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void memoryBudgetAdmitsJobsThatFit() throws InterruptedException {
+        final ConversionScheduler scheduler = new ConversionScheduler(1, 1000, new FifoPolicy());
+        scheduler.acquire(new ConversionJob("a", "a", 1, 0, 400));
+        scheduler.acquire(new ConversionJob("b", "a", 1, 0, 400));
+
+        final CountDownLatch admitted = acquireInBackground(scheduler, new ConversionJob("c", "a", 1, 0, 400));
+        assertFalse(admitted.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(800, scheduler.getStats().getReservedMemory());
+    }
+
+    @Test
+    void oversizedJobRunsAlone() throws InterruptedException {
+        final ConversionScheduler scheduler = new ConversionScheduler(1, 1000, new FifoPolicy());
+        final ConversionJob oversized = new ConversionJob("a", "a", 1, 0, 4000);
+        scheduler.acquire(oversized);
+        assertEquals(1, scheduler.getStats().getRunning());
+        scheduler.release(oversized);
+        assertEquals(0, scheduler.getStats().getReservedMemory());
+    }
+
+    @Test
+    void extraSlotsAreOnlyLentWhenNothingIsWaiting() throws InterruptedException {
+        final ConversionScheduler scheduler = new ConversionScheduler(2, 0, new FifoPolicy());
+        final ConversionJob first = new ConversionJob("first", "a", 1, 0, 0);
+        scheduler.acquire(first);
+        assertTrue(scheduler.tryAcquireExtra(0));
+        assertFalse(scheduler.tryAcquireExtra(0));
+
+        final CountDownLatch admitted = acquireInBackground(scheduler, new ConversionJob("second", "a", 1, 0, 0));
+        waitForQueueDepth(scheduler, 1);
+        scheduler.releaseExtra(0);
+        assertTrue(admitted.await(5, TimeUnit.SECONDS));
+
+        scheduler.release(first);
+        assertTrue(scheduler.tryAcquireExtra(0));
+    }
+
+    private static CountDownLatch acquireInBackground(final ConversionScheduler scheduler, final ConversionJob job) {
+        final CountDownLatch admitted = new CountDownLatch(1);
+        final Thread thread = new Thread(() -> {
+            try {
+                scheduler.acquire(job);
+                admitted.countDown();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return admitted;
+    }
+
+    private static void waitForQueueDepth(final ConversionScheduler scheduler, final int depth) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (scheduler.getStats().getQueueDepth() != depth && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(depth, scheduler.getStats().getQueueDepth());
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.scheduler;
+
+import com.idrsolutions.microservice.utils.ProcessUtils;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutOfMemoryRetryTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void workerThatRanOutOfMemoryIsRetriedAboveTheMemoryLimit() {
+        final ConversionScheduler scheduler = new ConversionScheduler(1, 0, new FifoPolicy());
+        final OutOfMemoryRetry retry = new OutOfMemoryRetry(new MemoryEstimator(false, 1024, 0), scheduler);
+        final File marker = tempDir.resolve("uuid-oom.log").toFile();
+        final List<Integer> retryHeaps = new ArrayList<>();
+
+        // A worker of the pool leaves an empty marker when it runs out of memory
+        final ProcessUtils.Result result = retry.run("uuid", maxDuration -> outOfMemory(marker, ""), 1024, 1024, 0, marker,
+                (heap, maxDuration) -> {
+                    retryHeaps.add(heap);
+                    return ProcessUtils.Result.SUCCESS;
+                });
+
+        assertEquals(ProcessUtils.Result.SUCCESS, result);
+        assertEquals(List.of(2048), retryHeaps);
+        assertFalse(marker.exists());
+    }
+
+    @Test
+    void retryReservesItsExtraMemoryWithinTheBudget() throws InterruptedException {
+        final ConversionScheduler scheduler = new ConversionScheduler(1, 3000, new FifoPolicy());
+        final ConversionJob job = new ConversionJob("uuid", "a", 10, 0, MemoryEstimator.getReservation(1536));
+        scheduler.acquire(job);
+        final OutOfMemoryRetry retry = new OutOfMemoryRetry(new MemoryEstimator(true, 2048, 3000), scheduler);
+        final File marker = tempDir.resolve("uuid-oom.log").toFile();
+        final List<Long> reservedDuringRetry = new ArrayList<>();
+
+        final ProcessUtils.Result result = retry.run("uuid", maxDuration -> outOfMemory(marker, "java.lang.OutOfMemoryError: Java heap space"),
+                1536, 1536, 0, marker, (heap, maxDuration) -> {
+                    assertEquals(3000 - 128, heap);
+                    reservedDuringRetry.add(scheduler.getStats().getReservedMemory());
+                    return ProcessUtils.Result.ERROR;
+                });
+
+        assertEquals(ProcessUtils.Result.ERROR, result);
+        assertEquals(List.of((long) MemoryEstimator.getReservation(3000 - 128)), reservedDuringRetry);
+        assertEquals(MemoryEstimator.getReservation(1536), scheduler.getStats().getReservedMemory());
+    }
+
+    @Test
+    void otherErrorsAreNotRetried() {
+        final ConversionScheduler scheduler = new ConversionScheduler(1, 0, new FifoPolicy());
+        final OutOfMemoryRetry retry = new OutOfMemoryRetry(new MemoryEstimator(false, 1024, 0), scheduler);
+        final File marker = tempDir.resolve("uuid-oom.log").toFile();
+        final List<Integer> retryHeaps = new ArrayList<>();
+
+        final ProcessUtils.Result crashed = retry.run("uuid", maxDuration -> outOfMemory(marker, "SIGSEGV"), 1024, 1024, 0, marker,
+                (heap, maxDuration) -> {
+                    retryHeaps.add(heap);
+                    return ProcessUtils.Result.SUCCESS;
+                });
+        final ProcessUtils.Result failed = retry.run("uuid", maxDuration -> ProcessUtils.Result.ERROR, 1024, 1024, 0, marker,
+                (heap, maxDuration) -> {
+                    retryHeaps.add(heap);
+                    return ProcessUtils.Result.SUCCESS;
+                });
+
+        assertEquals(ProcessUtils.Result.ERROR, crashed);
+        assertEquals(ProcessUtils.Result.ERROR, failed);
+        assertTrue(retryHeaps.isEmpty());
+        assertFalse(marker.exists());
+    }
+
+    private static ProcessUtils.Result outOfMemory(final File marker, final String errorLog) {
+        try {
+            Files.write(marker.toPath(), errorLog.getBytes(StandardCharsets.ISO_8859_1));
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return ProcessUtils.Result.ERROR;
+    }
+}
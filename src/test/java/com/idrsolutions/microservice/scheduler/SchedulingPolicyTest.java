@@ -0,0 +1,116 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.scheduler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class SchedulingPolicyTest {
+
+    private static final long NOW = 1000000;
+
+    @Test
+    void fifoRunsTheOldestJob() {
+        final ConversionJob first = job("a", 500, 10);
+        final ConversionJob second = job("a", 1, 5);
+        assertSame(first, new FifoPolicy().select(Arrays.asList(first, second), Collections.emptyList(), NOW));
+    }
+
+    @Test
+    void shortestJobFirstRunsTheSmallestJob() {
+        final ConversionJob large = job("a", 500, 10);
+        final ConversionJob small = job("a", 20, 5);
+        assertSame(small, new ShortestJobFirstPolicy(1).select(Arrays.asList(large, small), Collections.emptyList(), NOW));
+    }
+
+    @Test
+    void shortestJobFirstAgesWaitingJobs() {
+        // 500 pages after 490 seconds of waiting at 1 page per second ranks below 20 pages just queued
+        final ConversionJob large = job("a", 500, 490);
+        final ConversionJob small = job("a", 20, 0);
+        assertSame(large, new ShortestJobFirstPolicy(1).select(Arrays.asList(large, small), Collections.emptyList(), NOW));
+        assertSame(small, new ShortestJobFirstPolicy(0).select(Arrays.asList(large, small), Collections.emptyList(), NOW));
+    }
+
+    @Test
+    void shortestJobFirstBreaksTiesByQueueOrder() {
+        final ConversionJob first = job("a", 10, 5);
+        final ConversionJob second = job("b", 10, 5);
+        assertSame(first, new ShortestJobFirstPolicy(0).select(Arrays.asList(first, second), Collections.emptyList(), NOW));
+    }
+
+    @Test
+    void lanesPreferSmallJobs() {
+        final ConversionJob large = job("a", 200, 10);
+        final ConversionJob small = job("a", 10, 5);
+        assertSame(small, new LanePolicy(100, 1).select(Arrays.asList(large, small), Collections.emptyList(), NOW));
+    }
+
+    @Test
+    void lanesLimitRunningLargeJobs() {
+        final LanePolicy policy = new LanePolicy(100, 1);
+        final ConversionJob large = job("a", 100, 10);
+        final List<ConversionJob> waiting = Collections.singletonList(large);
+
+        assertSame(large, policy.select(waiting, Collections.singletonList(job("b", 10, 0)), NOW));
+        assertNull(policy.select(waiting, Collections.singletonList(job("b", 300, 0)), NOW));
+    }
+
+    @Test
+    void fairRunsTheClientWithFewestRunningJobs() {
+        final ConversionJob busy = job("busy", 10, 10);
+        final ConversionJob idleOldest = job("idle", 10, 5);
+        final ConversionJob idleNewest = job("idle", 10, 1);
+        final List<ConversionJob> running = Arrays.asList(job("busy", 10, 0), job("other", 10, 0));
+
+        assertSame(idleOldest, new FairPolicy().select(Arrays.asList(busy, idleOldest, idleNewest), running, NOW));
+    }
+
+    @Test
+    void fairRunsTheOldestJobWhenClientsAreEven() {
+        final ConversionJob first = job("a", 10, 10);
+        final ConversionJob second = job("b", 10, 5);
+        assertSame(first, new FairPolicy().select(Arrays.asList(first, second), new ArrayList<>(), NOW));
+    }
+
+    @Test
+    void policiesAreNamedAsConfigured() {
+        assertEquals("fifo", new FifoPolicy().getName());
+        assertEquals("sjf", new ShortestJobFirstPolicy(1).getName());
+        assertEquals("lanes", new LanePolicy(100, 1).getName());
+        assertEquals("fair", new FairPolicy().getName());
+    }
+
+    /**
+     * Creates a job that was queued the given number of seconds before {@link #NOW}.
+     */
+    private static ConversionJob job(final String clientId, final int pageCount, final int secondsWaiting) {
+        final ConversionJob job = new ConversionJob(clientId + '-' + pageCount + '-' + secondsWaiting, clientId, pageCount, 0, 0);
+        job.queued(NOW - secondsWaiting * 1000L);
+        return job;
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * BuildVu Microservice Example
+ *
+ * Project Info: https://github.com/idrsolutions/buildvu-microservice-example
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+package com.idrsolutions.microservice.status;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ConversionProgressTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void countsPagesWrittenByEveryShard() throws IOException {
+        final File first = tempDir.resolve("output").toFile();
+        final File second = tempDir.resolve("shard-1").toFile();
+        final ConversionProgress progress = new ConversionProgress("uuid", Arrays.asList(first, second),
+                Arrays.asList(new int[] {1, 5}, new int[] {6, 10}));
+
+        assertEquals(0, progress.getPagesConverted());
+
+        writePages(first, 1, 2, 3);
+        writePages(second, 6, 7);
+        // The last page written by each running shard may still be in progress
+        assertEquals(3, progress.getPagesConverted());
+
+        writePages(second, 8, 9, 10);
+        progress.shardFinished(1);
+        assertEquals(7, progress.getPagesConverted());
+    }
+
+    @Test
+    void ignoresFilesThatAreNotPages() throws IOException {
+        final File output = tempDir.resolve("output").toFile();
+        final ConversionProgress progress = new ConversionProgress("uuid", Arrays.asList(output), Arrays.asList(new int[] {1, 3}));
+
+        writePages(output, 1, 2);
+        Files.createDirectories(output.toPath().resolve("assets"));
+        Files.write(output.toPath().resolve("index.html"), new byte[0]);
+
+        assertEquals(1, progress.getPagesConverted());
+    }
+
+    private static void writePages(final File dir, final int... pages) throws IOException {
+        Files.createDirectories(dir.toPath());
+        for (final int page : pages) {
+            Files.write(dir.toPath().resolve(page + ".html"), new byte[0]);
+        }
+    }
+}